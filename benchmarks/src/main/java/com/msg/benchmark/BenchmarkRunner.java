@@ -0,0 +1,31 @@
+package com.msg.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行性能测试并把结果写成JSON，不同提交的结果文件可以用JMH Visualizer等工具对比
+ * <p>
+ * 参数: [要运行的测试的正则，默认全部] [结果文件，默认jmh-result.json]
+ * <p>
+ * 需要更多控制时可以直接用java -jar benchmarks.jar加JMH的命令行参数，例如-rf json -rff result.json
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "com\\.msg\\..*";
+        String resultPath = args.length > 1 ? args[1] : "jmh-result.json";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .jvmArgsAppend("-Dorg.bytedeco.javacpp.maxbytes=8G", "-Dorg.bytedeco.javacpp.maxphysicalbytes=12G")
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultPath)
+                .build();
+        new Runner(options).run();
+        System.out.println("结果已写入: " + resultPath);
+    }
+}
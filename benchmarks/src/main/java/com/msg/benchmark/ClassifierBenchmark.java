@@ -0,0 +1,154 @@
+package com.msg.benchmark;
+
+import com.msg.classifier.CascadeClassifier;
+import com.msg.classifier.Prediction;
+import com.msg.classifier.TextClassifier;
+import com.msg.classifier.cnn.CnnTextClassifier;
+import com.msg.classifier.fasttext.FastTextClassifier;
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import org.deeplearning4j.eval.Evaluation;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在同一个训练集/测试集拆分上对比分类器的单条预测延迟和批量预测吞吐量
+ * <p>
+ * 语料按TrainTestSplit(测试集20%，固定随机种子)拆分，分类器在训练集上重新训练，开始测试前输出训练耗时、内存增加，
+ * 以及测试集上的准确率和F1；cascade是fastText加CNN的级联分类器，另外输出交给CNN的比例，阈值用-p threshold=...指定
+ * <p>
+ * 默认使用合成的语料和词向量，标签是随机的，准确率没有意义；用-p corpus=... -p vectorPath=...指定真实的语料和词向量。
+ * JIT和堆外内存在同一个进程里会互相影响，每个分类器在单独的fork里测试
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ClassifierBenchmark {
+    private static final int VOCAB_SIZE = 20000;
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"fasttext", "cnn", "cascade"})
+    public String engine;
+
+    @Param({"0.9"})
+    public double threshold;
+
+    @Param({""})
+    public String corpus;
+
+    @Param({""})
+    public String vectorPath;
+
+    private TextClassifier<?> classifier;
+    private List<String> testX;
+    private List<String> batch;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String textPath = corpus.isEmpty() ? SyntheticData.labeledCorpus(5000, 20, VOCAB_SIZE).getPath() : corpus;
+        String vectors = vectorPath.isEmpty() ? SyntheticData.wordVectors(VOCAB_SIZE, 300).getPath() : vectorPath;
+        TrainTestSplit.TrainTest split = TrainTestSplit.split(FileUtil.readFileToArray(textPath), 0.2f,
+                TextClassifier.LABEL_SPLIT, new Random(12345));
+        String trainPath = SyntheticData.file("classifier-train.txt").getPath();
+        List<String> trainLines = new ArrayList<>(split.getTrainX().size());
+        for (int i = 0; i < split.getTrainX().size(); i++) {
+            trainLines.add(split.getTrainX().get(i) + " " + TextClassifier.LABEL_SPLIT + " " + split.getTrainY().get(i));
+        }
+        FileUtil.writeArrayToFile(trainLines, trainPath);
+        testX = split.getTestX();
+        System.out.println("训练集 " + trainLines.size() + " 条, 测试集 " + testX.size() + " 条");
+
+        if ("cascade".equals(engine)) {
+            classifier = new CascadeClassifier(build("fasttext", trainPath, vectors), build("cnn", trainPath, vectors), threshold);
+        } else {
+            classifier = build(engine, trainPath, vectors);
+        }
+        Evaluation evaluation = classifier.evaluate(testX, split.getTestY());
+        String fallback = classifier instanceof CascadeClassifier
+                ? String.format(", 交给第二级 %.1f%%", ((CascadeClassifier) classifier).getFallbackRatio() * 100) : "";
+        System.out.println(String.format("%s: 准确率 %.4f, F1 %.4f%s", engine, evaluation.accuracy(), evaluation.f1(), fallback));
+
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(testX.get(i % testX.size()));
+        }
+    }
+
+    /**
+     * 删除旧模型后重新训练，输出训练耗时和内存增加
+     */
+    private static TextClassifier<?> build(String engine, String trainPath, String vectorPath) throws IOException {
+        String modelPath = SyntheticData.file("classifier-" + engine + ".model").getPath();
+        Files.deleteIfExists(Paths.get(modelPath));
+        long heapBefore = usedHeap();
+        long rssBefore = residentBytes();
+        long start = System.nanoTime();
+        TextClassifier<?> classifier;
+        if ("cnn".equals(engine)) {
+            classifier = new CnnTextClassifier(trainPath, CnnTextClassifier.loadWordVectors(vectorPath), modelPath);
+        } else {
+            classifier = new FastTextClassifier(trainPath, modelPath);
+        }
+        double trainSeconds = (System.nanoTime() - start) / 1e9;
+        long heap = usedHeap() - heapBefore;
+        long rss = residentBytes() - rssBefore;
+        System.out.println(String.format("%s: 训练(含加载)耗时 %.1fs, 堆内存增加 %dMB, 常驻内存增加 %dMB",
+                engine, trainSeconds, heap >> 20, rss >> 20));
+        return classifier;
+    }
+
+    /**
+     * 单条预测的延迟
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Prediction> predict() {
+        cursor = (cursor + 1) % testX.size();
+        return classifier.predictBatch(Collections.singletonList(testX.get(cursor)));
+    }
+
+    /**
+     * 分数为每秒预测的句子数
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Prediction> predictBatch() {
+        return classifier.predictBatch(batch);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 进程的常驻内存，包括堆外内存，只支持Linux，其他系统返回0
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+        return 0;
+    }
+}
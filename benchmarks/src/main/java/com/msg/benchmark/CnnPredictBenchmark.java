@@ -0,0 +1,66 @@
+package com.msg.benchmark;
+
+import com.msg.classifier.Prediction;
+import com.msg.classifier.cnn.CnnTextClassifier;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CnnTextClassifier单条预测的延迟和批量预测的吞吐量，按句子长度分别测试，两者的分数换算成每秒句子数可以直接对比
+ * <p>
+ * 词向量和训练语料是合成的，模型第一次运行时训练并保存，之后直接加载
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CnnPredictBenchmark {
+    private static final int VOCAB_SIZE = 20000;
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"8", "32", "128", "256"})
+    public int sentenceLength;
+
+    private CnnTextClassifier classifier;
+    private List<String> sentences;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File textPath = SyntheticData.labeledCorpus(2000, 20, VOCAB_SIZE);
+        WordVectors wordVectors = CnnTextClassifier.loadWordVectors(SyntheticData.wordVectors(VOCAB_SIZE, 300).getPath());
+        classifier = new CnnTextClassifier(textPath.getPath(), wordVectors, SyntheticData.file("cnn-model.zip").getPath());
+
+        Random rng = new Random(42);
+        sentences = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            sentences.add(SyntheticData.sentence(rng, sentenceLength, VOCAB_SIZE));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String predict() {
+        cursor = (cursor + 1) % sentences.size();
+        return classifier.predict(sentences.get(cursor));
+    }
+
+    /**
+     * 分数为每秒预测的句子数
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Prediction> predictBatch() {
+        return classifier.predictBatch(sentences);
+    }
+}
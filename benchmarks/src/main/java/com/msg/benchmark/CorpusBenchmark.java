@@ -0,0 +1,72 @@
+package com.msg.benchmark;
+
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * FileUtil读取语料和TrainTestSplit.split在一百万到三千万行合成语料上的耗时，三千万行约2.3GB
+ * <p>
+ * 1) readFileToArray/readFileToArrayParallel: 整个文件读进列表，单线程和每个CPU一个线程的分块读取
+ * 2) streamLines/streamLinesGzip: 惰性流逐行扫描一遍，不保留行，分别读取原文件和gzip压缩的副本
+ * <p>
+ * 三千万行读进内存需要十几GB的堆，内存不够时用-p lines=1000000,10000000只测前两种
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms16g", "-Xmx16g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class CorpusBenchmark {
+
+    @Param({"1000000", "10000000", "30000000"})
+    public int lines;
+
+    private File corpus;
+    private File gzipCorpus;
+    private List<String> loaded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = SyntheticData.labeledCorpus(lines, 20, 50000);
+        gzipCorpus = SyntheticData.gzip(corpus);
+        loaded = FileUtil.readFileToArray(corpus.getPath());
+    }
+
+    @Benchmark
+    public List<String> readFileToArray() {
+        return FileUtil.readFileToArray(corpus.getPath());
+    }
+
+    @Benchmark
+    public List<String> readFileToArrayParallel() {
+        return FileUtil.readFileToArrayParallel(corpus.getPath(), Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public long streamLines() throws IOException {
+        try (Stream<String> stream = FileUtil.lines(corpus.getPath())) {
+            return stream.count();
+        }
+    }
+
+    @Benchmark
+    public long streamLinesGzip() throws IOException {
+        try (Stream<String> stream = FileUtil.lines(gzipCorpus.getPath())) {
+            return stream.count();
+        }
+    }
+
+    @Benchmark
+    public TrainTestSplit.TrainTest split() {
+        return TrainTestSplit.split(loaded, 0.2f, "__label__", new Random(12345));
+    }
+}
@@ -0,0 +1,51 @@
+package com.msg.benchmark;
+
+import com.msg.embedding.mmap.MappedWordVectors;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加载词向量的耗时，文本格式用WordVectorSerializer.loadStaticModel解析，
+ * 作为对照同时测试转换好的二进制文件的内存映射
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class EmbeddingLoadBenchmark {
+
+    @Param({"10000", "100000"})
+    public int vocabSize;
+
+    @Param({"300"})
+    public int vectorSize;
+
+    private File textFile;
+    private File mappedFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        textFile = SyntheticData.wordVectors(vocabSize, vectorSize);
+        mappedFile = SyntheticData.file("vectors-" + vocabSize + "-" + vectorSize + ".bin");
+        if (!MappedWordVectors.isMappedFile(mappedFile.getPath())) {
+            MappedWordVectors.convert(textFile.getPath(), mappedFile.getPath());
+        }
+    }
+
+    @Benchmark
+    public WordVectors loadStaticModel() {
+        return WordVectorSerializer.loadStaticModel(textFile);
+    }
+
+    @Benchmark
+    public WordVectors openMapped() throws IOException {
+        return MappedWordVectors.open(mappedFile.getPath());
+    }
+}
@@ -0,0 +1,135 @@
+package com.msg.benchmark;
+
+import com.msg.lm.CharacterGenerator;
+import com.msg.lm.CharacterSampler;
+import com.msg.lm.LstmLanguageModel;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CharacterGenerator在不同流数和采样方式下的生成速度，以及和原来逐元素读取输出、每步新建输入的单流生成循环的对比
+ * <p>
+ * 每次调用的字符数随流数变化，主分数是每秒调用次数，辅助计数characters是每秒生成的字符数(所有流合计)
+ * <p>
+ * 生成速度和网络权重无关，这里使用未训练的网络
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class GeneratorBenchmark {
+    private static final int LENGTH = 200;
+    private static final String VALID_CHARACTERS = LstmLanguageModel.VALID_CHARACTERS;
+
+    @Param({"128"})
+    public int hidden;
+
+    private MultiLayerNetwork network;
+    private CharacterGenerator generator;
+
+    /**
+     * 批量生成的流数和采样方式，只有generate用到
+     */
+    @State(Scope.Benchmark)
+    public static class Streams {
+        @Param({"1", "4", "16", "64", "256"})
+        public int streams;
+
+        @Param({"greedy", "temperature", "topK"})
+        public String sampler;
+
+        private List<String> prompts;
+        private CharacterSampler characterSampler;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            prompts = new ArrayList<>(streams);
+            for (int i = 0; i < streams; i++) {
+                prompts.add(String.valueOf(VALID_CHARACTERS.charAt(i % VALID_CHARACTERS.length())));
+            }
+            characterSampler = "greedy".equals(sampler) ? CharacterSampler.greedy()
+                    : "temperature".equals(sampler) ? CharacterSampler.temperature(0.8) : CharacterSampler.topK(5, 1.0);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Beam {
+        @Param({"4", "16"})
+        public int beamWidth;
+    }
+
+    /**
+     * 每秒生成的字符数
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Characters {
+        public long characters;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            characters = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        network = LstmLanguageModel.buildNetwork(VALID_CHARACTERS.length(), LstmLanguageModel.EMBEDDING_SIZE,
+                hidden, LstmLanguageModel.TBPTT_LENGTH);
+        generator = new CharacterGenerator(network, VALID_CHARACTERS);
+        String legacy = legacyGenerate(network, LENGTH);
+        String greedy = generator.generate("A", LENGTH, CharacterSampler.greedy());
+        System.out.println("贪心生成结果和原来的循环" + (legacy.equals(greedy) ? "一致" : "不一致"));
+    }
+
+    @Benchmark
+    public List<String> generate(Streams streams, Characters characters) {
+        characters.characters += (long) streams.streams * LENGTH;
+        return generator.generate(streams.prompts, LENGTH, streams.characterSampler);
+    }
+
+    @Benchmark
+    public String beamSearch(Beam beam, Characters characters) {
+        characters.characters += LENGTH;
+        return generator.beamSearch("A", LENGTH, beam.beamWidth);
+    }
+
+    @Benchmark
+    public String legacy(Characters characters) {
+        characters.characters += LENGTH;
+        return legacyGenerate(network, LENGTH);
+    }
+
+    /**
+     * 原来LstmLanguageModel.main中的生成循环，输入改为字符下标
+     */
+    private static String legacyGenerate(MultiLayerNetwork network, int length) {
+        network.rnnClearPreviousState();
+        INDArray testInputArray = Nd4j.zeros(new int[]{1, 1, 1});
+        String output = "";
+        for (int k = 0; k < length; k++) {
+            INDArray outputArray = network.rnnTimeStep(testInputArray);
+            double maxPrediction = Double.MIN_VALUE;
+            int maxPredictionIndex = -1;
+            for (int i = 0; i < VALID_CHARACTERS.length(); i++) {
+                if (maxPrediction < outputArray.getDouble(i)) {
+                    maxPrediction = outputArray.getDouble(i);
+                    maxPredictionIndex = i;
+                }
+            }
+            output += VALID_CHARACTERS.charAt(maxPredictionIndex);
+            testInputArray = Nd4j.zeros(new int[]{1, 1, 1});
+            testInputArray.putScalar(0, maxPredictionIndex);
+        }
+        network.rnnClearPreviousState();
+        return output;
+    }
+}
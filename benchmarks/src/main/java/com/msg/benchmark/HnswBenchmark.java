@@ -0,0 +1,103 @@
+package com.msg.benchmark;
+
+import com.msg.embedding.ann.HnswIndex;
+import com.msg.embedding.mmap.MappedWordVectors;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HNSW近似查询和逐个扫描的精确查询(WordVectors.wordsNearest)的延迟，查询词从词表中随机抽取
+ * <p>
+ * 每个ef在开始测试前输出recall@K，召回率以索引里的向量上的精确top-K为准
+ * <p>
+ * 默认使用合成的随机词向量，随机向量没有聚类结构，召回率比真实词向量低；
+ * 用-p vectorPath=...指定二进制词向量文件、word2vec模型或者文本格式的词向量，索引保存在它旁边的.hnsw
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class HnswBenchmark {
+    private static final int K = 10;
+    private static final int QUERIES = 1000;
+
+    @Param({""})
+    public String vectorPath;
+
+    private WordVectors vectors;
+    private HnswIndex index;
+    private int[] nodes;
+    private int cursor;
+
+    /**
+     * 查询时的候选数，只有search用到，exactScan不随它重复运行
+     */
+    @State(Scope.Benchmark)
+    public static class Ef {
+        @Param({"16", "32", "64", "128", "256"})
+        public int ef;
+
+        @Setup(Level.Trial)
+        public void recall(HnswBenchmark benchmark) {
+            HnswIndex index = benchmark.index;
+            int hits = 0;
+            for (int node : benchmark.nodes) {
+                Set<Integer> truth = new HashSet<>();
+                for (int neighbor : index.exactSearch(index.vector(node), K)) {
+                    truth.add(neighbor);
+                }
+                for (int neighbor : index.search(index.vector(node), K, ef)) {
+                    if (truth.contains(neighbor)) {
+                        hits++;
+                    }
+                }
+            }
+            System.out.println(String.format("ef=%d: recall@%d %.4f", ef, K, (double) hits / (benchmark.nodes.length * K)));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String path = vectorPath;
+        if (path.isEmpty()) {
+            File bin = SyntheticData.file("vectors-100000-100.bin");
+            if (!bin.isFile()) {
+                MappedWordVectors.convert(SyntheticData.wordVectors(100000, 100).getPath(), bin.getPath());
+            }
+            path = bin.getPath();
+        }
+        vectors = MappedWordVectors.isMappedFile(path)
+                ? MappedWordVectors.open(path)
+                : WordVectorSerializer.readWord2VecModel(new File(path));
+        index = HnswIndex.forModel(vectors, path);
+
+        Random random = new Random(42);
+        nodes = new int[Math.min(QUERIES, index.size())];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = random.nextInt(index.size());
+        }
+    }
+
+    @Benchmark
+    public int[] search(Ef ef) {
+        cursor = (cursor + 1) % nodes.length;
+        return index.search(index.vector(nodes[cursor]), K, ef.ef);
+    }
+
+    @Benchmark
+    public Collection<String> exactScan() {
+        cursor = (cursor + 1) % nodes.length;
+        return vectors.wordsNearest(index.wordAt(nodes[cursor]), K);
+    }
+}
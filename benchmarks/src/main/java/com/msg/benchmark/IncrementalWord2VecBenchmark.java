@@ -0,0 +1,108 @@
+package com.msg.benchmark;
+
+import com.msg.embedding.word2vec.IncrementalWord2Vec;
+import com.msg.embedding.word2vec.Word2VecModel;
+import org.apache.commons.io.FileUtils;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量训练和全量重新训练的耗时，分数为每次训练的秒数
+ * <p>
+ * 基础模型在旧语料上训练；incremental在新语料上增量更新基础模型，full在旧语料加新语料上从头训练。
+ * 新语料的词表比旧语料大，包含基础模型里没有的词
+ * <p>
+ * 两个测试都运行过之后，输出全量模型中的高频词和新词在两个模型上wordsNearest前TOP_N的重合比例，
+ * 基础模型和全量模型的重合比例作为对照，说明只是重新训练本身会带来多大的差异
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class IncrementalWord2VecBenchmark {
+    private static final int TOP_N = 10;
+
+    private File newText;
+    private File allText;
+    private File baseModel;
+    private File incrementalModel;
+    private File fullModel;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams params) throws IOException {
+        File baseText = SyntheticData.plainCorpus(500000, 20, 20000);
+        newText = SyntheticData.plainCorpus(100000, 20, 30000);
+        allText = SyntheticData.file("word2vec-all.txt");
+        FileUtils.copyFile(baseText, allText);
+        FileUtils.writeLines(allText, "UTF-8", FileUtils.readLines(newText, "UTF-8"), true);
+
+        baseModel = SyntheticData.file("word2vec-base.bin");
+        incrementalModel = SyntheticData.file("word2vec-incremental.bin");
+        fullModel = SyntheticData.file("word2vec-full.bin");
+        Files.deleteIfExists((params.getBenchmark().endsWith(".incremental") ? incrementalModel : fullModel).toPath());
+        Word2VecModel.train(baseText.getPath(), baseModel.getPath());
+    }
+
+    @Benchmark
+    public Word2Vec incremental() throws IOException {
+        return IncrementalWord2Vec.update(baseModel.getPath(), newText.getPath(), incrementalModel.getPath(), 0.5);
+    }
+
+    @Benchmark
+    public void full() throws IOException {
+        Word2VecModel.train(allText.getPath(), fullModel.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        if (!incrementalModel.isFile() || !fullModel.isFile()) {
+            return;
+        }
+        Word2Vec base = Word2VecModel.load(baseModel.getPath());
+        Word2Vec incremental = Word2VecModel.load(incrementalModel.getPath());
+        Word2Vec full = Word2VecModel.load(fullModel.getPath());
+        Set<String> baseWords = new HashSet<>(base.vocab().words());
+
+        List<String> frequent = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < full.vocab().numWords(); i++) {
+            String word = full.vocab().wordAtIndex(i);
+            if (!incremental.hasWord(word)) {
+                continue;
+            }
+            if (!baseWords.contains(word)) {
+                added.add(word);
+            } else if (frequent.size() < 100) {
+                frequent.add(word);
+            }
+        }
+
+        System.out.println("词表: 基础 " + baseWords.size() + ", 增量 " + incremental.vocab().numWords()
+                + ", 全量 " + full.vocab().numWords());
+        System.out.println(String.format("高频词wordsNearest@%d重合比例: %.4f (%d 个词)", TOP_N, overlap(incremental, full, frequent), frequent.size()));
+        System.out.println(String.format("对照: 基础模型与全量模型的高频词重合比例: %.4f", overlap(base, full, frequent)));
+        System.out.println(String.format("新词wordsNearest@%d重合比例: %.4f (%d 个词)", TOP_N, overlap(incremental, full, added), added.size()));
+    }
+
+    private static double overlap(Word2Vec a, Word2Vec b, List<String> words) {
+        if (words.isEmpty()) {
+            return 0;
+        }
+        double total = 0;
+        for (String word : words) {
+            Set<String> nearest = new HashSet<>(a.wordsNearest(word, TOP_N));
+            nearest.retainAll(b.wordsNearest(word, TOP_N));
+            total += (double) nearest.size() / TOP_N;
+        }
+        return total / words.size();
+    }
+}
@@ -0,0 +1,53 @@
+package com.msg.benchmark;
+
+import com.msg.lm.LstmLanguageModel;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LstmLanguageModel逐字符生成时每一步rnnTimeStep的延迟
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class LstmTimeStepBenchmark {
+
+    @Param({"30", "256"})
+    public int hidden;
+
+    private MultiLayerNetwork network;
+    private INDArray[] inputs;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int numCharacters = LstmLanguageModel.VALID_CHARACTERS.length();
+        network = LstmLanguageModel.buildNetwork(numCharacters, hidden);
+        inputs = new INDArray[numCharacters];
+        for (int i = 0; i < numCharacters; i++) {
+            inputs[i] = Nd4j.zeros(numCharacters);
+            inputs[i].putScalar(i, 1);
+        }
+    }
+
+    /**
+     * 每轮迭代从空状态开始生成
+     */
+    @Setup(Level.Iteration)
+    public void clearState() {
+        network.rnnClearPreviousState();
+    }
+
+    @Benchmark
+    public INDArray rnnTimeStep() {
+        cursor = (cursor + 1) % inputs.length;
+        return network.rnnTimeStep(inputs[cursor]);
+    }
+}
@@ -0,0 +1,91 @@
+package com.msg.benchmark;
+
+import com.msg.lm.CharacterSequenceIterator;
+import com.msg.lm.LstmLanguageModel;
+import org.apache.commons.io.FileUtils;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LstmLanguageModel原来的训练方式和minibatch加截断BPTT的训练方式，分数为训练一遍MAX_CHARACTERS个字符的秒数
+ * <p>
+ * dense: 原来的方式，字符用putScalar填成一个[1, 字符数, 长度]的one-hot序列，整段做BPTT
+ * minibatch: CharacterSequenceIterator流式读取，字符下标输入加EmbeddingSequenceLayer，截断BPTT
+ * <p>
+ * 每个模式在单独的fork里运行，测试结束时输出堆外内存、物理内存和堆内存的占用
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LstmTrainingBenchmark {
+    private static final int MAX_CHARACTERS = 50000;
+
+    @Param({"dense", "minibatch"})
+    public String mode;
+
+    private MultiLayerNetwork network;
+    private DataSet dataSet;
+    private CharacterSequenceIterator iterator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File text = SyntheticData.plainCorpus(MAX_CHARACTERS, 20, 20000);
+        String validCharacters = LstmLanguageModel.VALID_CHARACTERS;
+        int numCharacters = validCharacters.length();
+        if ("dense".equals(mode)) {
+            long start = System.nanoTime();
+            String inputData = FileUtils.readFileToString(text, StandardCharsets.UTF_8);
+            StringBuilder valid = new StringBuilder();
+            for (int i = 0; i < inputData.length() && valid.length() < MAX_CHARACTERS; i++) {
+                if (validCharacters.indexOf(inputData.charAt(i)) >= 0) {
+                    valid.append(inputData.charAt(i));
+                }
+            }
+            inputData = valid.toString();
+            network = LstmLanguageModel.buildNetwork(numCharacters, LstmLanguageModel.HIDDEN);
+            INDArray inputArray = Nd4j.zeros(1, numCharacters, inputData.length());
+            INDArray inputLabels = Nd4j.zeros(1, numCharacters, inputData.length());
+            for (int i = 0; i < inputData.length() - 1; i++) {
+                inputArray.putScalar(new int[]{0, validCharacters.indexOf(inputData.charAt(i)), i}, 1);
+                inputLabels.putScalar(new int[]{0, validCharacters.indexOf(inputData.charAt(i + 1)), i}, 1);
+            }
+            dataSet = new DataSet(inputArray, inputLabels);
+            System.out.println(String.format("构建one-hot张量耗时: %.1fs", (System.nanoTime() - start) / 1e9));
+        } else {
+            iterator = new CharacterSequenceIterator(text.getPath(), StandardCharsets.UTF_8, validCharacters,
+                    LstmLanguageModel.SEQUENCE_LENGTH, LstmLanguageModel.BATCH_SIZE, MAX_CHARACTERS);
+            network = LstmLanguageModel.buildNetwork(numCharacters, LstmLanguageModel.EMBEDDING_SIZE,
+                    LstmLanguageModel.HIDDEN, LstmLanguageModel.TBPTT_LENGTH);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.println(String.format("%s: 堆外内存 %s, 物理内存 %s, 堆内存 %s, score %.4f", mode,
+                Pointer.formatBytes(Pointer.totalBytes()), Pointer.formatBytes(Pointer.physicalBytes()),
+                Pointer.formatBytes(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()),
+                network.score()));
+    }
+
+    @Benchmark
+    public void fit() {
+        if (null != dataSet) {
+            network.fit(dataSet);
+        } else {
+            network.fit(iterator);
+            iterator.reset();
+        }
+    }
+}
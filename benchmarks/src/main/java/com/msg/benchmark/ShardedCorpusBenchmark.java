@@ -0,0 +1,60 @@
+package com.msg.benchmark;
+
+import com.msg.embedding.word2vec.ShardedCorpus;
+import org.deeplearning4j.models.sequencevectors.interfaces.SequenceIterator;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.text.tokenization.tokenizer.preprocessor.CommonPreprocessor;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardedCorpus并行读取语料的扩展性，分数为每秒处理的词数，不同线程数的分数之比就是加速比
+ * <p>
+ * countWords: 统计词频(建词表)；readSequences: 完整读一遍句子迭代器(每个epoch的读取)
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class ShardedCorpusBenchmark {
+    private static final int FILES = 16;
+    private static final int WORDS_PER_FILE = 250000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ShardedCorpus corpus;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File dir = SyntheticData.plainCorpusDirectory(FILES, WORDS_PER_FILE, 20, 20000);
+        //与Word2VecModel训练时的分词方式相同
+        TokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+        tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+        corpus = new ShardedCorpus(dir.getPath(), tokenizerFactory, threads, 10000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES * WORDS_PER_FILE)
+    public Map<String, Long> countWords() {
+        return corpus.countWords();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES * WORDS_PER_FILE)
+    public void readSequences(Blackhole blackhole) {
+        SequenceIterator<VocabWord> iterator = corpus.iterator();
+        while (iterator.hasMoreSequences()) {
+            blackhole.consume(iterator.nextSequence());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.msg.benchmark;
+
+import com.msg.classifier.Prediction;
+import com.msg.classifier.cnn.CnnTextClassifier;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CnnTextClassifier从模型文件启动到第一个预测返回的耗时，分数为毫秒
+ * <p>
+ * legacy: 原来的方式，加载优化器状态，不预热
+ * inference: 不加载优化器状态，就绪前预热
+ * stripped: 先把模型文件里的优化器状态去掉(输出到模型路径加.inference)，再按inference的方式启动
+ * <p>
+ * 只测冷启动，每个fork启动一次；测试结束时输出模型文件大小和模型占用的堆外内存
+ */
+@State(Scope.Benchmark)
+@Fork(value = 5, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+    private static final int VOCAB_SIZE = 20000;
+    private static final String TEXT = SyntheticData.sentence(new Random(42), 20, VOCAB_SIZE);
+
+    @Param({"legacy", "inference", "stripped"})
+    public String mode;
+
+    private String textPath;
+    private WordVectors wordVectors;
+    private String modelPath;
+    private CnnTextClassifier classifier;
+    private long offHeapBefore;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        textPath = SyntheticData.labeledCorpus(2000, 20, VOCAB_SIZE).getPath();
+        wordVectors = CnnTextClassifier.loadWordVectors(SyntheticData.wordVectors(VOCAB_SIZE, 300).getPath());
+        File model = SyntheticData.file("cnn-model.zip");
+        if (!model.isFile()) {
+            //第一次运行时训练并保存模型，释放后再开始测试
+            new CnnTextClassifier(textPath, wordVectors, model.getPath()).getModelHolder().close();
+        }
+        modelPath = model.getPath();
+        if ("stripped".equals(mode)) {
+            File stripped = new File(modelPath + ".inference");
+            if (!stripped.isFile() || stripped.lastModified() < model.lastModified()) {
+                CnnTextClassifier.stripUpdater(modelPath, stripped.getPath());
+            }
+            modelPath = stripped.getPath();
+        }
+        offHeapBefore = Pointer.totalBytes();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.println(String.format("%s: 模型文件 %d 字节, 模型占用堆外内存 %s", mode, new File(modelPath).length(),
+                Pointer.formatBytes(Pointer.totalBytes() - offHeapBefore)));
+        classifier.getModelHolder().close();
+    }
+
+    @Benchmark
+    public Prediction startup() {
+        boolean legacy = "legacy".equals(mode);
+        classifier = new CnnTextClassifier(textPath, wordVectors, modelPath, legacy,
+                legacy ? 0 : CnnTextClassifier.DEFAULT_WARM_UP_ITERATIONS);
+        return classifier.predictBatch(Collections.singletonList(TEXT)).get(0);
+    }
+}
@@ -0,0 +1,233 @@
+package com.msg.benchmark;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 生成性能测试用的合成语料和词向量，固定随机种子，同样的参数总是生成同样的文件
+ * <p>
+ * 文件放在java.io.tmpdir/classification4j-bench下，已经存在就直接复用，避免每个fork都重新生成
+ */
+public class SyntheticData {
+    private static final File DIR = new File(System.getProperty("java.io.tmpdir"), "classification4j-bench");
+    private static final long SEED = 12345;
+
+    private SyntheticData() {
+
+    }
+
+    /**
+     * 第index个词，只用小写字母，避免被CommonPreprocessor去掉数字后多个词合并成一个
+     */
+    public static String word(int index) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return word.toString();
+    }
+
+    /**
+     * 长度为length的句子，词在词表中按近似Zipf分布抽取
+     */
+    public static String sentence(Random rng, int length, int vocabSize) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(word(zipf(rng, vocabSize)));
+        }
+        return sentence.toString();
+    }
+
+    private static int zipf(Random rng, int vocabSize) {
+        return (int) Math.min(vocabSize - 1, Math.floor(Math.pow(vocabSize + 1, rng.nextDouble())) - 1);
+    }
+
+    /**
+     * "文本 __label__ 标签"格式的语料
+     *
+     * @param lines        行数
+     * @param wordsPerLine 每行平均词数，实际在[1, 2 * wordsPerLine)之间均匀分布
+     * @param vocabSize    词表大小
+     */
+    public static File labeledCorpus(int lines, int wordsPerLine, int vocabSize) throws IOException {
+        File file = new File(DIR, "corpus-" + lines + "-" + wordsPerLine + "-" + vocabSize + ".txt");
+        if (file.isFile()) {
+            return file;
+        }
+        Random rng = new Random(SEED);
+        return write(file, out -> {
+            for (int i = 0; i < lines; i++) {
+                String label = rng.nextBoolean() ? "yes" : "no";
+                out.write(sentence(rng, 1 + rng.nextInt(2 * wordsPerLine - 1), vocabSize) + " __label__ " + label);
+                out.newLine();
+            }
+        });
+    }
+
+    /**
+     * 不带标签的分词文本，用来训练词向量
+     *
+     * @param words        总词数
+     * @param wordsPerLine 每行词数
+     * @param vocabSize    词表大小
+     */
+    public static File plainCorpus(int words, int wordsPerLine, int vocabSize) throws IOException {
+        File file = new File(DIR, "plain-" + words + "-" + wordsPerLine + "-" + vocabSize + ".txt");
+        if (file.isFile()) {
+            return file;
+        }
+        Random rng = new Random(SEED);
+        return write(file, out -> {
+            for (int written = 0; written < words; written += wordsPerLine) {
+                out.write(sentence(rng, Math.min(wordsPerLine, words - written), vocabSize));
+                out.newLine();
+            }
+        });
+    }
+
+    /**
+     * files个不带标签的分词文本组成的目录，用来测试按文件分片并行读取
+     *
+     * @param files        文件数
+     * @param wordsPerFile 每个文件的总词数
+     * @param wordsPerLine 每行词数
+     * @param vocabSize    词表大小
+     */
+    public static File plainCorpusDirectory(int files, int wordsPerFile, int wordsPerLine, int vocabSize) throws IOException {
+        File dir = file("plain-dir-" + files + "-" + wordsPerFile + "-" + wordsPerLine + "-" + vocabSize);
+        if (dir.isDirectory()) {
+            return dir;
+        }
+        File tmp = file(dir.getName() + ".tmp");
+        if (!tmp.isDirectory() && !tmp.mkdirs()) {
+            throw new IOException("创建目录失败:" + tmp);
+        }
+        Random rng = new Random(SEED);
+        for (int i = 0; i < files; i++) {
+            write(new File(tmp, "part-" + i + ".txt"), out -> {
+                for (int written = 0; written < wordsPerFile; written += wordsPerLine) {
+                    out.write(sentence(rng, Math.min(wordsPerLine, wordsPerFile - written), vocabSize));
+                    out.newLine();
+                }
+            });
+        }
+        if (!tmp.renameTo(dir)) {
+            throw new IOException("重命名失败:" + tmp);
+        }
+        return dir;
+    }
+
+    /**
+     * fastText .vec文本格式的词向量，第一行为"词数 维度"
+     */
+    public static File wordVectors(int vocabSize, int vectorSize) throws IOException {
+        File file = new File(DIR, "vectors-" + vocabSize + "-" + vectorSize + ".vec");
+        if (file.isFile()) {
+            return file;
+        }
+        Random rng = new Random(SEED);
+        return write(file, out -> {
+            out.write(vocabSize + " " + vectorSize);
+            out.newLine();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < vocabSize; i++) {
+                line.setLength(0);
+                line.append(word(i));
+                for (int j = 0; j < vectorSize; j++) {
+                    line.append(' ').append((float) (rng.nextGaussian() * 0.1));
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        });
+    }
+
+    /**
+     * file的gzip压缩副本
+     */
+    public static File gzip(File file) throws IOException {
+        File gz = file(file.getName() + ".gz");
+        if (gz.isFile()) {
+            return gz;
+        }
+        File tmp = file(gz.getName() + ".tmp");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 1 << 20)) {
+            byte[] buffer = new byte[1 << 20];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        if (!tmp.renameTo(gz)) {
+            throw new IOException("重命名失败:" + tmp);
+        }
+        return gz;
+    }
+
+    /**
+     * 目录树，每层fanout个子目录，每个目录filesPerDir个空文件
+     */
+    public static File directoryTree(int depth, int fanout, int filesPerDir) throws IOException {
+        File root = file("tree-" + depth + "-" + fanout + "-" + filesPerDir);
+        if (!root.isDirectory()) {
+            File tmp = file(root.getName() + ".tmp");
+            createTree(tmp, depth, fanout, filesPerDir);
+            if (!tmp.renameTo(root)) {
+                throw new IOException("重命名失败:" + tmp);
+            }
+        }
+        return root;
+    }
+
+    private static void createTree(File dir, int depth, int fanout, int filesPerDir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建目录失败:" + dir);
+        }
+        for (int i = 0; i < filesPerDir; i++) {
+            File file = new File(dir, "part-" + i + ".txt");
+            if (!file.isFile() && !file.createNewFile()) {
+                throw new IOException("创建文件失败:" + file);
+            }
+        }
+        if (depth > 0) {
+            for (int i = 0; i < fanout; i++) {
+                createTree(new File(dir, "d" + i), depth - 1, fanout, filesPerDir);
+            }
+        }
+    }
+
+    /**
+     * 测试运行时产生的临时文件路径
+     */
+    public static File file(String name) {
+        if (!DIR.isDirectory() && !DIR.mkdirs()) {
+            throw new IllegalStateException("创建目录失败:" + DIR);
+        }
+        return new File(DIR, name);
+    }
+
+    private interface Writer {
+        void write(BufferedWriter out) throws IOException;
+    }
+
+    /**
+     * 先写到临时文件再改名，中途失败不会留下不完整的文件
+     */
+    private static File write(File file, Writer writer) throws IOException {
+        File tmp = file(file.getName() + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), 1 << 20)) {
+            writer.write(out);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("重命名失败:" + tmp);
+        }
+        return file;
+    }
+}
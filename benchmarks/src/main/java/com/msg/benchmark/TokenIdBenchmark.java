@@ -0,0 +1,107 @@
+package com.msg.benchmark;
+
+import com.msg.classifier.cnn.CnnTextClassifier;
+import com.msg.classifier.cnn.SentenceVectorizer;
+import com.msg.classifier.cnn.TokenIdDataSetIterator;
+import com.msg.embedding.mmap.MappedWordVectors;
+import com.msg.text.TokenizedCorpus;
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import org.deeplearning4j.iterator.CnnSentenceDataSetIterator;
+import org.deeplearning4j.iterator.provider.CollectionLabeledSentenceProvider;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字符串和整数ID两种句子表示的对比
+ * <p>
+ * 1) prepare: 拆分训练集和测试集，字符串方式是TrainTestSplit.split，ID方式是分词一次转换成TokenizedCorpus后按下标拆分
+ * 2) epoch: 训练集的一个epoch生成的所有minibatch，字符串方式是CnnSentenceDataSetIterator(每次重新分词、逐词查词向量)，
+ * ID方式是TokenIdDataSetIterator
+ * <p>
+ * prepare的分数为每秒处理的句子数，epoch的分数为每秒完成的epoch数；ID方式的分词包含在prepare里，字符串方式的分词在每个epoch里
+ * <p>
+ * 分配速率用JMH的GC profiler查看: java -jar target/benchmarks.jar TokenId -prof gc
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class TokenIdBenchmark {
+    private static final int LINES = 10000;
+    private static final int VOCAB_SIZE = 20000;
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * text: 文本格式加载的词向量，mapped: MappedWordVectors内存映射的二进制词向量
+     */
+    @Param({"text", "mapped"})
+    public String vectors;
+
+    private List<String> lines;
+    private WordVectors wordVectors;
+    private SentenceVectorizer vectorizer;
+    private TrainTestSplit.TrainTest stringSplit;
+    private TokenizedCorpus idTrain;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        lines = FileUtil.readFileToArray(SyntheticData.labeledCorpus(LINES, 20, VOCAB_SIZE).getPath());
+        File textFile = SyntheticData.wordVectors(VOCAB_SIZE, 300);
+        File mappedFile = SyntheticData.file(textFile.getName() + ".bin");
+        if ("mapped".equals(vectors) && !MappedWordVectors.isMappedFile(mappedFile.getPath())) {
+            MappedWordVectors.convert(textFile.getPath(), mappedFile.getPath());
+        }
+        wordVectors = CnnTextClassifier.loadWordVectors(("mapped".equals(vectors) ? mappedFile : textFile).getPath());
+        vectorizer = new SentenceVectorizer(wordVectors, new DefaultTokenizerFactory(), 256, 300);
+        stringSplit = TrainTestSplit.split(lines, 0.2f, "__label__", new Random(12345));
+        idTrain = TrainTestSplit.split(TokenizedCorpus.read(lines, "__label__", vectorizer::encode), 0.2f, new Random(12345))[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public TrainTestSplit.TrainTest prepareStrings() {
+        return TrainTestSplit.split(lines, 0.2f, "__label__", new Random(12345));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public TokenizedCorpus[] prepareIds() {
+        return TrainTestSplit.split(TokenizedCorpus.read(lines, "__label__", vectorizer::encode), 0.2f, new Random(12345));
+    }
+
+    @Benchmark
+    public void epochStrings(Blackhole blackhole) {
+        DataSetIterator iterator = new CnnSentenceDataSetIterator.Builder(CnnSentenceDataSetIterator.Format.CNN2D)
+                .wordVectors(wordVectors)
+                .minibatchSize(BATCH_SIZE)
+                .maxSentenceLength(256)
+                .tokenizerFactory(new DefaultTokenizerFactory())
+                .useNormalizedWordVectors(false)
+                .sentenceProvider(new CollectionLabeledSentenceProvider(stringSplit.getTrainX(), stringSplit.getTrainY(), new Random(12345)))
+                .build();
+        consume(iterator, blackhole);
+    }
+
+    @Benchmark
+    public void epochIds(Blackhole blackhole) {
+        consume(new TokenIdDataSetIterator(idTrain, vectorizer, BATCH_SIZE, null, new Random(12345)), blackhole);
+    }
+
+    private static void consume(DataSetIterator iterator, Blackhole blackhole) {
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
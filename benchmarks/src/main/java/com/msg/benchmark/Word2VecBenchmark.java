@@ -0,0 +1,36 @@
+package com.msg.benchmark;
+
+import com.msg.embedding.word2vec.Word2VecModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Word2VecModel.train的训练速度，分数为每秒处理的语料词数(每次调用包括建词表、训练和写出模型)
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 30)
+@Measurement(iterations = 3, time = 60)
+public class Word2VecBenchmark {
+    private static final int WORDS = 500000;
+
+    private File corpus;
+    private File model;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = SyntheticData.plainCorpus(WORDS, 20, 20000);
+        model = SyntheticData.file("word2vec-bench.bin");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void train() throws IOException {
+        Word2VecModel.train(corpus.getPath(), model.getPath());
+    }
+}
@@ -0,0 +1,68 @@
+package com.msg.classifier.cnn;
+
+import com.msg.benchmark.SyntheticData;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.parallelism.ParallelWrapper;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行训练的扩展性：不同worker数下训练一个epoch的耗时，和单线程比较加速比
+ * <p>
+ * 每次调用在同一个网络上继续训练一个epoch，测试结束时输出测试集准确率，和单线程训练比较收敛情况
+ * <p>
+ * 需要CnnTextClassifier的包内方法(拆分语料、构建网络和ParallelWrapper)，所以放在同名包里
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ParallelTrainingBenchmark {
+    private static final int VOCAB_SIZE = 20000;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private CnnTextClassifier classifier;
+    private DataSetIterator trainIter;
+    private DataSetIterator testIter;
+    private ComputationGraph net;
+    private ParallelWrapper wrapper;
+    private int epochs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File textPath = SyntheticData.labeledCorpus(20000, 20, VOCAB_SIZE);
+        WordVectors wordVectors = CnnTextClassifier.loadWordVectors(SyntheticData.wordVectors(VOCAB_SIZE, 300).getPath());
+        classifier = new CnnTextClassifier(textPath.getPath(), wordVectors, SyntheticData.file("cnn-parallel-model.zip").getPath());
+        DataSetIterator[] iterators = classifier.inMemoryIterators(textPath.getPath());
+        trainIter = iterators[0];
+        testIter = iterators[1];
+        net = classifier.buildNetwork();
+        wrapper = workers > 1 ? classifier.buildParallelWrapper(net, workers) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (null != wrapper) {
+            wrapper.shutdown();
+        }
+        Evaluation evaluation = net.evaluate(testIter);
+        System.out.println(String.format("workers=%d: 训练 %d 个epoch后测试集准确率 %.4f", workers, epochs, evaluation.accuracy()));
+    }
+
+    @Benchmark
+    public void fitEpoch() {
+        trainIter.reset();
+        classifier.fitEpoch(net, wrapper, trainIter);
+        epochs++;
+    }
+}
@@ -0,0 +1,186 @@
+package com.msg.classifier;
+
+import com.msg.metrics.Metrics;
+import com.msg.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 两级级联分类器：先用便宜的第一级(例如FastTextClassifier)预测，预测类别的概率低于阈值的文本再交给第二级(例如CnnTextClassifier)
+ * <p>
+ * 大部分流量在第一级就能确定，只有不确定的少数文本付出第二级的代价；阈值为0时只用第一级，大于1时全部交给第二级
+ * <p>
+ * 两级的类别集合必须相同，顺序可以不同，返回的Prediction统一按第一级的类别顺序
+ */
+public class CascadeClassifier implements TextClassifier<List<?>> {
+    public static final String FIRST_MODEL = "first";
+    public static final String FALLBACK_MODEL = "fallback";
+
+    private final TextClassifier<?> first;
+    private final TextClassifier<?> fallback;
+    private volatile double threshold;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private MetricsRegistry metrics = Metrics.registry();
+
+    /**
+     * @param first     第一级分类器
+     * @param fallback  第二级分类器
+     * @param threshold 第一级预测类别的概率低于threshold时交给第二级
+     */
+    public CascadeClassifier(TextClassifier<?> first, TextClassifier<?> fallback, double threshold) {
+        this.first = first;
+        this.fallback = fallback;
+        this.threshold = threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 使用指定的指标注册表，默认为Metrics.registry()
+     */
+    public void setMetricsRegistry(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 依次在同一份语料上训练两级分类器
+     *
+     * @return 第一级和第二级的模型
+     */
+    @Override
+    public List<?> train(String textPath) {
+        return Arrays.asList(first.train(textPath), fallback.train(textPath));
+    }
+
+    /**
+     * 加载两级的模型，modelPath是一个目录，第一级的模型文件为目录下的first，第二级为fallback；
+     * 希望train后能直接用这个目录加载时，构造两级分类器的模型路径也应设为这两个文件
+     *
+     * @param modelPath 模型目录
+     * @return 第一级和第二级的模型
+     */
+    @Override
+    public List<?> load(String modelPath) throws IOException {
+        return load(new File(modelPath, FIRST_MODEL).getPath(), new File(modelPath, FALLBACK_MODEL).getPath());
+    }
+
+    /**
+     * 分别加载两级的模型，两级的格式不同，各自用自己的load
+     *
+     * @param firstPath    第一级的模型路径
+     * @param fallbackPath 第二级的模型路径
+     * @return 第一级和第二级的模型
+     */
+    public List<?> load(String firstPath, String fallbackPath) throws IOException {
+        return Arrays.asList(first.load(firstPath), fallback.load(fallbackPath));
+    }
+
+    @Override
+    public String predict(String text) {
+        return predictBatch(Collections.singletonList(text)).get(0).getLabel();
+    }
+
+    /**
+     * 整批先经过第一级，概率低于阈值的文本再作为一批交给第二级
+     */
+    @Override
+    public List<Prediction> predictBatch(List<String> texts) {
+        long start = System.nanoTime();
+        List<Prediction> predictions = new ArrayList<>(first.predictBatch(texts));
+        double current = threshold;
+        List<Integer> uncertain = new ArrayList<>();
+        for (int i = 0; i < predictions.size(); i++) {
+            if (predictions.get(i).getProbability() < current) {
+                uncertain.add(i);
+            }
+        }
+        if (!uncertain.isEmpty()) {
+            List<String> uncertainTexts = new ArrayList<>(uncertain.size());
+            for (int i : uncertain) {
+                uncertainTexts.add(texts.get(i));
+            }
+            List<Prediction> fallbackPredictions = fallback.predictBatch(uncertainTexts);
+            int[] order = labelOrder();
+            for (int k = 0; k < uncertain.size(); k++) {
+                predictions.set(uncertain.get(k), reorder(fallbackPredictions.get(k), order));
+            }
+        }
+        requests.add(texts.size());
+        fallbacks.add(uncertain.size());
+        metrics.counter("cascade.first").increment(texts.size() - uncertain.size());
+        metrics.counter("cascade.fallback").increment(uncertain.size());
+        metrics.histogram("cascade.batch.micros").record((System.nanoTime() - start) / 1000);
+        return predictions;
+    }
+
+    /**
+     * @return 第一级的每个类别在第二级中的下标，两级的模型都可能被替换，每批重新计算
+     */
+    private int[] labelOrder() {
+        List<String> labels = first.getLabels();
+        List<String> fallbackLabels = fallback.getLabels();
+        int[] order = new int[labels.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = fallbackLabels.indexOf(labels.get(i));
+            if (order[i] < 0) {
+                throw new IllegalStateException("第二级分类器没有类别: " + labels.get(i));
+            }
+        }
+        return order;
+    }
+
+    private static Prediction reorder(Prediction prediction, int[] order) {
+        double[] probabilities = new double[order.length];
+        int labelIndex = 0;
+        for (int i = 0; i < order.length; i++) {
+            probabilities[i] = prediction.getProbabilities()[order[i]];
+            if (order[i] == prediction.getLabelIndex()) {
+                labelIndex = i;
+            }
+        }
+        return new Prediction(prediction.getLabel(), labelIndex, probabilities);
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return first.getLabels();
+    }
+
+    /**
+     * @return 自创建或上次resetStats以来预测的文本数
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return 自创建或上次resetStats以来交给第二级的文本数
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * @return 交给第二级的文本比例
+     */
+    public double getFallbackRatio() {
+        long total = requests.sum();
+        return 0 == total ? 0 : (double) fallbacks.sum() / total;
+    }
+
+    public void resetStats() {
+        requests.reset();
+        fallbacks.reset();
+    }
+}
@@ -0,0 +1,22 @@
+package com.msg.classifier;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 单条文本的预测结果
+ */
+@Data
+@AllArgsConstructor
+public class Prediction {
+    private String label;                   //概率最大的类别
+    private int labelIndex;                 //类别在模型输出中的下标
+    private double[] probabilities;         //各类别的概率，顺序与模型输出一致
+
+    /**
+     * @return 预测类别的概率
+     */
+    public double getProbability() {
+        return probabilities[labelIndex];
+    }
+}
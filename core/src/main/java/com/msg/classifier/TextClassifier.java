@@ -0,0 +1,64 @@
+package com.msg.classifier;
+
+import org.deeplearning4j.eval.Evaluation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 文本分类器的公共接口，语料是fastText格式，每行"分好词的文本 __label__ 标签"
+ * <p>
+ * 实现:
+ * 1) CnnTextClassifier: 词向量加CNN，需要加载完整的词向量，占用内存大，单条预测毫秒级
+ * 2) FastTextClassifier: 哈希n-gram的线性模型，几秒内训练完，单条预测微秒级
+ *
+ * @param <M> 训练或加载得到的模型
+ */
+public interface TextClassifier<M> {
+    String LABEL_SPLIT = "__label__";
+
+    /**
+     * 在语料上训练，训练完写出到分类器的模型路径，之后的预测使用新模型
+     *
+     * @param textPath 语料路径
+     */
+    M train(String textPath);
+
+    /**
+     * 加载模型文件，之后的预测使用加载的模型
+     *
+     * @param modelPath 模型路径
+     */
+    M load(String modelPath) throws IOException;
+
+    /**
+     * @return 概率最大的类别
+     */
+    String predict(String text);
+
+    /**
+     * @return 预测结果，顺序与输入一致
+     */
+    List<Prediction> predictBatch(List<String> texts);
+
+    /**
+     * @return 所有类别，顺序与Prediction的labelIndex一致
+     */
+    List<String> getLabels();
+
+    /**
+     * 在给定的数据上评估
+     *
+     * @param texts      文本
+     * @param textLabels 文本对应的真实类别
+     */
+    default Evaluation evaluate(List<String> texts, List<String> textLabels) {
+        List<String> labels = getLabels();
+        Evaluation evaluation = new Evaluation(labels);
+        List<Prediction> predictions = predictBatch(texts);
+        for (int i = 0; i < predictions.size(); i++) {
+            evaluation.eval(predictions.get(i).getLabelIndex(), labels.indexOf(textLabels.get(i)));
+        }
+        return evaluation;
+    }
+}
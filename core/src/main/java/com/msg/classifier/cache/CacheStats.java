@@ -0,0 +1,26 @@
+package com.msg.classifier.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 预测缓存的运行统计快照
+ */
+@Data
+@AllArgsConstructor
+public class CacheStats {
+    private long hits;                      //命中次数
+    private long misses;                    //未命中次数，包括过期和模型版本不一致
+    private long evictions;                 //因容量淘汰的条目数
+    private long expirations;               //因过期删除的条目数
+    private long size;                      //当前条目数
+    private long estimatedBytes;            //条目和频率草图估算占用的堆内存
+
+    /**
+     * @return 命中率，没有请求时为0
+     */
+    public double getHitRate() {
+        long requests = hits + misses;
+        return 0 == requests ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,406 @@
+package com.msg.classifier.cache;
+
+import com.msg.classifier.Prediction;
+import com.msg.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有容量和过期时间上限的预测结果缓存，键为TextNormalizer计算的64位哈希
+ * <p>
+ * 淘汰策略是W-TinyLFU: 新条目先进入占容量1%的LRU窗口，挤出窗口后与主区(分段LRU，80%为受保护区)
+ * 最久未用的条目比较频率草图里的访问频率，频率高的留下；一次性的文本不会把反复出现的模板短信挤出去
+ * <p>
+ * 按键分成多个段，每段有自己的锁、容量和频率草图；每个条目记录生成它的模型版本，
+ * 看到更新的模型版本时清空整个缓存，旧模型晚到的结果不会写入
+ * <p>
+ * 返回的Prediction被所有命中的调用方共享，不要修改
+ */
+public class PredictionCache {
+    //对象头、字段、HashMap.Node、Long和Prediction的大致开销，不含概率数组
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final TextNormalizer normalizer;
+    private final long maximumSize;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    private volatile long modelVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize 最多缓存的条目数
+     * @param ttlMillis   条目写入后的存活时间，0表示不过期
+     * @param normalizer  文本归一化规则
+     */
+    public PredictionCache(long maximumSize, long ttlMillis, TextNormalizer normalizer) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize必须大于0: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttlMillis <= 0 ? 0 : ttlMillis * 1000000L;
+        this.normalizer = normalizer;
+        //每段至少几百个条目，淘汰才接近全局的W-TinyLFU
+        int count = Integer.highestOneBit((int) Math.max(1, Math.min(16, maximumSize / 256)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((int) Math.min(Integer.MAX_VALUE, (maximumSize + count - 1) / count));
+        }
+    }
+
+    public PredictionCache(long maximumSize, long ttlMillis) {
+        this(maximumSize, ttlMillis, new TextNormalizer());
+    }
+
+    /**
+     * @return 文本的缓存键
+     */
+    public long key(String text) {
+        return normalizer.hash(text);
+    }
+
+    private Segment segment(long key) {
+        return segments[(int) (key >>> 32) & (segments.length - 1)];
+    }
+
+    /**
+     * 看到更新的模型版本时清空缓存
+     *
+     * @return version是否为当前的模型版本，旧版本返回false
+     */
+    private boolean checkVersion(long version) {
+        long current = modelVersion;
+        if (version == current) {
+            return true;
+        }
+        if (version < current) {
+            return false;
+        }
+        synchronized (this) {
+            if (version > modelVersion) {
+                invalidateAll();
+                modelVersion = version;
+            }
+            return version == modelVersion;
+        }
+    }
+
+    /**
+     * @param key     key(text)
+     * @param version 当前模型的版本
+     * @return 缓存的预测结果，没有、已过期或者不是这个模型版本的结果时返回null
+     */
+    public Prediction get(long key, long version) {
+        if (!checkVersion(version)) {
+            misses.increment();
+            return null;
+        }
+        Prediction prediction = segment(key).get(key, version, System.nanoTime());
+        if (null == prediction) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return prediction;
+    }
+
+    /**
+     * 写入version版本的模型预测的结果，version已经不是最新版本时丢弃
+     */
+    public void put(long key, Prediction prediction, long version) {
+        if (checkVersion(version)) {
+            segment(key).put(key, prediction, version, System.nanoTime());
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public CacheStats stats() {
+        long size = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+                bytes += segment.bytes + segment.sketch.bytes();
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size, bytes);
+    }
+
+    /**
+     * 把命中率、条目数、估算内存和各项计数注册为prefix开头的指标
+     */
+    public void register(MetricsRegistry metrics, String prefix) {
+        metrics.gauge(prefix + ".hit.rate", () -> stats().getHitRate());
+        metrics.gauge(prefix + ".hits", hits::sum);
+        metrics.gauge(prefix + ".misses", misses::sum);
+        metrics.gauge(prefix + ".evictions", evictions::sum);
+        metrics.gauge(prefix + ".expirations", expirations::sum);
+        metrics.gauge(prefix + ".size", this::size);
+        metrics.gauge(prefix + ".memory.bytes", () -> stats().getEstimatedBytes());
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        private final long key;
+        private Prediction prediction;
+        private long version;
+        private long expiresAt;
+        private int bytes;
+        private int queue;
+        private Node prev;
+        private Node next;
+
+        private Node(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 带哨兵的双向链表，头部是最久未用的
+     */
+    private static final class Queue {
+        private final Node head = new Node(0);
+        private int size;
+
+        private Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        private void addLast(Node node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        private void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        private void clear() {
+            head.prev = head;
+            head.next = head;
+            size = 0;
+        }
+    }
+
+    /**
+     * 4行的Count-Min草图，计数器上限15，总计数达到容量的10倍时全部减半，让旧的热点逐渐过期
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xab7c3b1dL, 0x5c0d6d0fL, 0x9e3779b9L};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, Math.min(1 << 30, capacity)) * 2 - 1);
+            table = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(16, capacity));
+        }
+
+        private int index(long key, int row) {
+            long hash = (key + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private int frequency(long key) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < table.length; row++) {
+                frequency = Math.min(frequency, table[row][index(key, row)]);
+            }
+            return frequency;
+        }
+
+        private void increment(long key) {
+            boolean added = false;
+            for (int row = 0; row < table.length; row++) {
+                int i = index(key, row);
+                if (table[row][i] < 15) {
+                    table[row][i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (byte[] counters : table) {
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        private long bytes() {
+            return (long) table.length * table[0].length;
+        }
+    }
+
+    private final class Segment {
+        private final Map<Long, Node> map = new HashMap<>();
+        private final Queue window = new Queue();
+        private final Queue probation = new Queue();
+        private final Queue protectedQueue = new Queue();
+        private final FrequencySketch sketch;
+        private final int windowMax;
+        private final int mainMax;
+        private final int protectedMax;
+        private long bytes;
+
+        private Segment(int capacity) {
+            windowMax = Math.max(1, capacity / 100);
+            mainMax = capacity - windowMax;
+            protectedMax = (int) (mainMax * 0.8);
+            sketch = new FrequencySketch(capacity);
+        }
+
+        private synchronized Prediction get(long key, long version, long now) {
+            sketch.increment(key);
+            Node node = map.get(key);
+            if (null == node) {
+                return null;
+            }
+            if (node.version != version || expired(node, now)) {
+                remove(node);
+                expirations.increment();
+                return null;
+            }
+            onHit(node);
+            return node.prediction;
+        }
+
+        private synchronized void put(long key, Prediction prediction, long version, long now) {
+            int entryBytes = ENTRY_OVERHEAD_BYTES + 8 * prediction.getProbabilities().length;
+            Node node = map.get(key);
+            if (null != node) {
+                bytes += entryBytes - node.bytes;
+                set(node, prediction, version, now, entryBytes);
+                onHit(node);
+                return;
+            }
+            node = new Node(key);
+            set(node, prediction, version, now, entryBytes);
+            bytes += entryBytes;
+            map.put(key, node);
+            node.queue = WINDOW;
+            window.addLast(node);
+            while (window.size > windowMax) {
+                Node candidate = window.first();
+                window.remove(candidate);
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+                if (probation.size + protectedQueue.size > mainMax) {
+                    evict(candidate, now);
+                }
+            }
+        }
+
+        private void set(Node node, Prediction prediction, long version, long now, int entryBytes) {
+            node.prediction = prediction;
+            node.version = version;
+            node.expiresAt = 0 == ttlNanos ? 0 : now + ttlNanos;
+            node.bytes = entryBytes;
+        }
+
+        private boolean expired(Node node, long now) {
+            return 0 != ttlNanos && now - node.expiresAt >= 0;
+        }
+
+        /**
+         * 主区满了: 过期的受害者直接删除，否则频率草图里访问更多的一方留下
+         */
+        private void evict(Node candidate, long now) {
+            Node victim = probation.first();
+            if (victim == candidate) {
+                victim = null != protectedQueue.first() ? protectedQueue.first() : candidate;
+            }
+            if (victim != candidate && expired(victim, now)) {
+                remove(victim);
+                expirations.increment();
+                return;
+            }
+            if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                remove(victim);
+            } else {
+                remove(candidate);
+            }
+            evictions.increment();
+        }
+
+        private void onHit(Node node) {
+            if (node.queue == WINDOW) {
+                window.remove(node);
+                window.addLast(node);
+            } else if (node.queue == PROBATION) {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                if (protectedQueue.size > protectedMax) {
+                    Node demoted = protectedQueue.first();
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            } else {
+                protectedQueue.remove(node);
+                protectedQueue.addLast(node);
+            }
+        }
+
+        private void remove(Node node) {
+            (node.queue == WINDOW ? window : node.queue == PROBATION ? probation : protectedQueue).remove(node);
+            map.remove(node.key);
+            bytes -= node.bytes;
+        }
+
+        private synchronized void clear() {
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            bytes = 0;
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.msg.classifier.cache;
+
+/**
+ * 预测缓存的键：文本归一化后的64位哈希，归一化和哈希一次扫描完成，不生成中间字符串
+ * <p>
+ * 1) 折叠空白: 去掉首尾空白，连续的空白当作一个空格；分词器按同样的空白字符切分，折叠后预测结果不变，默认开启
+ * 2) 忽略大小写: 词向量区分大小写，开启后只差大小写的文本共用第一次预测的结果
+ * 3) 数字归一: 所有数字当作0，验证码、金额不同的模板短信共用一个结果，同样会改变部分文本的预测结果
+ * <p>
+ * 64位哈希在千万条以内发生碰撞的概率约为百万分之三，碰撞时返回另一条文本的预测结果
+ */
+public class TextNormalizer {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean collapseWhitespace;
+    private final boolean ignoreCase;
+    private final boolean maskDigits;
+
+    /**
+     * 只折叠空白
+     */
+    public TextNormalizer() {
+        this(true, false, false);
+    }
+
+    public TextNormalizer(boolean collapseWhitespace, boolean ignoreCase, boolean maskDigits) {
+        this.collapseWhitespace = collapseWhitespace;
+        this.ignoreCase = ignoreCase;
+        this.maskDigits = maskDigits;
+    }
+
+    /**
+     * 与DefaultTokenizerFactory(StringTokenizer)的分隔符一致
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private char map(char c) {
+        if (maskDigits && Character.isDigit(c)) {
+            return '0';
+        }
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * @return 归一化后的文本，与hash使用相同的规则，用于调试
+     */
+    public String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (collapseWhitespace && isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(map(c));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return 归一化后文本的64位哈希，与hash(normalize(text))相同
+     */
+    public long hash(String text) {
+        long hash = FNV_OFFSET;
+        boolean started = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (collapseWhitespace && isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                hash = (hash ^ ' ') * FNV_PRIME;
+                pendingSpace = false;
+            }
+            hash = (hash ^ map(c)) * FNV_PRIME;
+            started = true;
+        }
+        //FNV的低位分布不够均匀，再做一次murmur3的最终混合
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
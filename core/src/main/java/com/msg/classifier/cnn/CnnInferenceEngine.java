@@ -0,0 +1,322 @@
+package com.msg.classifier.cnn;
+
+import com.msg.classifier.Prediction;
+import com.msg.metrics.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的CNN推理引擎
+ * <p>
+ * ComputationGraph不能被多个线程同时调用，这里为每个工作线程克隆一份模型副本(模型替换后自动更新)，
+ * 所有请求先进入队列，工作线程把并发到达的请求合并成一个小批次(达到maxBatchSize条或者等待超过maxWaitMillis)，
+ * 做一次前向计算后再逐个完成各自的future
+ * <p>
+ * 没有使用ParallelInference的BATCHED模式，因为它要求拼接的输入形状一致，而句子长度不一，需要按批次填充并带掩码
+ */
+@Slf4j
+public class CnnInferenceEngine implements AutoCloseable {
+    private final CnnTextClassifier classifier;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final ExecutorService workers;
+    private volatile boolean running = true;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLongArray batchSizeCounts;      //下标为批次大小，值为出现次数
+    private final Histogram latency;                    //从提交到完成的延迟，包括排队时间
+
+    /**
+     * @param classifier    加载好模型的分类器
+     * @param replicas      模型副本数，即工作线程数
+     * @param maxBatchSize  一个批次最多合并的请求数
+     * @param maxWaitMillis 批次中第一个请求最多等待多久
+     */
+    public CnnInferenceEngine(CnnTextClassifier classifier, int replicas, int maxBatchSize, long maxWaitMillis) {
+        this(classifier, replicas, maxBatchSize, maxWaitMillis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxQueueSize 队列最大长度，队列满时submit直接返回失败的future
+     */
+    public CnnInferenceEngine(CnnTextClassifier classifier, int replicas, int maxBatchSize, long maxWaitMillis, int maxQueueSize) {
+        this.classifier = classifier;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.queue = new LinkedBlockingQueue<>(maxQueueSize);
+        this.batchSizeCounts = new AtomicLongArray(maxBatchSize + 1);
+        this.latency = classifier.getMetricsRegistry().histogram("inference.engine.latency.micros");
+        classifier.getMetricsRegistry().gauge("inference.engine.queue.depth", queue::size);
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private int index = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cnn-inference-" + index++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        workers = Executors.newFixedThreadPool(replicas, threadFactory);
+        //workspace是线程私有的，每个工作线程先在自己的副本上预热，全部预热完成后构造函数才返回
+        CountDownLatch warmedUp = new CountDownLatch(replicas);
+        for (int i = 0; i < replicas; i++) {
+            boolean shared = i == 0;
+            workers.execute(() -> {
+                Replica replica;
+                try {
+                    replica = new Replica(classifier.getModelHolder(), shared);
+                    replica.warmUp();
+                } finally {
+                    warmedUp.countDown();
+                }
+                try {
+                    work(replica);
+                } finally {
+                    replica.close();
+                }
+            });
+        }
+        try {
+            warmedUp.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("推理引擎启动: 副本数=" + replicas + ", maxBatchSize=" + maxBatchSize + ", maxWaitMillis=" + maxWaitMillis);
+    }
+
+    /**
+     * 异步预测
+     *
+     * @param text 待预测文本
+     * @return 预测结果的future
+     */
+    public CompletableFuture<Prediction> submit(String text) {
+        Request request = new Request(text);
+        if (!running) {
+            request.future.completeExceptionally(new IllegalStateException("推理引擎已关闭"));
+        } else if (!queue.offer(request)) {
+            errorCount.incrementAndGet();
+            request.future.completeExceptionally(new RejectedExecutionException("推理队列已满"));
+        }
+        return request.future;
+    }
+
+    public List<CompletableFuture<Prediction>> submitAll(List<String> texts) {
+        List<CompletableFuture<Prediction>> futures = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            futures.add(submit(text));
+        }
+        return futures;
+    }
+
+    /**
+     * 同步预测，阻塞直到结果返回
+     */
+    public Prediction predict(String text) {
+        try {
+            return submit(text).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("预测被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("预测出错", e.getCause());
+        }
+    }
+
+    private void work(Replica model) {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        List<String> texts = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (null == next) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                process(model, batch, texts);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, e);
+                return;
+            } finally {
+                batch.clear();
+                texts.clear();
+            }
+        }
+    }
+
+    private void process(Replica model, List<Request> batch, List<String> texts) {
+        for (Request request : batch) {
+            texts.add(request.text);
+        }
+        try {
+            List<Prediction> predictions = model.predict(texts);
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                request.future.complete(predictions.get(i));
+                latency.record((now - request.submitted) / 1000);
+            }
+        } catch (RuntimeException e) {
+            log.error("批量预测出错，批次大小:" + batch.size(), e);
+            fail(batch, e);
+        }
+        requestCount.addAndGet(batch.size());
+        batchCount.incrementAndGet();
+        batchSizeCounts.incrementAndGet(batch.size());
+    }
+
+    private void fail(List<Request> batch, Throwable e) {
+        errorCount.addAndGet(batch.size());
+        for (Request request : batch) {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return 当前排队等待的请求数
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return 运行统计的快照，用于在p99延迟和吞吐量之间调整参数
+     */
+    public InferenceStats getStats() {
+        long[] histogram = new long[batchSizeCounts.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = batchSizeCounts.get(i);
+        }
+        long requests = requestCount.get();
+        long batches = batchCount.get();
+        double averageBatchSize = batches == 0 ? 0 : (double) requests / batches;
+        return new InferenceStats(queue.size(), requests, batches, errorCount.get(),
+                averageBatchSize, averageBatchSize / maxBatchSize, histogram);
+    }
+
+    /**
+     * 停止接收新请求，处理完队列中剩余的请求后退出
+     */
+    @Override
+    public void close() {
+        running = false;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        Request request;
+        while (null != (request = queue.poll())) {
+            request.future.completeExceptionally(new IllegalStateException("推理引擎已关闭"));
+        }
+    }
+
+    /**
+     * 工作线程使用的模型: 第一个工作线程每个批次直接租用ModelHolder的当前模型，
+     * 其余工作线程持有自己的副本，发现模型版本变化后重新克隆，旧副本立即释放。
+     * 克隆只是复制参数，workspace按工作线程和输入形状复用，替换后不需要重新预热
+     */
+    private class Replica {
+        private final ModelHolder models;
+        private final boolean shared;
+        private ComputationGraph copy;
+        private List<String> labels;
+        private long version;
+
+        private Replica(ModelHolder models, boolean shared) {
+            this.models = models;
+            this.shared = shared;
+            if (!shared) {
+                refresh();
+            }
+        }
+
+        private void refresh() {
+            try (ModelHolder.Lease lease = models.acquire()) {
+                if (null != copy && lease.version() == version) {
+                    return;
+                }
+                ComputationGraph old = copy;
+                copy = lease.model().clone();
+                labels = lease.labels();
+                version = lease.version();
+                if (null != old) {
+                    ModelHolder.release(old);
+                    log.info(Thread.currentThread().getName() + " 的模型副本已更新到版本 " + version);
+                }
+            }
+        }
+
+        private void warmUp() {
+            try {
+                if (shared) {
+                    try (ModelHolder.Lease lease = models.acquire()) {
+                        classifier.warmUp(lease.model(), CnnTextClassifier.DEFAULT_WARM_UP_ITERATIONS);
+                    }
+                } else {
+                    classifier.warmUp(copy, CnnTextClassifier.DEFAULT_WARM_UP_ITERATIONS);
+                }
+            } catch (RuntimeException e) {
+                log.warn("预热模型副本出错", e);
+            }
+        }
+
+        private List<Prediction> predict(List<String> texts) {
+            if (shared) {
+                try (ModelHolder.Lease lease = models.acquire()) {
+                    return classifier.predictBatch(lease.model(), lease.labels(), texts);
+                }
+            }
+            if (models.getVersion() != version) {
+                refresh();
+            }
+            return classifier.predictBatch(copy, labels, texts);
+        }
+
+        private void close() {
+            if (null != copy) {
+                ModelHolder.release(copy);
+                copy = null;
+            }
+        }
+    }
+
+    private static class Request {
+        private final String text;
+        private final CompletableFuture<Prediction> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        private Request(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,1009 @@
+package com.msg.classifier.cnn;
+
+import com.msg.classifier.Prediction;
+import com.msg.classifier.TextClassifier;
+import com.msg.classifier.cache.PredictionCache;
+import com.msg.embedding.compact.QuantizedWordVectors;
+import com.msg.embedding.mmap.MappedWordVectors;
+import com.msg.iterator.BucketingSentenceProvider;
+import com.msg.iterator.DataSetShardCache;
+import com.msg.iterator.ShardDataSetIterator;
+import com.msg.iterator.StreamingLabeledSentenceProvider;
+import com.msg.metrics.Metrics;
+import com.msg.metrics.MetricsRegistry;
+import com.msg.metrics.TrainingMetricsListener;
+import com.msg.text.TokenizedCorpus;
+import com.msg.util.TrainTestSplit;
+import com.msg.util.FileUtil;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.iterator.CnnSentenceDataSetIterator;
+import org.deeplearning4j.iterator.LabeledSentenceProvider;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.GlobalPoolingLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.parallelism.ParallelWrapper;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 用deeplearning4j训练cnn对文本进行分类的例子，很吃内存，设置8G以上，速度很慢，建议用GPU训练，
+ * 只有多核CPU时可以用setParallelTraining开启数据并行训练
+ */
+public class CnnTextClassifier implements TextClassifier<ComputationGraph> {
+    public static final int DEFAULT_WARM_UP_ITERATIONS = 2;
+    static final List<String> LEGACY_LABELS = Collections.unmodifiableList(Arrays.asList("no", "yes"));    //旧版本的模型文件里没有保存类别名
+
+    private String modelPath;
+    private WordVectors wordVectors;
+    private String vectorPath;                      //词向量文件路径，用已经加载的词向量构造时可能为null
+    private ModelHolder models;                     //当前使用的模型，可以不停机替换
+    private CnnSentenceDataSetIterator.Builder builder;
+    private TokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+    private SentenceVectorizer vectorizer;
+    private MetricsRegistry metrics = Metrics.registry();
+    private List<String> labels = LEGACY_LABELS;    //最近训练或加载的模型的类别，顺序与模型输出一致
+
+    private int batchSize = 32;                     //批次，以随机的32条数据作为一个批次进行更新权重
+    private int vectorSize = 300;                   //词向量维度. Google News词向量模型的维度是300
+    private int nEpochs = 1;                       //扫描一遍数据集为一个epoch，大小根据实际情况进行调整
+    private int truncateReviewsToLength = 256;      //句子长度上限，即句子包含的最大单词数量
+    private int cnnLayerFeatureMaps = 100;          //每种大小卷积核的数量
+    private PoolingType globalPoolingType = PoolingType.MAX;        //采用max pooling的方式
+    private double learningRate = 0.01;             //Adam的学习率
+    private int maxInferenceBatchSize = 256;        //批量预测时单次前向计算的最大句子数
+    private int prefetchThreads = 2;                //读取分片缓存的后台线程数
+    private int prefetchDepth = 8;                  //预读的分片数
+    private int parallelWorkers = 1;                //并行训练的worker数，1表示单线程训练
+    private int averagingFrequency = 3;             //并行训练时每隔多少个iteration做一次参数平均
+    private int parallelPrefetchBuffer = 8;         //并行训练时每个worker预取的minibatch数
+    private boolean lengthBucketing = true;         //训练和批量预测时按句子长度分桶，减少填充
+    private int[] lengthBuckets = {16, 32, 64, 128, 256};       //各个桶的句子长度上限
+    private String checkpointDir;                   //检查点目录，null表示不写检查点
+    private int checkpointBatches = 1000;           //每隔多少个minibatch写一次检查点，0表示只在epoch结束时写
+    private int keepCheckpoints = 3;                //保留最近的检查点数
+    private int earlyStoppingPatience;              //测试集准确率连续多少个epoch没有提升就停止，0表示不早停
+    private double earlyStoppingMinDelta = 1e-4;    //准确率至少提升多少才算提升
+    private int warmUpIterations;                   //模型就绪前的预热轮数
+    private volatile boolean ready;                 //模型加载(或训练)并预热完成
+    private volatile PredictionCache predictionCache;   //预测结果缓存，null表示不缓存
+
+    public CnnTextClassifier(String textPath, String vectorPath, String modelPath) {
+        this(textPath, loadWordVectors(vectorPath), modelPath);
+        this.vectorPath = vectorPath;
+    }
+
+    /**
+     * @param wordVectors 已经加载好的词向量，可以是完整的词向量表，也可以是裁剪或量化后的紧凑词向量表
+     */
+    public CnnTextClassifier(String textPath, WordVectors wordVectors, String modelPath) {
+        this(textPath, wordVectors, modelPath, false, DEFAULT_WARM_UP_ITERATIONS);
+    }
+
+    /**
+     * @param loadUpdater      加载已有模型时是否同时加载优化器状态，只做预测时不需要，不加载可以少读一大半数据
+     * @param warmUpIterations 模型就绪前的预热轮数，0表示不预热
+     */
+    public CnnTextClassifier(String textPath, WordVectors wordVectors, String modelPath, boolean loadUpdater, int warmUpIterations) {
+        this.modelPath = modelPath;
+        this.wordVectors = wordVectors;
+        this.warmUpIterations = warmUpIterations;
+        builder = buildCnnSentenceIterator();
+        vectorizer = new SentenceVectorizer(wordVectors, tokenizerFactory, truncateReviewsToLength, vectorSize);
+        long start = System.currentTimeMillis();
+        ComputationGraph net;
+        if ((net = loadTrainedModel(loadUpdater)) == null) {
+            net = train(textPath);
+        } else {
+            long loadMillis = System.currentTimeMillis() - start;
+            metrics.gauge("model.load.millis", () -> loadMillis);
+            System.out.println("加载模型耗时: " + loadMillis + "ms");
+        }
+        warmUp(net, warmUpIterations);
+        models = new ModelHolder(net, labels, modelPath, model -> warmUp(model, warmUpIterations));
+        metrics.gauge("model.version", () -> models.getVersion());
+        ready = true;
+    }
+
+    /**
+     * 训练新模型，构造完成后调用时，新模型预热后替换当前模型
+     */
+    @Override
+    public ComputationGraph train(String textPath) {
+        DataSetIterator[] iterators = inMemoryIterators(textPath);
+        return train(iterators[0], iterators[1]);
+    }
+
+    /**
+     * 语料只分词一次，转换成词向量下标后拆分，每个epoch直接按下标拷贝词向量，不再重新分词
+     *
+     * @return 把语料读入内存后按TrainTestSplit拆分得到的训练集和测试集迭代器
+     */
+    DataSetIterator[] inMemoryIterators(String textPath) {
+        Random rng = new Random(12345);                    //设置随机种子，使得每次运行程序都能获得同样的结果
+        List<String> lines = FileUtil.readFileToArray(textPath);
+
+        TokenizedCorpus corpus = TokenizedCorpus.read(lines, TextClassifier.LABEL_SPLIT, vectorizer::encode);
+        TokenizedCorpus[] trainTest = TrainTestSplit.split(corpus, 0.2f, rng);
+
+        System.out.println("构建训练集和测试集：");
+
+        int[] buckets = lengthBucketing ? lengthBuckets : null;
+        DataSetIterator trainIter = new TokenIdDataSetIterator(trainTest[0], vectorizer, batchSize, buckets, rng);
+        DataSetIterator testIter = new TokenIdDataSetIterator(trainTest[1], vectorizer, batchSize, buckets, rng);
+        return new DataSetIterator[]{trainIter, testIter};
+    }
+
+    /**
+     * 流式训练，语料不读入内存，适合放不进内存的大语料
+     * <p>
+     * 训练集和测试集按每行内容的哈希值拆分，训练集用有界缓冲区局部打乱
+     *
+     * @param textPaths   语料文件，格式与train(String)相同
+     * @param testPercent 测试集的比例
+     */
+    public ComputationGraph trainStreaming(List<String> textPaths, float testPercent) {
+        System.out.println("构建流式训练集和测试集：");
+        DataSetIterator[] iterators = streamingIterators(textPaths, testPercent);
+        return train(iterators[0], iterators[1]);
+    }
+
+    /**
+     * 先把流式读取的训练集和测试集向量化成磁盘上的分片缓存，之后每个epoch直接读分片，
+     * 后台线程预读，每个epoch打乱分片顺序
+     * <p>
+     * 语料文件、词向量、句子长度等发生变化时缓存自动失效并重建
+     *
+     * @param textPaths   语料文件
+     * @param testPercent 测试集的比例
+     * @param cacheDir    缓存目录
+     */
+    public ComputationGraph trainCached(List<String> textPaths, float testPercent, String cacheDir) {
+        String fingerprint = cacheFingerprint(textPaths, testPercent);
+        DataSetShardCache trainCache = new DataSetShardCache(cacheDir + File.separator + "train", fingerprint);
+        DataSetShardCache testCache = new DataSetShardCache(cacheDir + File.separator + "test", fingerprint);
+        try {
+            if (!trainCache.isValid() || !testCache.isValid()) {
+                System.out.println("生成分片缓存：");
+                DataSetIterator[] iterators = streamingIterators(textPaths, testPercent);
+                trainCache.build(iterators[0]);
+                testCache.build(iterators[1]);
+            }
+        } catch (IOException e) {
+            System.out.println("生成分片缓存出错，改为流式训练");
+            return trainStreaming(textPaths, testPercent);
+        }
+        ShardDataSetIterator trainIter = trainCache.iterator(prefetchThreads, prefetchDepth, true, 12345);
+        ShardDataSetIterator testIter = testCache.iterator(prefetchThreads, prefetchDepth, false, 12345);
+        try {
+            return train(trainIter, testIter);
+        } finally {
+            trainIter.shutdown();
+            testIter.shutdown();
+        }
+    }
+
+    /**
+     * @return 流式读取的训练集和测试集迭代器
+     */
+    private DataSetIterator[] streamingIterators(List<String> textPaths, float testPercent) {
+        StreamingLabeledSentenceProvider trainProvider = new StreamingLabeledSentenceProvider.Builder()
+                .paths(textPaths)
+                .subset(StreamingLabeledSentenceProvider.Subset.TRAIN, testPercent)
+                .build();
+        StreamingLabeledSentenceProvider testProvider = new StreamingLabeledSentenceProvider.Builder()
+                .paths(textPaths)
+                .subset(StreamingLabeledSentenceProvider.Subset.TEST, testPercent)
+                .labels(trainProvider.allLabels())
+                .shuffleBufferSize(1)
+                .build();
+        return new DataSetIterator[]{builder.sentenceProvider(bucketed(trainProvider)).build(),
+                builder.sentenceProvider(bucketed(testProvider)).build()};
+    }
+
+    /**
+     * 开启长度分桶时，把provider包装成按句子长度分桶输出的provider，
+     * 迭代器的每个minibatch由长度相近的句子组成，张量只需填充到这一批的最大长度
+     */
+    private LabeledSentenceProvider bucketed(LabeledSentenceProvider provider) {
+        if (!lengthBucketing) {
+            return provider;
+        }
+        return new BucketingSentenceProvider(provider, batchSize, lengthBuckets, text -> vectorizer.tokenize(text).size());
+    }
+
+    /**
+     * 用已经加载的词向量构造时，设置词向量文件的路径，分片缓存按这个文件的路径、大小和修改时间判断词向量是否变化
+     */
+    public void setVectorPath(String vectorPath) {
+        this.vectorPath = vectorPath;
+    }
+
+    /**
+     * 设置长度分桶
+     *
+     * @param enabled 是否开启
+     * @param buckets 各个桶的句子长度上限，升序
+     */
+    public void setLengthBucketing(boolean enabled, int... buckets) {
+        this.lengthBucketing = enabled;
+        if (buckets.length > 0) {
+            this.lengthBuckets = buckets.clone();
+        }
+    }
+
+    /**
+     * 决定向量化结果的所有输入：语料文件、拆分比例、句子长度、批大小、分词器和词向量
+     * <p>
+     * 知道词向量文件时包含它的路径、大小和修改时间，重新训练的词向量文件一定使缓存失效；
+     * 另外按词表上均匀抽样的一百个词的向量计算，不知道文件时也能发现大部分变化
+     */
+    private String cacheFingerprint(List<String> textPaths, float testPercent) {
+        List<Object> parts = new ArrayList<>();
+        for (String textPath : textPaths) {
+            parts.add(new File(textPath));
+        }
+        Collections.addAll(parts, testPercent, truncateReviewsToLength, batchSize, vectorSize,
+                tokenizerFactory.getClass().getName(), lengthBucketing, Arrays.toString(lengthBuckets));
+        String vectorFile = null != vectorPath ? vectorPath
+                : wordVectors instanceof MappedWordVectors ? ((MappedWordVectors) wordVectors).getPath() : null;
+        if (null != vectorFile) {
+            parts.add(new File(vectorFile));
+        }
+        int numWords = wordVectors.vocab().numWords();
+        parts.add(numWords);
+        for (int i = 0; i < numWords; i += Math.max(1, numWords / 100)) {
+            String word = wordVectors.vocab().wordAtIndex(i);
+            parts.add(word);
+            parts.add(Arrays.toString(wordVectors.getWordVector(word)));
+        }
+        return DataSetShardCache.fingerprint(parts.toArray());
+    }
+
+    /**
+     * 用给定的训练集和测试集训练模型，每个epoch结束后在测试集上评估，训练完写出到modelPath
+     * <p>
+     * 类别取自训练集迭代器，输出层的大小与类别数一致，类别名和模型一起写出
+     * <p>
+     * 设置了检查点目录时，定期写检查点，目录下已有检查点时从最近的检查点继续训练；
+     * 开启早停时，测试集准确率连续patience个epoch没有提升就停止，最后写出的是准确率最高的模型
+     * <p>
+     * 构造完成后调用时，新模型预热后替换当前模型，之后的预测都使用新模型
+     */
+    public ComputationGraph train(DataSetIterator trainIter, DataSetIterator testIter) {
+        labels = Collections.unmodifiableList(new ArrayList<>(trainIter.getLabels()));
+        TrainingCheckpointer checkpointer = null == checkpointDir ? null : new TrainingCheckpointer(checkpointDir, keepCheckpoints);
+        TrainingCheckpointer.TrainingState state = new TrainingCheckpointer.TrainingState();
+        ComputationGraph net = null;
+        INDArray bestParams = null;
+        File latest = null == checkpointer ? null : checkpointer.latest();
+        if (null != latest) {
+            try {
+                net = checkpointer.restore(latest);
+            } catch (IOException e) {
+                throw new IllegalStateException("加载检查点出错:" + latest, e);
+            }
+            state = checkpointer.state(latest);
+            if (state.getBestEpoch() >= 0) {
+                bestParams = restoreBestParams(checkpointer);
+            }
+            System.out.println("从检查点 " + latest + " 继续训练: 已完成 " + state.getEpoch() + " 个epoch，当前epoch已训练 "
+                    + state.getBatches() + " 个minibatch");
+            TrainingCheckpointer.replay(trainIter, testIter, state);
+        }
+        if (null == net) {
+            net = buildNetwork();
+        }
+
+        System.out.println("开始训练：");
+        //每隔100个iteration输出一次score、吞吐量和剩余时间，指标同时记录到metrics，可视化的情况下可以去掉
+        TrainingMetricsListener listener = new TrainingMetricsListener(metrics, 100, nEpochs);
+        net.setListeners(listener);
+
+        //可视化
+//        UIServer uiServer = UIServer.getInstance();
+//        StatsStorage statsStorage = new InMemoryStatsStorage();
+//        net.setListeners(new StatsListener(statsStorage, 1));
+//        uiServer.attach(statsStorage);
+
+        ParallelWrapper wrapper = parallelWorkers > 1 ? buildParallelWrapper(net, parallelWorkers) : null;
+        //并行训练时iteration和minibatch不是一一对应的，只在epoch结束时写检查点
+        if (null != checkpointer && null == wrapper) {
+            net.addListeners(checkpointer.listener(state, checkpointBatches));
+        }
+        try {
+            for (int i = state.getEpoch(); i < nEpochs && !state.isStopped(); i++) {
+                listener.onEpochStart(net);
+                fitEpoch(net, wrapper, trainIter);
+                listener.onEpochEnd(net);
+                System.out.println("批次 " + i + " 完成，开始评估模型:");
+                Evaluation evaluation = net.evaluate(testIter);
+                System.out.println(evaluation.stats());
+
+                state.setEpoch(i + 1);
+                state.setBatches(0);
+                if (earlyStoppingPatience > 0) {
+                    double accuracy = evaluation.accuracy();
+                    if (state.getBestEpoch() < 0 || accuracy > state.getBestScore() + earlyStoppingMinDelta) {
+                        state.setBestScore(accuracy);
+                        state.setBestEpoch(i);
+                        state.setEpochsWithoutImprovement(0);
+                        bestParams = net.params().dup();
+                        if (null != checkpointer) {
+                            checkpointer.saveBest(net, state);
+                        }
+                    } else {
+                        state.setEpochsWithoutImprovement(state.getEpochsWithoutImprovement() + 1);
+                        if (state.getEpochsWithoutImprovement() >= earlyStoppingPatience) {
+                            System.out.println("测试集准确率连续 " + earlyStoppingPatience + " 个epoch没有提升，提前停止训练，最好的是批次 "
+                                    + state.getBestEpoch() + ": " + state.getBestScore());
+                            state.setStopped(true);
+                        }
+                    }
+                }
+                if (null != checkpointer) {
+                    checkpointer.save(net, state);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("写出检查点出错", e);
+        } finally {
+            if (null != wrapper) {
+                wrapper.shutdown();
+            }
+        }
+
+        //最后一个epoch不是最好的时候，换回最好的参数
+        if (null != bestParams && state.getBestEpoch() < state.getEpoch() - 1) {
+            System.out.println("使用批次 " + state.getBestEpoch() + " 的模型，测试集准确率:" + state.getBestScore());
+            net.setParams(bestParams);
+        }
+
+        try {
+            ModelSerializer.writeModel(net, new File(modelPath), true);
+            ModelHolder.writeLabels(new File(modelPath), labels);
+        } catch (IOException e) {
+            System.out.println("写出到硬盘出错");
+        }
+        if (null != models) {
+            warmUp(net, warmUpIterations);
+            models.swap(net, labels);
+        }
+        return net;
+    }
+
+    private static INDArray restoreBestParams(TrainingCheckpointer checkpointer) {
+        try {
+            ComputationGraph best = checkpointer.restoreBest();
+            return null == best ? null : best.params();
+        } catch (IOException e) {
+            throw new IllegalStateException("加载最佳模型出错", e);
+        }
+    }
+
+    /**
+     * 设置训练的epoch数，开启早停时是epoch数的上限
+     */
+    public void setEpochs(int epochs) {
+        this.nEpochs = epochs;
+    }
+
+    /**
+     * 设置训练检查点，目录下已有检查点时，train从最近的检查点继续训练
+     *
+     * @param dir          检查点目录，null表示不写检查点
+     * @param everyBatches 每隔多少个minibatch写一次检查点，0表示只在每个epoch结束时写，并行训练时总是只在epoch结束时写
+     * @param keep         保留最近的检查点数
+     */
+    public void setCheckpointing(String dir, int everyBatches, int keep) {
+        this.checkpointDir = dir;
+        this.checkpointBatches = everyBatches;
+        this.keepCheckpoints = keep;
+    }
+
+    /**
+     * 设置早停，以每个epoch结束后测试集上的准确率为准
+     *
+     * @param patience 准确率连续多少个epoch没有提升就停止训练，0表示不早停
+     * @param minDelta 准确率至少提升多少才算提升
+     */
+    public void setEarlyStopping(int patience, double minDelta) {
+        this.earlyStoppingPatience = patience;
+        this.earlyStoppingMinDelta = minDelta;
+    }
+
+    /**
+     * 设置多线程数据并行训练，workers大于1时用ParallelWrapper在多个模型副本上并行训练，定期做参数平均
+     *
+     * @param workers            并行的worker数，1表示单线程训练
+     * @param averagingFrequency 每隔多少个iteration做一次参数平均
+     * @param prefetchBuffer     每个worker预取的minibatch数
+     */
+    public void setParallelTraining(int workers, int averagingFrequency, int prefetchBuffer) {
+        this.parallelWorkers = workers;
+        this.averagingFrequency = averagingFrequency;
+        this.parallelPrefetchBuffer = prefetchBuffer;
+    }
+
+    ParallelWrapper buildParallelWrapper(ComputationGraph net, int workers) {
+        ParallelWrapper wrapper = new ParallelWrapper.Builder<>(net)
+                .workers(workers)
+                .averagingFrequency(averagingFrequency)
+                .prefetchBuffer(parallelPrefetchBuffer)
+                .reportScoreAfterAveraging(true)
+                .build();
+        if (!net.getListeners().isEmpty()) {
+            wrapper.setListeners(net.getListeners());
+        }
+        return wrapper;
+    }
+
+    /**
+     * 训练一个epoch，wrapper为null时单线程训练
+     */
+    void fitEpoch(ComputationGraph net, ParallelWrapper wrapper, DataSetIterator trainIter) {
+        if (null != wrapper) {
+            wrapper.fit(trainIter);
+        } else {
+            net.fit(trainIter);
+        }
+    }
+
+    ComputationGraph buildNetwork() {
+        ComputationGraph net = buildNetwork(vectorSize, labels.size(), getHyperParameters());
+
+        System.out.println("输出每一层的参数值:");
+        for (Layer l : net.getLayers()) {
+            System.out.println("\t" + l.conf().getLayer().getLayerName() + "\t" + l.numParams());
+        }
+        return net;
+    }
+
+    /**
+     * 按给定的超参数构建并初始化网络，不依赖分类器的状态，超参数搜索时各个试验并发调用
+     *
+     * @param vectorSize 词向量维度
+     * @param numLabels  类别数
+     */
+    static ComputationGraph buildNetwork(int vectorSize, int numLabels, HyperParameters parameters) {
+        int cnnLayerFeatureMaps = parameters.getCnnLayerFeatureMaps();
+        //设置内存垃圾回收的周期为5s
+        Nd4j.getMemoryManager().setAutoGcWindow(5000);
+
+        //跟MultiLayerConfiguration类似，但是允许手动配置更多，有向无环图的构建方式
+        ComputationGraphConfiguration config = new NeuralNetConfiguration.Builder()
+                .trainingWorkspaceMode(WorkspaceMode.ENABLED)
+                .inferenceWorkspaceMode(WorkspaceMode.ENABLED)
+                .weightInit(WeightInit.RELU)                //权重参数初始化
+                .activation(Activation.LEAKYRELU)           //激活函数
+                .updater(new Adam(parameters.getLearningRate()))     //权重更新方式
+                .convolutionMode(ConvolutionMode.Same)      //卷积模式
+                .l2(0.0001)            //正则化
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("cnn1", new ConvolutionLayer.Builder()
+                        .kernelSize(3, vectorSize)
+                        .stride(1, vectorSize)
+                        .nIn(1)
+                        .nOut(cnnLayerFeatureMaps)
+                        .build(), "input")
+                .addLayer("cnn2", new ConvolutionLayer.Builder()
+                        .kernelSize(4, vectorSize)
+                        .stride(1, vectorSize)
+                        .nIn(1)
+                        .nOut(cnnLayerFeatureMaps)
+                        .build(), "input")
+                .addLayer("cnn3", new ConvolutionLayer.Builder()
+                        .kernelSize(5, vectorSize)
+                        .stride(1, vectorSize)
+                        .nIn(1)
+                        .nOut(cnnLayerFeatureMaps)
+                        .build(), "input")
+                //merge三种卷积核的卷积结果
+                .addVertex("merge", new MergeVertex(), "cnn1", "cnn2", "cnn3")
+                //池化操作
+                .addLayer("globalPool", new GlobalPoolingLayer.Builder()
+                        .poolingType(parameters.getGlobalPoolingType())
+                        .dropOut(0.5)
+                        .build(), "merge")
+                //用池化后得到的特征建立全连接层输出
+                .addLayer("out", new OutputLayer.Builder()
+                        .lossFunction(LossFunctions.LossFunction.MCXENT)
+                        .activation(Activation.SOFTMAX)
+                        .nIn(3 * cnnLayerFeatureMaps)
+                        .nOut(numLabels)    //默认两个类别，积极和消极
+                        .build(), "globalPool")
+                .setOutputs("out")
+                .build();
+
+        ComputationGraph net = new ComputationGraph(config);
+        net.init();
+        return net;
+    }
+
+    /**
+     * @return 当前的超参数
+     */
+    public HyperParameters getHyperParameters() {
+        return new HyperParameters(batchSize, cnnLayerFeatureMaps, truncateReviewsToLength, globalPoolingType, learningRate);
+    }
+
+    /**
+     * 设置超参数，之后调用train时生效，例如使用HyperParameterSearch找到的最好的配置
+     */
+    public void setHyperParameters(HyperParameters parameters) {
+        this.batchSize = parameters.getBatchSize();
+        this.cnnLayerFeatureMaps = parameters.getCnnLayerFeatureMaps();
+        this.truncateReviewsToLength = parameters.getTruncateReviewsToLength();
+        this.globalPoolingType = parameters.getGlobalPoolingType();
+        this.learningRate = parameters.getLearningRate();
+        builder = buildCnnSentenceIterator();
+        vectorizer = new SentenceVectorizer(wordVectors, tokenizerFactory, truncateReviewsToLength, vectorSize);
+    }
+
+    /**
+     * 预测单条文本，没有命中缓存时做一次前向计算，请求数、错误数和耗时记录到metrics，与predictBatch一致
+     */
+    @Override
+    public String predict(String text) {
+        long start = System.nanoTime();
+        PredictionCache cache = predictionCache;
+        long key = null == cache ? 0 : cache.key(text);
+        double[] probabilities;
+        List<String> labels;
+        try (ModelHolder.Lease lease = models.acquire()) {
+            labels = lease.labels();
+            Prediction cached = null == cache ? null : cache.get(key, lease.version());
+            if (null != cached) {
+                probabilities = cached.getProbabilities();
+            } else {
+                metrics.counter("inference.requests").increment();
+                try {
+                    int[] ids = vectorizer.encode(text);
+                    DataSet dataSet = vectorizer.vectorizeIds(Collections.singletonList(ids), Math.max(1, ids.length));
+                    probabilities = lease.model().output(false, new INDArray[]{dataSet.getFeatures()},
+                            new INDArray[]{dataSet.getFeaturesMaskArray()})[0].toDoubleVector();
+                } catch (RuntimeException e) {
+                    metrics.counter("inference.errors").increment();
+                    throw e;
+                }
+                if (null != cache) {
+                    cache.put(key, toPrediction(labels, probabilities), lease.version());
+                }
+            }
+        }
+        metrics.histogram("inference.predict.micros").record((System.nanoTime() - start) / 1000);
+        return toPrediction(labels, probabilities).getLabel();
+    }
+
+    /**
+     * 批量预测，把多条文本填充成一个带掩码的张量后只做一次前向计算，不输出任何日志
+     *
+     * @param texts 待预测的文本
+     * @return 预测结果，顺序与输入一致
+     */
+    @Override
+    public List<Prediction> predictBatch(List<String> texts) {
+        try (ModelHolder.Lease lease = models.acquire()) {
+            return predictBatch(lease, texts);
+        }
+    }
+
+    private List<Prediction> predictBatch(ModelHolder.Lease lease, List<String> texts) {
+        PredictionCache cache = predictionCache;
+        return null == cache ? predictBatch(lease.model(), lease.labels(), texts) : cachedPredict(cache, lease, texts);
+    }
+
+    /**
+     * 先查缓存，没有命中的文本去重后一次批量预测，结果写回缓存
+     */
+    private List<Prediction> cachedPredict(PredictionCache cache, ModelHolder.Lease lease, List<String> texts) {
+        Prediction[] predictions = new Prediction[texts.size()];
+        long[] keys = new long[texts.size()];
+        Map<Long, Integer> missIndex = new HashMap<>();
+        List<String> missTexts = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = cache.key(texts.get(i));
+            predictions[i] = cache.get(keys[i], lease.version());
+            if (null == predictions[i] && !missIndex.containsKey(keys[i])) {
+                missIndex.put(keys[i], missTexts.size());
+                missTexts.add(texts.get(i));
+            }
+        }
+        if (missTexts.isEmpty()) {
+            return Arrays.asList(predictions);
+        }
+        List<Prediction> computed = predictBatch(lease.model(), lease.labels(), missTexts);
+        for (Map.Entry<Long, Integer> entry : missIndex.entrySet()) {
+            cache.put(entry.getKey(), computed.get(entry.getValue()), lease.version());
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (null == predictions[i]) {
+                predictions[i] = computed.get(missIndex.get(keys[i]));
+            }
+        }
+        return Arrays.asList(predictions);
+    }
+
+    /**
+     * 用指定的模型做批量预测，供持有模型副本的并发推理引擎使用
+     * <p>
+     * 开启长度分桶时先按分词后的长度排序，每次前向计算只包含同一个桶里的句子，结果再按原顺序放回
+     * <p>
+     * 每次前向计算的耗时和批大小记录到metrics，出错时错误计数加一后抛出
+     */
+    List<Prediction> predictBatch(ComputationGraph model, List<String> labels, List<String> texts) {
+        metrics.counter("inference.requests").increment(texts.size());
+        try {
+            return bucketedPredict(model, labels, texts);
+        } catch (RuntimeException e) {
+            metrics.counter("inference.errors").increment();
+            throw e;
+        }
+    }
+
+    private List<Prediction> bucketedPredict(ComputationGraph model, List<String> labels, List<String> texts) {
+        int n = texts.size();
+        List<int[]> tokenized = new ArrayList<>(n);
+        for (String text : texts) {
+            tokenized.add(vectorizer.encode(text));
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (lengthBucketing) {
+            Arrays.sort(order, Comparator.comparingInt(i -> tokenized.get(i).length));
+        }
+
+        Prediction[] predictions = new Prediction[n];
+        int from = 0;
+        while (from < n) {
+            int to = from + 1;
+            int bucket = BucketingSentenceProvider.bucketOf(tokenized.get(order[from]).length, lengthBuckets);
+            while (to < n && to - from < maxInferenceBatchSize && (!lengthBucketing
+                    || BucketingSentenceProvider.bucketOf(tokenized.get(order[to]).length, lengthBuckets) == bucket)) {
+                to++;
+            }
+            List<int[]> batch = new ArrayList<>(to - from);
+            int length = 1;
+            for (int k = from; k < to; k++) {
+                int[] ids = tokenized.get(order[k]);
+                batch.add(ids);
+                length = Math.max(length, ids.length);
+            }
+            long start = System.nanoTime();
+            DataSet dataSet = vectorizer.vectorizeIds(batch, length);
+            INDArray output = model.output(false, new INDArray[]{dataSet.getFeatures()},
+                    new INDArray[]{dataSet.getFeaturesMaskArray()})[0];
+            metrics.histogram("inference.batch.micros").record((System.nanoTime() - start) / 1000);
+            metrics.histogram("inference.batch.size").record(batch.size());
+            for (int k = from; k < to; k++) {
+                predictions[order[k]] = toPrediction(labels, output.getRow(k - from).toDoubleVector());
+            }
+            from = to;
+        }
+        return Arrays.asList(predictions);
+    }
+
+    public Prediction[] predictBatch(String[] texts) {
+        return predictBatch(Arrays.asList(texts)).toArray(new Prediction[0]);
+    }
+
+    /**
+     * 流式批量预测，每攒够maxInferenceBatchSize条文本做一次前向计算
+     *
+     * @param texts 待预测的文本流
+     * @return 预测结果流，顺序与输入一致
+     */
+    public Stream<Prediction> predictBatch(Stream<String> texts) {
+        Iterator<String> textIterator = texts.iterator();
+        Iterator<List<Prediction>> batchIterator = new Iterator<List<Prediction>>() {
+            @Override
+            public boolean hasNext() {
+                return textIterator.hasNext();
+            }
+
+            @Override
+            public List<Prediction> next() {
+                List<String> batch = new ArrayList<>(maxInferenceBatchSize);
+                while (textIterator.hasNext() && batch.size() < maxInferenceBatchSize) {
+                    batch.add(textIterator.next());
+                }
+                return predictBatch(batch);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batchIterator, Spliterator.ORDERED), false)
+                .flatMap(List::stream);
+    }
+
+    /**
+     * 在给定的数据上评估模型
+     *
+     * @param texts      文本
+     * @param textLabels 文本对应的真实类别
+     * @return 评估结果
+     */
+    @Override
+    public Evaluation evaluate(List<String> texts, List<String> textLabels) {
+        try (ModelHolder.Lease lease = models.acquire()) {
+            List<String> labels = lease.labels();
+            Evaluation evaluation = new Evaluation(labels);
+            List<Prediction> predictions = predictBatch(lease, texts);
+            for (int i = 0; i < predictions.size(); i++) {
+                evaluation.eval(predictions.get(i).getLabelIndex(), labels.indexOf(textLabels.get(i)));
+            }
+            return evaluation;
+        }
+    }
+
+    private static Prediction toPrediction(List<String> labels, double[] probabilities) {
+        int max = 0;
+        for (int i = 1; i < probabilities.length; i++) {
+            if (probabilities[i] >= probabilities[max]) {
+                max = i;
+            }
+        }
+        return new Prediction(labels.get(max), max, probabilities);
+    }
+
+
+    /**
+     * 加载词向量，紧凑词向量文件直接读入，MappedWordVectors转换好的二进制文件直接内存映射，否则按文本格式解析
+     *
+     * @param vectorPath 词向量路径
+     */
+    public static WordVectors loadWordVectors(String vectorPath) {
+        System.out.println("加载训练好的词向量：");
+        if (QuantizedWordVectors.isQuantizedFile(vectorPath)) {
+            try {
+                return QuantizedWordVectors.load(vectorPath);
+            } catch (IOException e) {
+                System.out.println("加载紧凑词向量出错，按文本格式加载:" + vectorPath);
+            }
+        }
+        if (MappedWordVectors.isMappedFile(vectorPath)) {
+            try {
+                return MappedWordVectors.open(vectorPath);
+            } catch (IOException e) {
+                System.out.println("映射二进制词向量出错，按文本格式加载:" + vectorPath);
+            }
+        }
+        return WordVectorSerializer.loadStaticModel(new File(vectorPath));
+    }
+
+    /**
+     * 加载指定的模型文件(不加载优化器状态)和其中保存的类别，预热后替换当前模型
+     * <p>
+     * 之后reloadModel、watchModel和训练写出都使用这个路径
+     */
+    @Override
+    public ComputationGraph load(String modelPath) throws IOException {
+        File file = new File(modelPath);
+        ComputationGraph net = ModelSerializer.restoreComputationGraph(file, false);
+        List<String> loaded = labelsOf(file);
+        warmUp(net, warmUpIterations);
+        models.swap(net, loaded);
+        labels = loaded;
+        this.modelPath = modelPath;
+        models.setModelPath(modelPath);
+        return net;
+    }
+
+    /**
+     * @return 当前模型的类别，顺序与模型输出一致
+     */
+    @Override
+    public List<String> getLabels() {
+        return null == models ? labels : models.getLabels();
+    }
+
+    /**
+     * @return 模型文件里保存的类别，旧版本的模型文件没有保存时按LEGACY_LABELS处理
+     */
+    private static List<String> labelsOf(File modelFile) {
+        List<String> saved = ModelHolder.readLabels(modelFile);
+        return null == saved ? LEGACY_LABELS : saved;
+    }
+
+    /**
+     * 只加载预测需要的配置和参数，不加载优化器状态
+     */
+    public ComputationGraph loadTrainedModel() {
+        return loadTrainedModel(false);
+    }
+
+    /**
+     * @param loadUpdater 是否加载优化器状态，在已有模型上继续训练时才需要
+     * @return 模型文件不存在或者读取出错时返回null
+     */
+    public ComputationGraph loadTrainedModel(boolean loadUpdater) {
+        try {
+            File file = new File(modelPath);
+            ComputationGraph net = ModelSerializer.restoreComputationGraph(file, loadUpdater);
+            labels = labelsOf(file);
+            return net;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 去掉已有模型文件里的优化器状态，只保留配置、参数和类别名，先写到同目录下的临时文件再原子替换
+     *
+     * @param modelPath  已有的模型文件
+     * @param outputPath 输出路径，可以和modelPath相同
+     */
+    public static void stripUpdater(String modelPath, String outputPath) throws IOException {
+        ComputationGraph model = ModelSerializer.restoreComputationGraph(new File(modelPath), false);
+        List<String> labels = ModelHolder.readLabels(new File(modelPath));
+        File target = FileUtil.writeAtomically(outputPath, tmp -> {
+            ModelSerializer.writeModel(model, tmp, false);
+            if (null != labels) {
+                ModelHolder.writeLabels(tmp, labels);
+            }
+        });
+        System.out.println("去掉优化器状态: " + new File(modelPath).length() + " -> " + target.length() + " 字节");
+    }
+
+    /**
+     * 用词表里的词构造lengthBuckets中每种长度的句子，分别以单条和batchSize条做前向计算，
+     * 让JIT编译预测路径上的代码、让当前线程的workspace按实际的输入形状分配好，不记录预测指标
+     *
+     * @param model      要预热的模型，可以是并发推理引擎的模型副本
+     * @param iterations 预热轮数，0表示不预热
+     */
+    void warmUp(ComputationGraph model, int iterations) {
+        VocabCache<?> vocab = wordVectors.vocab();
+        if (iterations <= 0 || null == vocab || vocab.numWords() == 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int numWords = vocab.numWords();
+        int cursor = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (int bucket : lengthBuckets) {
+                int length = Math.min(bucket, truncateReviewsToLength);
+                for (int size : new int[]{1, batchSize}) {
+                    List<int[]> batch = new ArrayList<>(size);
+                    for (int k = 0; k < size; k++) {
+                        int[] ids = new int[length];
+                        for (int t = 0; t < length; t++) {
+                            ids[t] = cursor++ % numWords;
+                        }
+                        batch.add(ids);
+                    }
+                    DataSet dataSet = vectorizer.vectorizeIds(batch, length);
+                    model.output(false, new INDArray[]{dataSet.getFeatures()}, new INDArray[]{dataSet.getFeaturesMaskArray()});
+                }
+            }
+        }
+        long warmUpMillis = System.currentTimeMillis() - start;
+        metrics.gauge("model.warmup.millis", () -> warmUpMillis);
+        System.out.println("预热耗时: " + warmUpMillis + "ms");
+    }
+
+    /**
+     * @return 模型已经加载(或训练)并预热完成
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 使用指定的指标注册表，默认为Metrics.registry()
+     */
+    public void setMetricsRegistry(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metrics;
+    }
+
+    /**
+     * 开启预测结果缓存，predict和predictBatch先查缓存，模型替换后缓存自动清空；命中率和内存注册为inference.cache开头的指标
+     *
+     * @param cache 预测缓存，null表示关闭
+     */
+    public void setPredictionCache(PredictionCache cache) {
+        if (null != cache) {
+            cache.register(metrics, "inference.cache");
+        }
+        this.predictionCache = cache;
+    }
+
+    public PredictionCache getPredictionCache() {
+        return predictionCache;
+    }
+
+    /**
+     * @return 当前模型，模型被替换后可能随时释放，需要持续使用时通过getModelHolder().acquire()拿到租约
+     */
+    public ComputationGraph getNet() {
+        return models.current();
+    }
+
+    public ModelHolder getModelHolder() {
+        return models;
+    }
+
+    /**
+     * 在后台从modelPath重新加载并预热模型，完成后原子地替换，正在进行的预测在旧模型上完成
+     *
+     * @return 新模型的版本号
+     */
+    public CompletableFuture<Long> reloadModel() {
+        return models.reload();
+    }
+
+    /**
+     * 定期检查modelPath，模型文件被替换后自动reloadModel
+     *
+     * @param intervalMillis 检查间隔
+     */
+    public void watchModel(long intervalMillis) {
+        models.watch(intervalMillis);
+    }
+
+    /**
+     * @return 当前模型的版本号，从1开始，每次替换加一
+     */
+    public long getModelVersion() {
+        return models.getVersion();
+    }
+
+    private CnnSentenceDataSetIterator.Builder buildCnnSentenceIterator() {
+
+        return new CnnSentenceDataSetIterator.Builder(CnnSentenceDataSetIterator.Format.CNN2D)
+                .wordVectors(wordVectors)
+                .minibatchSize(batchSize)
+                .maxSentenceLength(truncateReviewsToLength)
+                .tokenizerFactory(tokenizerFactory)
+                .useNormalizedWordVectors(false);
+    }
+
+
+    public static void main(String[] args) {
+
+        String textPath = "/home/msg/workspace/idea/machine-learning-tutorials/deeplearning4j-tutorials/src/main/resources/data/train.txt";
+        String vectorPath = "/home/msg/Documents/notebook/fasttext/cc.id.300.vec";
+
+        String modelPath = "/home/msg/workspace/idea/machine-learning-tutorials/deeplearning4j-tutorials/src/main/resources/cnn/model";
+
+//        CnnTextClassifier cnnTextClassifier = new CnnTextClassifier(textPath, vectorPath, modelPath);
+//
+//        cnnTextClassifier.predict("hello world");
+
+        String label = new CnnTextClassifier(textPath, vectorPath, modelPath).predict("mau langganan nsp despacito remix luis fonsi daddy yankee justin bieber tadi bls ya menangkan unit honda brio yamaha aerox trf");
+
+        System.out.println(label);
+
+    }
+}
@@ -0,0 +1,300 @@
+package com.msg.classifier.cnn;
+
+import com.msg.classifier.TextClassifier;
+import com.msg.text.TokenizedCorpus;
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.eval.EvaluationAveraging;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * CnnTextClassifier的分层k折交叉验证和重复留出验证，多个折在一台机器上并发训练和评估
+ * <p>
+ * 1) 语料只读一遍、分词一次，转换成TokenizedCorpus后所有折共用；每折的训练集和测试集只是下标视图，不复制句子
+ * 2) k折的划分对每次重复只保存一个int数组(每个句子所在的折)，某一折的视图在开始训练时才生成，训练完就丢弃；
+ * 同时存在的网络和视图只有parallelFolds份，内存不随折数增长
+ * 3) 每折结束后混淆矩阵立即合并到总的评估里，汇总各类别的精确率、召回率和F1，以及各折准确率和宏平均F1的平均值和标准差
+ * <p>
+ * 与HyperParameterSearch一样，并发的折共用CPU，建议把OMP_NUM_THREADS设为核数除以parallelFolds
+ */
+@Slf4j
+public class CrossValidation {
+    public static final String COMPLETED = TrainingSupport.COMPLETED;
+    public static final String FAILED = TrainingSupport.FAILED;
+
+    private final SentenceVectorizer vectorizer;
+    private final int vectorSize;
+    private final TokenizedCorpus corpus;           //转换成词向量下标的整个语料，所有折共用
+    private final List<String> labels;
+
+    private HyperParameters hyperParameters = new HyperParameters();
+    private int parallelFolds = 2;          //同时训练的折数
+    private int epochs = 3;                 //每折训练的epoch数
+    private long seed = 12345;
+
+    /**
+     * @param textPath    "分好词的文本 __label__ 标签"格式的语料
+     * @param wordVectors 所有折共用的词向量，只读
+     */
+    public CrossValidation(String textPath, WordVectors wordVectors) {
+        this.vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+        //不在这里截断，训练和评估时按hyperParameters的句子长度上限截断
+        this.vectorizer = new SentenceVectorizer(wordVectors, new DefaultTokenizerFactory(), Integer.MAX_VALUE, vectorSize);
+
+        long start = System.currentTimeMillis();
+        this.corpus = TokenizedCorpus.read(FileUtil.readFileToArray(textPath), TextClassifier.LABEL_SPLIT, vectorizer::encode);
+        this.labels = corpus.getLabels();
+        log.info("交叉验证数据: " + corpus.size() + " 条, 类别 " + labels + ", 分词耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    public void setHyperParameters(HyperParameters hyperParameters) {
+        this.hyperParameters = hyperParameters;
+    }
+
+    public void setParallelFolds(int parallelFolds) {
+        this.parallelFolds = Math.max(1, parallelFolds);
+    }
+
+    public void setEpochs(int epochs) {
+        this.epochs = Math.max(1, epochs);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * 一次验证任务: 生成训练集和测试集视图
+     */
+    private interface FoldSplit {
+        TokenizedCorpus[] get();
+    }
+
+    /**
+     * 分层k折交叉验证，重复repeats次，每次重新随机划分
+     *
+     * @param k       折数
+     * @param repeats 重复次数
+     */
+    public CrossValidationResult kFold(int k, int repeats) {
+        List<FoldTask> tasks = new ArrayList<>(k * repeats);
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            int[] folds = TrainTestSplit.stratifiedFolds(corpus, k, new Random(seed + repeat));
+            for (int fold = 0; fold < k; fold++) {
+                int f = fold;
+                tasks.add(new FoldTask(repeat, fold, () -> TrainTestSplit.fold(corpus, folds, f)));
+            }
+        }
+        log.info("开始" + k + "折交叉验证: 重复 " + repeats + " 次, 并发 " + parallelFolds + ", 每折 " + epochs + " 个epoch, "
+                + hyperParameters.describe());
+        return run(tasks);
+    }
+
+    /**
+     * 重复留出验证：每次按testPercent分层随机拆分，共repeats次
+     *
+     * @param testPercent 测试集比例
+     * @param repeats     重复次数
+     */
+    public CrossValidationResult repeatedHoldout(float testPercent, int repeats) {
+        List<FoldTask> tasks = new ArrayList<>(repeats);
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            long splitSeed = seed + repeat;
+            tasks.add(new FoldTask(repeat, 0, () -> TrainTestSplit.split(corpus, testPercent, new Random(splitSeed))));
+        }
+        log.info("开始重复留出验证: 测试集比例 " + testPercent + ", 重复 " + repeats + " 次, 并发 " + parallelFolds + ", 每折 "
+                + epochs + " 个epoch, " + hyperParameters.describe());
+        return run(tasks);
+    }
+
+    /**
+     * 在线程池上运行所有折，哪一折先完成就先合并它的评估，出错的折标记为FAILED，不影响其他折
+     */
+    private CrossValidationResult run(List<FoldTask> tasks) {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = TrainingSupport.newDaemonPool(parallelFolds, "cross-validation-");
+        CompletionService<FoldTask> completion = new ExecutorCompletionService<>(pool);
+        Evaluation pooled = new Evaluation(labels);
+        try {
+            for (FoldTask task : tasks) {
+                completion.submit(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("第 " + task.repeat + " 次重复第 " + task.fold + " 折出错", e);
+                        task.result.setStatus(FAILED);
+                    }
+                    return task;
+                });
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                FoldTask task = completion.take().get();
+                if (null != task.evaluation) {
+                    pooled.merge(task.evaluation);
+                    task.evaluation = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("交叉验证被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("交叉验证出错", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        log.info("交叉验证完成，耗时 " + (System.currentTimeMillis() - start) + "ms");
+
+        List<CrossValidationResult.FoldResult> folds = new ArrayList<>(tasks.size());
+        for (FoldTask task : tasks) {
+            folds.add(task.result);
+        }
+        return summarize(folds, pooled);
+    }
+
+    private CrossValidationResult summarize(List<CrossValidationResult.FoldResult> folds, Evaluation pooled) {
+        CrossValidationResult result = new CrossValidationResult();
+        result.setParameters(hyperParameters);
+        result.setFolds(folds);
+        double[] accuracies = folds.stream().filter(fold -> COMPLETED.equals(fold.getStatus()))
+                .mapToDouble(CrossValidationResult.FoldResult::getAccuracy).toArray();
+        double[] f1s = folds.stream().filter(fold -> COMPLETED.equals(fold.getStatus()))
+                .mapToDouble(CrossValidationResult.FoldResult::getF1).toArray();
+        result.setMeanAccuracy(mean(accuracies));
+        result.setStdAccuracy(std(accuracies));
+        result.setMeanF1(mean(f1s));
+        result.setStdF1(std(f1s));
+
+        int n = labels.size();
+        double[] precision = new double[n];
+        double[] recall = new double[n];
+        double[] f1 = new double[n];
+        int[] support = new int[n];
+        if (accuracies.length > 0) {
+            for (int label = 0; label < n; label++) {
+                precision[label] = pooled.precision(label);
+                recall[label] = pooled.recall(label);
+                f1[label] = pooled.f1(label);
+                support[label] = pooled.classCount(label);
+            }
+        }
+        result.setLabels(labels);
+        result.setPrecision(precision);
+        result.setRecall(recall);
+        result.setF1(f1);
+        result.setSupport(support);
+        result.setEvaluation(pooled);
+        return result;
+    }
+
+    private static double mean(double[] values) {
+        return values.length == 0 ? Double.NaN : Arrays.stream(values).average().orElse(Double.NaN);
+    }
+
+    /**
+     * @return 样本标准差，少于两个值时为0
+     */
+    private static double std(double[] values) {
+        if (values.length < 2) {
+            return values.length == 0 ? Double.NaN : 0;
+        }
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    /**
+     * 一折: 生成视图，训练epochs个epoch，在测试集上评估，然后释放网络
+     */
+    private final class FoldTask {
+        private final int repeat;
+        private final int fold;
+        private final FoldSplit split;
+        private final CrossValidationResult.FoldResult result = new CrossValidationResult.FoldResult();
+        private Evaluation evaluation;
+
+        private FoldTask(int repeat, int fold, FoldSplit split) {
+            this.repeat = repeat;
+            this.fold = fold;
+            this.split = split;
+            result.setRepeat(repeat);
+            result.setFold(fold);
+        }
+
+        private void run() {
+            TokenizedCorpus[] views = split.get();
+            TokenizedCorpus train = views[0];
+            TokenizedCorpus test = views[1];
+            result.setTrainSize(train.size());
+            result.setTestSize(test.size());
+
+            Evaluation evaluation;
+            ComputationGraph net = CnnTextClassifier.buildNetwork(vectorSize, labels.size(), hyperParameters);
+            try {
+                TokenIdDataSetIterator iterator = new TokenIdDataSetIterator(train, vectorizer, hyperParameters.getBatchSize(),
+                        null, new Random(seed + 31L * repeat + fold));
+                iterator.setMaxLength(hyperParameters.getTruncateReviewsToLength());
+                long start = System.nanoTime();
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    net.fit(iterator);
+                }
+                result.setTrainMillis((System.nanoTime() - start) / 1000000);
+                evaluation = TrainingSupport.evaluate(net, test, vectorizer, hyperParameters.getTruncateReviewsToLength());
+            } finally {
+                ModelHolder.release(net);
+            }
+            result.setAccuracy(evaluation.accuracy());
+            result.setF1(evaluation.f1(EvaluationAveraging.Macro));
+            result.setStatus(COMPLETED);
+            this.evaluation = evaluation;
+            log.info(String.format("第 %d 次重复第 %d 折: 训练集 %d 条, 测试集 %d 条, 准确率 %.4f, 宏平均F1 %.4f, 训练耗时 %dms",
+                    repeat, fold, train.size(), test.size(), result.getAccuracy(), result.getF1(), result.getTrainMillis()));
+        }
+    }
+
+    /**
+     * 用法: CrossValidation 语料路径 词向量路径 [折数或测试集比例] [重复次数] [并发数] [epoch数]
+     * <p>
+     * 第三个参数是整数时做k折交叉验证，是小数时做重复留出验证
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("用法: CrossValidation 语料路径 词向量路径 [折数或测试集比例] [重复次数] [并发数] [epoch数]");
+            return;
+        }
+        String folds = args.length > 2 ? args[2] : "5";
+        int repeats = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int parallel = args.length > 4 ? Integer.parseInt(args[4]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        int epochs = args.length > 5 ? Integer.parseInt(args[5]) : 3;
+
+        WordVectors wordVectors = CnnTextClassifier.loadWordVectors(args[1]);
+        CrossValidation validation = new CrossValidation(args[0], wordVectors);
+        validation.setParallelFolds(parallel);
+        validation.setEpochs(epochs);
+        CrossValidationResult result = folds.contains(".")
+                ? validation.repeatedHoldout(Float.parseFloat(folds), repeats)
+                : validation.kFold(Integer.parseInt(folds), repeats);
+
+        System.out.println(String.format("%-6s %-6s %-8s %-8s %-9s %-9s %-9s %s", "重复", "折", "训练集", "测试集", "准确率", "宏F1", "训练ms", "状态"));
+        for (CrossValidationResult.FoldResult fold : result.getFolds()) {
+            System.out.println(String.format("%-6d %-6d %-8d %-8d %-9.4f %-9.4f %-9d %s", fold.getRepeat(), fold.getFold(),
+                    fold.getTrainSize(), fold.getTestSize(), fold.getAccuracy(), fold.getF1(), fold.getTrainMillis(), fold.getStatus()));
+        }
+        System.out.println(String.format("准确率 %.4f ± %.4f, 宏平均F1 %.4f ± %.4f",
+                result.getMeanAccuracy(), result.getStdAccuracy(), result.getMeanF1(), result.getStdF1()));
+        System.out.println(String.format("%-12s %-9s %-9s %-9s %s", "类别", "精确率", "召回率", "F1", "句子数"));
+        for (int i = 0; i < result.getLabels().size(); i++) {
+            System.out.println(String.format("%-12s %-9.4f %-9.4f %-9.4f %d", result.getLabels().get(i),
+                    result.getPrecision()[i], result.getRecall()[i], result.getF1()[i], result.getSupport()[i]));
+        }
+    }
+}
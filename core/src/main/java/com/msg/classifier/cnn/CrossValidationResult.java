@@ -0,0 +1,42 @@
+package com.msg.classifier.cnn;
+
+import lombok.Data;
+import org.deeplearning4j.eval.Evaluation;
+
+import java.util.List;
+
+/**
+ * 交叉验证的汇总结果
+ * <p>
+ * 准确率和宏平均F1是各折的平均值和标准差；各类别的指标由所有折的混淆矩阵合并后计算，每个句子恰好被评估一次(k折)
+ */
+@Data
+public class CrossValidationResult {
+    private HyperParameters parameters;
+    private List<FoldResult> folds;
+    private double meanAccuracy;
+    private double stdAccuracy;
+    private double meanF1;                  //各折宏平均F1的平均值
+    private double stdF1;
+    private List<String> labels;
+    private double[] precision;             //各类别的指标，顺序与labels一致
+    private double[] recall;
+    private double[] f1;
+    private int[] support;                  //各类别被评估的句子数
+    private Evaluation evaluation;          //所有折合并后的评估，可以用stats()查看混淆矩阵
+
+    /**
+     * 一折的结果
+     */
+    @Data
+    public static class FoldResult {
+        private int repeat;                 //第几次重复
+        private int fold;                   //第几折，重复留出时为0
+        private int trainSize;
+        private int testSize;
+        private double accuracy;
+        private double f1;                  //宏平均F1
+        private long trainMillis;           //训练耗时，不含评估
+        private String status;              //COMPLETED或FAILED
+    }
+}
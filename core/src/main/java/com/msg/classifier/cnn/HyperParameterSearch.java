@@ -0,0 +1,500 @@
+package com.msg.classifier.cnn;
+
+import com.msg.classifier.TextClassifier;
+import com.msg.text.TokenizedCorpus;
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * CnnTextClassifier的超参数搜索，在一台机器上并发运行多个试验
+ * <p>
+ * 1) 语料只读一遍，分词并去掉词向量中不存在的词，结果和标签在所有试验间共享；
+ * 每个minibatch训练前才从同一个只读的WordVectors拷贝出张量，内存占用不随试验数增长
+ * 2) 策略: GRID遍历搜索空间的所有组合；RANDOM随机抽取trials个不同的组合；
+ * SUCCESSIVE_HALVING先让随机抽取的组合各训练1个epoch，按测试集准确率保留前1/eta，保留下来的训练到eta倍的epoch，直到maxEpochs
+ * 3) GRID和RANDOM按中位数剪枝：一个epoch结束后，准确率低于其他试验同一epoch准确率的中位数时提前停止
+ * 4) 每个试验的模型(不含优化器状态)保存到输出目录，全部试验结束后再逐个加载、串行测量单条预测延迟，不受并发训练的干扰；
+ * 结果按准确率排序写到输出目录的report.tsv，不同搜索的报告可以直接对比
+ * <p>
+ * 并发的试验共用CPU，ND4J的每次计算本身也是多线程的，建议把OMP_NUM_THREADS设为核数除以parallelTrials
+ */
+@Slf4j
+public class HyperParameterSearch {
+    public static final String COMPLETED = TrainingSupport.COMPLETED;
+    public static final String PRUNED = TrainingSupport.PRUNED;
+    public static final String FAILED = TrainingSupport.FAILED;
+
+    private static final int LATENCY_WARM_UP = 10;
+
+    public enum Strategy {
+        GRID, RANDOM, SUCCESSIVE_HALVING
+    }
+
+    private final SentenceVectorizer vectorizer;
+    private final int vectorSize;
+    private final List<String> labels;
+    private final TokenizedCorpus trainCorpus;     //转换成词向量下标的训练集，所有试验共用
+    private final TokenizedCorpus testCorpus;
+
+    private int parallelTrials = 2;         //同时运行的试验数
+    private int maxEpochs = 9;              //每个试验最多训练的epoch数
+    private int eta = 3;                    //逐次减半时每轮保留1/eta，下一轮的epoch数乘以eta
+    private int minPruneEpochs = 1;         //中位数剪枝至少训练多少个epoch后才开始
+    private int latencySamples = 200;       //测量预测延迟的句子数
+    private long seed = 12345;
+
+    /**
+     * @param textPath    "分好词的文本 __label__ 标签"格式的语料，按TrainTestSplit拆分成训练集和测试集
+     * @param wordVectors 所有试验共用的词向量，只读
+     * @param testPercent 测试集比例
+     */
+    public HyperParameterSearch(String textPath, WordVectors wordVectors, float testPercent) {
+        this.vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+        //不在这里截断，各个试验按自己的句子长度上限截断
+        this.vectorizer = new SentenceVectorizer(wordVectors, new DefaultTokenizerFactory(), Integer.MAX_VALUE, vectorSize);
+
+        long start = System.currentTimeMillis();
+        TokenizedCorpus corpus = TokenizedCorpus.read(FileUtil.readFileToArray(textPath), TextClassifier.LABEL_SPLIT, vectorizer::encode);
+        TokenizedCorpus[] split = TrainTestSplit.split(corpus, testPercent, new Random(seed));
+        this.labels = corpus.getLabels();
+        this.trainCorpus = split[0];
+        this.testCorpus = split[1];
+        log.info("超参数搜索数据: 训练集 " + trainCorpus.size() + " 条, 测试集 " + testCorpus.size() + " 条, 类别 " + labels
+                + ", 分词耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    public void setParallelTrials(int parallelTrials) {
+        this.parallelTrials = Math.max(1, parallelTrials);
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = Math.max(1, maxEpochs);
+    }
+
+    public void setEta(int eta) {
+        this.eta = Math.max(2, eta);
+    }
+
+    public void setMinPruneEpochs(int minPruneEpochs) {
+        this.minPruneEpochs = minPruneEpochs;
+    }
+
+    public void setLatencySamples(int latencySamples) {
+        this.latencySamples = latencySamples;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * 运行搜索
+     *
+     * @param strategy  搜索策略
+     * @param space     搜索空间
+     * @param trials    RANDOM和SUCCESSIVE_HALVING抽取的组合数，GRID忽略
+     * @param outputDir 保存各个试验的模型和report.tsv的目录
+     * @return 按准确率从高到低排序的结果
+     */
+    public List<TrialResult> run(Strategy strategy, SearchSpace space, int trials, String outputDir) {
+        List<HyperParameters> candidates = Strategy.GRID == strategy ? space.grid() : space.sample(trials, new Random(seed));
+        File dir = FileUtil.createDir(outputDir);
+        List<Trial> all = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            all.add(new Trial(i, candidates.get(i), new File(dir, "trial-" + i + ".zip")));
+        }
+        log.info("开始超参数搜索: " + strategy + ", " + all.size() + " 个试验, 并发 " + parallelTrials + ", 最多 " + maxEpochs + " 个epoch");
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = TrainingSupport.newDaemonPool(parallelTrials, "hyper-search-");
+        try {
+            if (Strategy.SUCCESSIVE_HALVING == strategy) {
+                successiveHalving(all, pool);
+            } else {
+                medianPruned(all, pool);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        log.info("训练完成，耗时 " + (System.currentTimeMillis() - start) + "ms，开始测量预测延迟");
+
+        List<TrialResult> results = new ArrayList<>(all.size());
+        for (Trial trial : all) {
+            if (null != trial.modelFile) {
+                measureLatency(trial);
+            }
+            results.add(trial.toResult());
+        }
+        results.sort(Comparator.comparing(TrialResult::getStatus, Comparator.comparing(FAILED::equals))
+                .thenComparing(Comparator.comparingDouble(TrialResult::getAccuracy).reversed()));
+        writeReport(results, new File(dir, "report.tsv"));
+        return results;
+    }
+
+    private interface TrialTask {
+        void run(Trial trial);
+    }
+
+    /**
+     * 在线程池上对每个试验执行task并等待全部完成，出错的试验标记为FAILED，不影响其他试验
+     */
+    private void runAll(List<Trial> trials, ExecutorService pool, TrialTask task) {
+        List<Future<?>> futures = new ArrayList<>(trials.size());
+        for (Trial trial : trials) {
+            futures.add(pool.submit(() -> {
+                try {
+                    task.run(trial);
+                } catch (RuntimeException e) {
+                    log.error("试验 " + trial.id + " 出错: " + trial.parameters.describe(), e);
+                    trial.fail();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("超参数搜索被中断", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("超参数搜索出错", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * 每个试验训练到maxEpochs，每个epoch结束后和其他试验同一epoch的准确率比较，低于中位数的提前停止
+     */
+    private void medianPruned(List<Trial> trials, ExecutorService pool) {
+        Map<Integer, List<Double>> history = new HashMap<>();
+        runAll(trials, pool, trial -> {
+            while (trial.epochs < maxEpochs) {
+                trial.trainEpoch();
+                if (trial.epochs < maxEpochs && shouldPrune(history, trial)) {
+                    trial.finish(PRUNED);
+                    return;
+                }
+            }
+            trial.finish(COMPLETED);
+        });
+    }
+
+    private boolean shouldPrune(Map<Integer, List<Double>> history, Trial trial) {
+        synchronized (history) {
+            List<Double> others = history.computeIfAbsent(trial.epochs, k -> new ArrayList<>());
+            boolean prune = trial.epochs >= minPruneEpochs && others.size() >= 2 && trial.accuracy < median(others);
+            others.add(trial.accuracy);
+            return prune;
+        }
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        return n % 2 == 1 ? sorted.get(n / 2) : (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2;
+    }
+
+    /**
+     * 逐次减半：每轮所有保留的试验训练到同样的epoch数，按准确率保留前1/eta，epoch数乘以eta，直到maxEpochs
+     */
+    private void successiveHalving(List<Trial> trials, ExecutorService pool) {
+        List<Trial> survivors = new ArrayList<>(trials);
+        int budget = 1;
+        while (true) {
+            int epochs = Math.min(budget, maxEpochs);
+            runAll(survivors, pool, trial -> {
+                while (trial.epochs < epochs) {
+                    trial.trainEpoch();
+                }
+            });
+            survivors.removeIf(trial -> FAILED.equals(trial.status));
+            if (epochs >= maxEpochs || survivors.isEmpty()) {
+                break;
+            }
+            survivors.sort(Comparator.comparingDouble((Trial trial) -> trial.accuracy).reversed());
+            int keep = Math.max(1, survivors.size() / eta);
+            for (Trial trial : survivors.subList(keep, survivors.size())) {
+                trial.finish(PRUNED);
+            }
+            survivors = new ArrayList<>(survivors.subList(0, keep));
+            budget = epochs * eta;
+            log.info("逐次减半: " + epochs + " 个epoch后保留 " + keep + " 个试验，继续训练到 " + Math.min(budget, maxEpochs) + " 个epoch");
+        }
+        for (Trial trial : survivors) {
+            trial.finish(COMPLETED);
+        }
+    }
+
+    /**
+     * 加载试验保存的模型，逐条预测测试集的句子，记录向量化加前向计算的耗时
+     */
+    private void measureLatency(Trial trial) {
+        int n = Math.min(latencySamples, testCorpus.size());
+        if (n == 0) {
+            return;
+        }
+        ComputationGraph net;
+        try {
+            net = ModelSerializer.restoreComputationGraph(trial.modelFile, false);
+        } catch (IOException e) {
+            log.error("加载试验模型出错:" + trial.modelFile, e);
+            return;
+        }
+        try {
+            int maxLength = trial.parameters.getTruncateReviewsToLength();
+            long[] micros = new long[n];
+            for (int i = -Math.min(LATENCY_WARM_UP, n); i < n; i++) {
+                int[] sentence = {Math.floorMod(i, n)};
+                long start = System.nanoTime();
+                DataSet dataSet = vectorizer.vectorize(testCorpus, sentence, 0, 1, Math.max(1, Math.min(testCorpus.length(sentence[0]), maxLength)));
+                net.output(false, new INDArray[]{dataSet.getFeatures()}, new INDArray[]{dataSet.getFeaturesMaskArray()});
+                if (i >= 0) {
+                    micros[i] = (System.nanoTime() - start) / 1000;
+                }
+            }
+            Arrays.sort(micros);
+            trial.latencyP50 = percentile(micros, 50);
+            trial.latencyP99 = percentile(micros, 99);
+        } finally {
+            ModelHolder.release(net);
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * 以制表符分隔写出报告，每行一个试验
+     */
+    private void writeReport(List<TrialResult> results, File file) {
+        List<String> lines = new ArrayList<>(results.size() + 1);
+        lines.add("rank\ttrial\tstatus\tepochs\taccuracy\tf1\ttrain_ms\tlatency_p50_us\tlatency_p99_us"
+                + "\tbatch_size\tfeature_maps\tmax_length\tpooling\tlearning_rate\tmodel");
+        int rank = 0;
+        for (TrialResult result : results) {
+            HyperParameters parameters = result.getParameters();
+            lines.add(String.format(Locale.ROOT, "%d\t%d\t%s\t%d\t%.4f\t%.4f\t%d\t%d\t%d\t%d\t%d\t%d\t%s\t%s\t%s",
+                    ++rank, result.getTrial(), result.getStatus(), result.getEpochs(), result.getAccuracy(), result.getF1(),
+                    result.getTrainMillis(), result.getLatencyP50Micros(), result.getLatencyP99Micros(),
+                    parameters.getBatchSize(), parameters.getCnnLayerFeatureMaps(), parameters.getTruncateReviewsToLength(),
+                    parameters.getGlobalPoolingType(), parameters.getLearningRate(),
+                    null == result.getModelPath() ? "" : result.getModelPath()));
+        }
+        FileUtil.writeArrayToFile(lines, file.getPath());
+        log.info("超参数搜索报告写入到:" + file);
+    }
+
+    /**
+     * 一个试验，持有训练中的网络，结束后保存模型并立即释放网络的堆外内存
+     */
+    private final class Trial {
+        private final int id;
+        private final HyperParameters parameters;
+        private final File output;
+        private final Random rng;
+
+        private ComputationGraph net;
+        private TokenIdDataSetIterator trainIterator;
+        private int epochs;
+        private double accuracy = Double.NaN;
+        private double f1 = Double.NaN;
+        private long trainNanos;
+        private long latencyP50 = -1;
+        private long latencyP99 = -1;
+        private File modelFile;
+        private volatile String status = "RUNNING";
+
+        private Trial(int id, HyperParameters parameters, File output) {
+            this.id = id;
+            this.parameters = parameters;
+            this.output = output;
+            this.rng = new Random(seed + id);
+        }
+
+        /**
+         * 打乱训练集训练一个epoch，然后在测试集上评估
+         */
+        private void trainEpoch() {
+            if (null == net) {
+                net = CnnTextClassifier.buildNetwork(vectorSize, labels.size(), parameters);
+                trainIterator = new TokenIdDataSetIterator(trainCorpus, vectorizer, parameters.getBatchSize(), null, rng);
+                trainIterator.setMaxLength(parameters.getTruncateReviewsToLength());
+            }
+            long start = System.nanoTime();
+            trainIterator.reset();
+            net.fit(trainIterator);
+            trainNanos += System.nanoTime() - start;
+            epochs++;
+            evaluate();
+            log.info(String.format("试验 %d epoch %d: 准确率 %.4f, F1 %.4f, 训练耗时 %dms, %s",
+                    id, epochs, accuracy, f1, trainNanos / 1000000, parameters.describe()));
+        }
+
+        private void evaluate() {
+            Evaluation evaluation = TrainingSupport.evaluate(net, testCorpus, vectorizer, parameters.getTruncateReviewsToLength());
+            accuracy = evaluation.accuracy();
+            f1 = evaluation.f1();
+        }
+
+        /**
+         * 保存模型并释放网络
+         */
+        private void finish(String status) {
+            this.status = status;
+            if (null == net) {
+                return;
+            }
+            try {
+                ModelSerializer.writeModel(net, output, false);
+                modelFile = output;
+            } catch (IOException e) {
+                log.error("保存试验模型出错:" + output, e);
+            }
+            ModelHolder.release(net);
+            net = null;
+            trainIterator = null;
+        }
+
+        private void fail() {
+            status = FAILED;
+            if (null != net) {
+                ModelHolder.release(net);
+                net = null;
+                trainIterator = null;
+            }
+        }
+
+        private TrialResult toResult() {
+            TrialResult result = new TrialResult();
+            result.setTrial(id);
+            result.setParameters(parameters);
+            result.setStatus(status);
+            result.setEpochs(epochs);
+            result.setAccuracy(accuracy);
+            result.setF1(f1);
+            result.setTrainMillis(trainNanos / 1000000);
+            result.setLatencyP50Micros(latencyP50);
+            result.setLatencyP99Micros(latencyP99);
+            result.setModelPath(null == modelFile ? null : modelFile.getPath());
+            return result;
+        }
+    }
+
+    /**
+     * 搜索空间，每个超参数一组候选值，没有设置的超参数只有默认值
+     */
+    public static class SearchSpace {
+        private int[] batchSizes = {32};
+        private int[] featureMaps = {100};
+        private int[] sentenceLengths = {256};
+        private PoolingType[] poolingTypes = {PoolingType.MAX};
+        private double[] learningRates = {0.01};
+
+        public SearchSpace batchSizes(int... values) {
+            this.batchSizes = values.clone();
+            return this;
+        }
+
+        public SearchSpace featureMaps(int... values) {
+            this.featureMaps = values.clone();
+            return this;
+        }
+
+        public SearchSpace sentenceLengths(int... values) {
+            this.sentenceLengths = values.clone();
+            return this;
+        }
+
+        public SearchSpace poolingTypes(PoolingType... values) {
+            this.poolingTypes = values.clone();
+            return this;
+        }
+
+        public SearchSpace learningRates(double... values) {
+            this.learningRates = values.clone();
+            return this;
+        }
+
+        /**
+         * @return 所有组合
+         */
+        public List<HyperParameters> grid() {
+            List<HyperParameters> grid = new ArrayList<>();
+            for (int batchSize : batchSizes) {
+                for (int maps : featureMaps) {
+                    for (int length : sentenceLengths) {
+                        for (PoolingType pooling : poolingTypes) {
+                            for (double learningRate : learningRates) {
+                                grid.add(new HyperParameters(batchSize, maps, length, pooling, learningRate));
+                            }
+                        }
+                    }
+                }
+            }
+            return grid;
+        }
+
+        /**
+         * @return 随机抽取的n个不同的组合，n不小于组合总数时返回所有组合
+         */
+        public List<HyperParameters> sample(int n, Random rng) {
+            List<HyperParameters> grid = grid();
+            Collections.shuffle(grid, rng);
+            return n >= grid.size() ? grid : new ArrayList<>(grid.subList(0, n));
+        }
+    }
+
+    /**
+     * 用法: HyperParameterSearch 语料路径 词向量路径 输出目录 [GRID|RANDOM|SUCCESSIVE_HALVING] [试验数] [并发数] [最多epoch数]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("用法: HyperParameterSearch 语料路径 词向量路径 输出目录 [GRID|RANDOM|SUCCESSIVE_HALVING] [试验数] [并发数] [最多epoch数]");
+            return;
+        }
+        Strategy strategy = args.length > 3 ? Strategy.valueOf(args[3]) : Strategy.SUCCESSIVE_HALVING;
+        int trials = args.length > 4 ? Integer.parseInt(args[4]) : 27;
+        int parallel = args.length > 5 ? Integer.parseInt(args[5]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        int epochs = args.length > 6 ? Integer.parseInt(args[6]) : 9;
+
+        //词向量只加载一次，所有试验共用
+        WordVectors wordVectors = CnnTextClassifier.loadWordVectors(args[1]);
+        HyperParameterSearch search = new HyperParameterSearch(args[0], wordVectors, 0.2f);
+        search.setParallelTrials(parallel);
+        search.setMaxEpochs(epochs);
+        SearchSpace space = new SearchSpace()
+                .batchSizes(16, 32, 64)
+                .featureMaps(50, 100, 200)
+                .sentenceLengths(64, 128, 256)
+                .poolingTypes(PoolingType.MAX, PoolingType.AVG)
+                .learningRates(0.001, 0.003, 0.01);
+        List<TrialResult> results = search.run(strategy, space, trials, args[2]);
+
+        System.out.println(String.format("%-4s %-10s %-7s %-9s %-9s %-12s %-12s %s", "排名", "状态", "epoch", "准确率", "训练ms", "延迟p50(us)", "延迟p99(us)", "超参数"));
+        for (int i = 0; i < results.size(); i++) {
+            TrialResult result = results.get(i);
+            System.out.println(String.format("%-4d %-10s %-7d %-9.4f %-9d %-12d %-12d %s", i + 1, result.getStatus(), result.getEpochs(),
+                    result.getAccuracy(), result.getTrainMillis(), result.getLatencyP50Micros(), result.getLatencyP99Micros(),
+                    result.getParameters().describe()));
+        }
+    }
+}
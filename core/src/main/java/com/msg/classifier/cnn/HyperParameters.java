@@ -0,0 +1,37 @@
+package com.msg.classifier.cnn;
+
+import lombok.Data;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+
+/**
+ * CnnTextClassifier可调的超参数，默认值与CnnTextClassifier一致
+ */
+@Data
+public class HyperParameters {
+    private int batchSize = 32;                                 //批大小
+    private int cnnLayerFeatureMaps = 100;                      //每种大小卷积核的数量
+    private int truncateReviewsToLength = 256;                  //句子长度上限
+    private PoolingType globalPoolingType = PoolingType.MAX;    //全局池化方式
+    private double learningRate = 0.01;                         //Adam的学习率
+
+    public HyperParameters() {
+
+    }
+
+    public HyperParameters(int batchSize, int cnnLayerFeatureMaps, int truncateReviewsToLength,
+                           PoolingType globalPoolingType, double learningRate) {
+        this.batchSize = batchSize;
+        this.cnnLayerFeatureMaps = cnnLayerFeatureMaps;
+        this.truncateReviewsToLength = truncateReviewsToLength;
+        this.globalPoolingType = globalPoolingType;
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * @return 简短的描述，用于日志和报告
+     */
+    public String describe() {
+        return "batch=" + batchSize + " maps=" + cnnLayerFeatureMaps + " length=" + truncateReviewsToLength
+                + " pool=" + globalPoolingType + " lr=" + learningRate;
+    }
+}
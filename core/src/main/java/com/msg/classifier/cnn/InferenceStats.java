@@ -0,0 +1,19 @@
+package com.msg.classifier.cnn;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 推理引擎的运行统计快照
+ */
+@Data
+@AllArgsConstructor
+public class InferenceStats {
+    private int queueDepth;                 //当前排队的请求数
+    private long requests;                  //已处理的请求数
+    private long batches;                   //已执行的批次数
+    private long errors;                    //失败或被拒绝的请求数
+    private double averageBatchSize;        //平均批次大小
+    private double batchFillRatio;          //平均批次大小 / maxBatchSize
+    private long[] batchSizeHistogram;      //下标为批次大小，值为出现次数
+}
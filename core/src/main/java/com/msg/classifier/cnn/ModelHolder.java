@@ -0,0 +1,333 @@
+package com.msg.classifier.cnn;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 持有当前使用的模型，支持不停机地替换成新模型
+ * <p>
+ * 1) 预测时通过acquire拿到当前模型的租约，用完后close，租约期间模型不会被释放
+ * 2) reload在后台线程加载并预热新模型，然后原子地替换，替换前已经拿到旧模型租约的请求继续在旧模型上完成
+ * 3) 旧模型的最后一个租约结束时立即释放参数的堆外内存，不等待GC
+ * 4) watch定期检查模型文件的修改时间和大小，文件变化并且稳定后自动reload
+ * <p>
+ * 每个模型有一个递增的版本号，用于监控当前生效的是哪个模型；类别名随模型一起保存在模型文件里，与模型一起替换
+ */
+@Slf4j
+public class ModelHolder implements AutoCloseable {
+    private static final boolean CPU_BACKEND = Nd4j.getBackend().getClass().getSimpleName().startsWith("Cpu");
+
+    static final String LABELS_KEY = "labels";
+
+    private volatile String modelPath;
+    private final Consumer<ComputationGraph> warmUp;
+    private final AtomicReference<Entry> current = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final ExecutorService loader;
+    private ScheduledExecutorService watcher;
+    private volatile boolean closed;
+
+    /**
+     * @param model     已经加载并预热好的模型
+     * @param labels    模型的类别，顺序与模型输出一致
+     * @param modelPath 模型文件路径，reload和watch从这里加载
+     * @param warmUp    新模型替换前的预热
+     */
+    public ModelHolder(ComputationGraph model, List<String> labels, String modelPath, Consumer<ComputationGraph> warmUp) {
+        this.modelPath = modelPath;
+        this.warmUp = warmUp;
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "model-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        current.set(new Entry(model, labels, versions.incrementAndGet()));
+    }
+
+    /**
+     * 当前模型的租约，调用方必须在用完后close，建议用try-with-resources
+     *
+     * @throws IllegalStateException ModelHolder已经close
+     */
+    public Lease acquire() {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("ModelHolder已经关闭");
+            }
+            Entry entry = current.get();
+            int references = entry.references.get();
+            //引用数为0说明已经被替换并释放，重新读取current；close之后current不再被替换，由上面的closed检查退出
+            if (references > 0 && entry.references.compareAndSet(references, references + 1)) {
+                return new Lease(entry);
+            }
+        }
+    }
+
+    /**
+     * @return 当前模型，不持有租约，模型被替换后可能随时释放，只用于读取配置等不涉及参数的操作
+     */
+    public ComputationGraph current() {
+        return current.get().model;
+    }
+
+    /**
+     * @return 当前模型的版本号，从1开始，每次替换加一
+     */
+    public long getVersion() {
+        return current.get().version;
+    }
+
+    /**
+     * @return 当前模型生效的时间戳(毫秒)
+     */
+    public long getLoadedAt() {
+        return current.get().loadedAt;
+    }
+
+    /**
+     * @return 当前模型的类别
+     */
+    public List<String> getLabels() {
+        return current.get().labels;
+    }
+
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    /**
+     * 修改reload和watch加载的模型文件路径，例如通过其他路径加载了模型之后
+     */
+    public void setModelPath(String modelPath) {
+        this.modelPath = modelPath;
+    }
+
+    /**
+     * 在后台线程从modelPath加载(不加载优化器状态)并预热新模型，然后替换当前模型
+     * <p>
+     * 加载或预热失败时继续使用当前模型，返回的future异常结束；模型文件里没有类别名时沿用当前模型的类别
+     *
+     * @return 新模型的版本号
+     */
+    public CompletableFuture<Long> reload() {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        loader.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                File file = new File(modelPath);
+                ComputationGraph model = ModelSerializer.restoreComputationGraph(file, false);
+                List<String> labels = readLabels(file);
+                warmUp.accept(model);
+                long version = swap(model, null == labels ? getLabels() : labels);
+                log.info("模型已替换为版本 " + version + "，加载和预热耗时:" + (System.currentTimeMillis() - start) + "ms");
+                future.complete(version);
+            } catch (Exception e) {
+                log.error("加载新模型出错，继续使用版本 " + getVersion() + ":" + modelPath, e);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 用已经预热好的模型替换当前模型，旧模型在最后一个租约结束时释放
+     *
+     * @param model  新模型
+     * @param labels 新模型的类别
+     * @return 新模型的版本号
+     * @throws IllegalStateException ModelHolder已经close
+     */
+    public synchronized long swap(ComputationGraph model, List<String> labels) {
+        if (closed) {
+            throw new IllegalStateException("ModelHolder已经关闭");
+        }
+        Entry entry = new Entry(model, labels, versions.incrementAndGet());
+        Entry old = current.getAndSet(entry);
+        old.release();
+        return entry.version;
+    }
+
+    /**
+     * 每隔intervalMillis检查一次模型文件，修改时间或大小变化后，等到下一次检查时仍然不变才reload，避免读到写了一半的文件
+     * <p>
+     * 每次检查都读取当前的modelPath，setModelPath之后改为监视新文件，以新文件当时的状态为已加载的状态
+     */
+    public synchronized void watch(long intervalMillis) {
+        if (null != watcher) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "model-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        File[] watched = {new File(modelPath)};
+        long[] loaded = {watched[0].lastModified(), watched[0].length()};
+        long[] pending = {-1, -1};
+        watcher.scheduleWithFixedDelay(() -> {
+            File file = new File(modelPath);
+            if (!file.equals(watched[0])) {
+                watched[0] = file;
+                loaded[0] = file.lastModified();
+                loaded[1] = file.length();
+                pending[0] = -1;
+                return;
+            }
+            long modified = file.lastModified();
+            long length = file.length();
+            if (modified == 0 || (modified == loaded[0] && length == loaded[1])) {
+                pending[0] = -1;
+                return;
+            }
+            if (modified != pending[0] || length != pending[1]) {
+                pending[0] = modified;
+                pending[1] = length;
+                return;
+            }
+            log.info("检测到模型文件变化，重新加载:" + file);
+            loaded[0] = modified;
+            loaded[1] = length;
+            pending[0] = -1;
+            try {
+                reload().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                //已经在reload里记录
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止监视和后台加载，当前模型在最后一个租约结束时释放；之后acquire和swap抛出IllegalStateException
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (null != watcher) {
+            watcher.shutdownNow();
+        }
+        loader.shutdownNow();
+        current.get().release();
+    }
+
+    /**
+     * 把类别名写进已经保存的模型文件
+     */
+    static void writeLabels(File file, List<String> labels) {
+        ModelSerializer.addObjectToFile(file, LABELS_KEY, new ArrayList<>(labels));
+    }
+
+    /**
+     * @return 模型文件里保存的类别名，旧版本保存的模型文件里没有时返回null
+     */
+    static List<String> readLabels(File file) {
+        if (!ModelSerializer.listObjectsInFile(file).contains(LABELS_KEY)) {
+            return null;
+        }
+        List<String> labels = ModelSerializer.getObjectFromFile(file, LABELS_KEY);
+        return Collections.unmodifiableList(new ArrayList<>(labels));
+    }
+
+    /**
+     * 立即释放模型参数和优化器状态的堆外内存，之后模型不能再使用
+     */
+    static void release(ComputationGraph model) {
+        //先取优化器状态：有Solver但还没有updater时getUpdater会按当前参数新建一个，参数释放之后再取会读到已释放的内存
+        ComputationGraphUpdater updater = model.getUpdater(false);
+        INDArray updaterState = null == updater ? null : updater.getStateViewArray();
+        model.clear();
+        free(model.params());
+        free(updaterState);
+    }
+
+    /**
+     * CPU后端的DataBuffer.destroy是空操作，内存要等GC回收Java对象后才由JavaCPP释放，这里直接释放底层的Pointer；
+     * 其他后端由destroy释放
+     */
+    private static void free(INDArray array) {
+        if (null == array) {
+            return;
+        }
+        DataBuffer data = array.data();
+        DataBuffer owner = null != data.originalDataBuffer() ? data.originalDataBuffer() : data;
+        owner.destroy();
+        if (CPU_BACKEND && null != owner.pointer()) {
+            owner.pointer().deallocate();
+        }
+    }
+
+    /**
+     * 模型、类别和它的引用计数，ModelHolder本身持有一个引用，替换时释放
+     */
+    private static final class Entry {
+        private final ComputationGraph model;
+        private final List<String> labels;
+        private final long version;
+        private final long loadedAt = System.currentTimeMillis();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Entry(ComputationGraph model, List<String> labels, long version) {
+            this.model = model;
+            this.labels = labels;
+            this.version = version;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                ModelHolder.release(model);
+                log.info("已释放版本 " + version + " 的模型");
+            }
+        }
+    }
+
+    /**
+     * 模型的租约，close之前模型不会被释放
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public ComputationGraph model() {
+            return entry.model;
+        }
+
+        public List<String> labels() {
+            return entry.labels;
+        }
+
+        public long version() {
+            return entry.version;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+    }
+}
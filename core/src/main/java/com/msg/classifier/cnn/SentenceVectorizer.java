@@ -0,0 +1,269 @@
+package com.msg.classifier.cnn;
+
+import com.msg.embedding.WordVectorTable;
+import com.msg.text.IdTokenizer;
+import com.msg.text.IntArrayBuilder;
+import com.msg.text.TokenizedCorpus;
+import com.msg.text.Vocabulary;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizer.Tokenizer;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * 把一批句子一次性转换成CNN2D格式的输入张量[n, 1, 句子长度, 词向量维度]及掩码[n, 1, 句子长度, 1]，
+ * 分词方式和未知词的处理(直接去掉)与CnnSentenceDataSetIterator保持一致，不产生任何控制台输出
+ * <p>
+ * 张量长度按这一批中最长的句子确定，短句子通过掩码告诉GlobalPoolingLayer哪些位置是填充的
+ * <p>
+ * 句子也可以先用encode转换成词在词向量表中的下标，再用vectorizeIds按下标直接拷贝词向量；
+ * 见过的词和它的下标缓存在一个不加锁的词表里，重复出现的词不再截取字符串、不再查词向量表
+ */
+public class SentenceVectorizer {
+    private final WordVectors wordVectors;
+    private final WordVectorTable vectorTable;        //词向量支持直接拷贝时不为null
+    private final TokenizerFactory tokenizerFactory;
+    private final int maxSentenceLength;
+    private final int vectorSize;
+    private final boolean directTokenize;             //分词器是不带预处理的DefaultTokenizerFactory，可以直接按空白切分
+
+    private static final int UNSET = Integer.MIN_VALUE;
+    private static final int MAX_CACHED_WORDS = 1 << 20;
+    private final Vocabulary seen = new Vocabulary(4096);      //见过的词，ID对应rows的下标
+    private volatile int[] rows = newRows(4096);                //seen中的词在词向量表中的下标，-1表示未知词
+    private final AtomicReferenceArray<float[]> vectors;       //词向量不支持直接拷贝时，按下标缓存用到的词向量
+
+    public SentenceVectorizer(WordVectors wordVectors, TokenizerFactory tokenizerFactory, int maxSentenceLength, int vectorSize) {
+        this.wordVectors = wordVectors;
+        this.vectorTable = wordVectors instanceof WordVectorTable ? (WordVectorTable) wordVectors : null;
+        this.tokenizerFactory = tokenizerFactory;
+        this.maxSentenceLength = maxSentenceLength;
+        this.vectorSize = vectorSize;
+        this.directTokenize = tokenizerFactory instanceof DefaultTokenizerFactory && null == tokenizerFactory.getTokenPreProcessor();
+        this.vectors = null == vectorTable ? new AtomicReferenceArray<>(wordVectors.vocab().numWords()) : null;
+    }
+
+    public int vectorSize() {
+        return vectorSize;
+    }
+
+    private static int[] newRows(int capacity) {
+        int[] rows = new int[capacity];
+        Arrays.fill(rows, UNSET);
+        return rows;
+    }
+
+    /**
+     * 分词，去掉词向量中不存在的词，并截断到最大句子长度
+     *
+     * @param sentence 句子
+     * @return 词列表
+     */
+    public List<String> tokenize(String sentence) {
+        Tokenizer tokenizer = tokenizerFactory.create(sentence);
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.hasMoreTokens() && tokens.size() < maxSentenceLength) {
+            String token = tokenizer.nextToken();
+            if (wordVectors.hasWord(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return text[from, to)这个词在词向量表中的下标，不存在时返回-1
+     */
+    public int indexOf(String text, int from, int to) {
+        int local = seen.id(text, from, to);
+        if (local >= 0) {
+            int[] current = rows;
+            //刚加入的词可能还看不到下标，按没见过处理
+            if (local < current.length && current[local] != UNSET) {
+                return current[local];
+            }
+        }
+        String word = text.substring(from, to);
+        int index = wordVectors.hasWord(word) ? wordVectors.indexOf(word) : -1;
+        remember(word, index);
+        return index;
+    }
+
+    /**
+     * 缓存词的下标，先写下标再发布数组，读线程拿到数组时一定能看到下标；缓存满了以后不再加入
+     */
+    private synchronized void remember(String word, int index) {
+        if (seen.size() >= MAX_CACHED_WORDS) {
+            return;
+        }
+        int local = seen.add(word);
+        int[] current = rows;
+        if (local >= current.length) {
+            int[] grown = newRows(Math.max(local + 1, current.length * 2));
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        current[local] = index;
+        rows = current;
+    }
+
+    /**
+     * 把text[from, to)分词后每个已知词在词向量表中的下标交给out，未知词去掉，最多maxSentenceLength个，
+     * 结果与tokenize一致
+     */
+    public void encode(String text, int from, int to, IntConsumer out) {
+        int count = 0;
+        if (!directTokenize) {
+            for (String token : tokenize(text.substring(from, to))) {
+                out.accept(wordVectors.indexOf(token));
+            }
+            return;
+        }
+        int i = from;
+        while (i < to && count < maxSentenceLength) {
+            while (i < to && IdTokenizer.isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < to && !IdTokenizer.isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                int index = indexOf(text, start, i);
+                if (index >= 0) {
+                    out.accept(index);
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 句子中已知词在词向量表中的下标
+     */
+    public int[] encode(String sentence) {
+        IntArrayBuilder ids = new IntArrayBuilder(16);
+        encode(sentence, 0, sentence.length(), ids);
+        return ids.toArray();
+    }
+
+    /**
+     * 向量化一批句子
+     *
+     * @param sentences 句子列表
+     * @return 只有features和featuresMask的DataSet，行的顺序与输入一致
+     */
+    public DataSet vectorize(List<String> sentences) {
+        List<List<String>> tokenized = new ArrayList<>(sentences.size());
+        int length = 1;
+        for (String sentence : sentences) {
+            List<String> tokens = tokenize(sentence);
+            tokenized.add(tokens);
+            length = Math.max(length, tokens.size());
+        }
+        return vectorizeTokens(tokenized, length);
+    }
+
+    /**
+     * 把分好词的句子填充到长度为length的张量里
+     * <p>
+     * 没有任何已知词的句子按一个全零向量处理，避免整行掩码为0导致池化结果无意义
+     */
+    public DataSet vectorizeTokens(List<List<String>> tokenized, int length) {
+        int n = tokenized.size();
+        float[] features = new float[n * length * vectorSize];
+        float[] mask = new float[n * length];
+        for (int i = 0; i < n; i++) {
+            List<String> tokens = tokenized.get(i);
+            int size = Math.min(tokens.size(), length);
+            for (int j = 0; j < size; j++) {
+                int offset = (i * length + j) * vectorSize;
+                if (null != vectorTable) {
+                    vectorTable.copyVector(tokens.get(j), features, offset);
+                } else {
+                    float[] vector = wordVectors.getWordVectorMatrix(tokens.get(j)).toFloatVector();
+                    System.arraycopy(vector, 0, features, offset, vectorSize);
+                }
+            }
+            int maskLength = Math.max(size, 1);
+            for (int j = 0; j < maskLength; j++) {
+                mask[i * length + j] = 1.0f;
+            }
+        }
+        return toDataSet(features, mask, n, length);
+    }
+
+    /**
+     * 把encode得到的下标序列填充到长度为length的张量里，超过length的部分截断
+     */
+    public DataSet vectorizeIds(List<int[]> sentences, int length) {
+        int n = sentences.size();
+        float[] features = new float[n * length * vectorSize];
+        float[] mask = new float[n * length];
+        for (int i = 0; i < n; i++) {
+            int[] ids = sentences.get(i);
+            fillRow(features, mask, i, length, ids, 0, ids.length);
+        }
+        return toDataSet(features, mask, n, length);
+    }
+
+    /**
+     * 直接从语料的ID数组向量化corpus中order[from, to)这些句子，不复制ID
+     */
+    public DataSet vectorize(TokenizedCorpus corpus, int[] order, int from, int to, int length) {
+        int n = to - from;
+        float[] features = new float[n * length * vectorSize];
+        float[] mask = new float[n * length];
+        int[] ids = corpus.ids();
+        for (int i = 0; i < n; i++) {
+            int sentence = order[from + i];
+            fillRow(features, mask, i, length, ids, corpus.offset(sentence), corpus.length(sentence));
+        }
+        return toDataSet(features, mask, n, length);
+    }
+
+    private void fillRow(float[] features, float[] mask, int i, int length, int[] ids, int offset, int count) {
+        int size = Math.min(count, length);
+        for (int j = 0; j < size; j++) {
+            int position = (i * length + j) * vectorSize;
+            if (null != vectorTable) {
+                vectorTable.copyRow(ids[offset + j], features, position);
+            } else {
+                System.arraycopy(vector(ids[offset + j]), 0, features, position, vectorSize);
+            }
+        }
+        int maskLength = Math.max(size, 1);
+        for (int j = 0; j < maskLength; j++) {
+            mask[i * length + j] = 1.0f;
+        }
+    }
+
+    /**
+     * 第一次用到某个词时从词向量里取出来缓存，之后直接按下标拷贝；并发时可能重复取，结果相同
+     * <p>
+     * 缓存只包含语料和预测中出现过的词，最多与词向量表一样大
+     */
+    private float[] vector(int index) {
+        float[] vector = vectors.get(index);
+        if (null == vector) {
+            vector = wordVectors.getWordVectorMatrix(wordVectors.vocab().wordAtIndex(index)).toFloatVector();
+            vectors.set(index, vector);
+        }
+        return vector;
+    }
+
+    private DataSet toDataSet(float[] features, float[] mask, int n, int length) {
+        INDArray featuresArray = Nd4j.create(features, new int[]{n, 1, length, vectorSize});
+        INDArray maskArray = Nd4j.create(mask, new int[]{n, 1, length, 1});
+        return new DataSet(featuresArray, null, maskArray, null);
+    }
+}
@@ -0,0 +1,174 @@
+package com.msg.classifier.cnn;
+
+import com.msg.iterator.BucketingSentenceProvider;
+import com.msg.text.TokenizedCorpus;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * 直接读TokenizedCorpus里的词向量下标生成CNN2D格式minibatch的迭代器，替代每个epoch重新分词的CnnSentenceDataSetIterator
+ * <p>
+ * 与CnnSentenceDataSetIterator一致: 没有已知词的句子跳过，张量长度按这一批中最长的句子确定，类别顺序与语料相同；
+ * 指定了随机数时每次reset打乱句子顺序，开启长度分桶时按BucketingSentenceProvider同样的方式组批
+ */
+public class TokenIdDataSetIterator implements DataSetIterator {
+    private static final long serialVersionUID = 1L;
+
+    private final TokenizedCorpus corpus;
+    private final SentenceVectorizer vectorizer;
+    private final int batchSize;
+    private final int[] lengthBuckets;
+    private final Random rng;
+    private final int[] sentences;          //有已知词的句子
+    private int[] order;
+    private int cursor;
+    private DataSetPreProcessor preProcessor;
+    private int maxLength = Integer.MAX_VALUE;
+
+    /**
+     * @param corpus        用vectorizer.encode转换的语料
+     * @param vectorizer    向量化
+     * @param batchSize     minibatch大小
+     * @param lengthBuckets 各个桶的长度上限，null表示不分桶
+     * @param rng           每次reset打乱顺序用的随机数，null表示不打乱
+     */
+    public TokenIdDataSetIterator(TokenizedCorpus corpus, SentenceVectorizer vectorizer, int batchSize, int[] lengthBuckets, Random rng) {
+        this.corpus = corpus;
+        this.vectorizer = vectorizer;
+        this.batchSize = batchSize;
+        this.lengthBuckets = lengthBuckets;
+        this.rng = rng;
+        int n = 0;
+        int[] nonEmpty = new int[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            if (corpus.length(i) > 0) {
+                nonEmpty[n++] = i;
+            }
+        }
+        this.sentences = Arrays.copyOf(nonEmpty, n);
+        reset();
+    }
+
+    /**
+     * @param maxLength 句子长度上限，超过的部分截断；默认只按vectorizer.encode时的上限
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = Math.max(1, maxLength);
+    }
+
+    @Override
+    public void reset() {
+        int[] shuffled = sentences.clone();
+        if (null != rng) {
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = rng.nextInt(i + 1);
+                int tmp = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = tmp;
+            }
+        }
+        order = null == lengthBuckets ? shuffled : bucketed(shuffled);
+        cursor = 0;
+    }
+
+    /**
+     * 某个桶攒够batchSize条就整批输出，最后剩下不满一批的按桶从短到长输出
+     */
+    private int[] bucketed(int[] shuffled) {
+        int[] result = new int[shuffled.length];
+        int filled = 0;
+        int[][] buckets = new int[lengthBuckets.length][batchSize];
+        int[] sizes = new int[lengthBuckets.length];
+        for (int sentence : shuffled) {
+            int bucket = BucketingSentenceProvider.bucketOf(corpus.length(sentence), lengthBuckets);
+            buckets[bucket][sizes[bucket]++] = sentence;
+            if (sizes[bucket] == batchSize) {
+                System.arraycopy(buckets[bucket], 0, result, filled, batchSize);
+                filled += batchSize;
+                sizes[bucket] = 0;
+            }
+        }
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            System.arraycopy(buckets[bucket], 0, result, filled, sizes[bucket]);
+            filled += sizes[bucket];
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < order.length;
+    }
+
+    @Override
+    public DataSet next() {
+        return next(batchSize);
+    }
+
+    @Override
+    public DataSet next(int num) {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int from = cursor;
+        int to = Math.min(order.length, from + num);
+        cursor = to;
+        int numLabels = totalOutcomes();
+        float[] labelData = new float[(to - from) * numLabels];
+        int length = 1;
+        for (int k = from; k < to; k++) {
+            length = Math.max(length, Math.min(corpus.length(order[k]), maxLength));
+            labelData[(k - from) * numLabels + corpus.label(order[k])] = 1.0f;
+        }
+        DataSet dataSet = vectorizer.vectorize(corpus, order, from, to, length);
+        dataSet.setLabels(Nd4j.create(labelData, new int[]{to - from, numLabels}));
+        if (null != preProcessor) {
+            preProcessor.preProcess(dataSet);
+        }
+        return dataSet;
+    }
+
+    @Override
+    public int inputColumns() {
+        return vectorizer.vectorSize();
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return corpus.getLabels().size();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return corpus.getLabels();
+    }
+}
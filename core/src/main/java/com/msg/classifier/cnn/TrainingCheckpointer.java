@@ -0,0 +1,192 @@
+package com.msg.classifier.cnn;
+
+import com.msg.util.FileUtil;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 训练检查点，训练中断(崩溃、被抢占)后可以从最近的检查点继续训练
+ * <p>
+ * 1) 检查点是checkpoint-序号.zip，包含模型参数、优化器状态，以及作为附加对象写入的训练进度TrainingState
+ * 2) 训练进度包括已完成的epoch数、当前epoch已训练的minibatch数和早停的状态
+ * 3) 先写到临时文件再原子地改名，写了一半的检查点不会被当作最近的检查点；只保留最近的keep个
+ * 4) 最佳模型单独保存为best.zip(不含优化器状态)，不会被清理
+ * <p>
+ * 恢复迭代器位置的方式是重放：按训练时的顺序reset训练集和测试集迭代器epoch次，再跳过已训练的minibatch，
+ * 迭代器的打乱顺序由固定的随机种子决定时，恢复后看到的数据和不中断时完全一样
+ */
+@Slf4j
+public class TrainingCheckpointer {
+    private static final String STATE_KEY = "trainingState";
+    private static final String BEST = "best.zip";
+    private static final Pattern NAME = Pattern.compile("checkpoint-(\\d+)\\.zip");
+
+    private final File dir;
+    private final int keep;
+    private long sequence;
+
+    /**
+     * 训练进度，随检查点一起保存
+     */
+    @Data
+    public static class TrainingState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int epoch;                          //已经完成的epoch数
+        private long batches;                       //当前epoch已经训练的minibatch数
+        private double bestScore = Double.NaN;      //测试集上最好的准确率
+        private int bestEpoch = -1;                 //最好的准确率出现在第几个epoch
+        private int epochsWithoutImprovement;       //准确率连续没有提升的epoch数
+        private boolean stopped;                    //是否已经早停
+    }
+
+    /**
+     * @param dir  检查点目录，不存在时创建
+     * @param keep 保留最近的多少个检查点，至少为1
+     */
+    public TrainingCheckpointer(String dir, int keep) {
+        this.dir = new File(dir);
+        this.keep = Math.max(1, keep);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IllegalStateException("创建检查点目录失败:" + dir);
+        }
+        File latest = latest();
+        sequence = null == latest ? 0 : sequenceOf(latest);
+    }
+
+    /**
+     * @return 最近的检查点，没有时返回null
+     */
+    public File latest() {
+        List<File> checkpoints = checkpoints();
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    /**
+     * @return 目录下的所有检查点，按序号升序
+     */
+    public List<File> checkpoints() {
+        List<File> checkpoints = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (NAME.matcher(file.getName()).matches()) {
+                    checkpoints.add(file);
+                }
+            }
+        }
+        checkpoints.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        return checkpoints;
+    }
+
+    private static long sequenceOf(File checkpoint) {
+        Matcher matcher = NAME.matcher(checkpoint.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * 写出检查点并清理多余的旧检查点
+     */
+    public synchronized void save(ComputationGraph net, TrainingState state) throws IOException {
+        long start = System.currentTimeMillis();
+        File checkpoint = new File(dir, "checkpoint-" + (++sequence) + ".zip");
+        write(net, state, checkpoint, true);
+        List<File> checkpoints = checkpoints();
+        for (int i = 0; i < checkpoints.size() - keep; i++) {
+            Files.deleteIfExists(checkpoints.get(i).toPath());
+        }
+        log.info("写出检查点 " + checkpoint.getName() + ": epoch " + state.getEpoch() + ", minibatch " + state.getBatches()
+                + ", 耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 保存最佳模型，只用于最后取回参数，不需要优化器状态
+     */
+    public void saveBest(ComputationGraph net, TrainingState state) throws IOException {
+        write(net, state, new File(dir, BEST), false);
+    }
+
+    /**
+     * @return 最佳模型，没有时返回null
+     */
+    public ComputationGraph restoreBest() throws IOException {
+        File best = new File(dir, BEST);
+        return best.isFile() ? ModelSerializer.restoreComputationGraph(best, false) : null;
+    }
+
+    /**
+     * 加载检查点中的模型，包括优化器状态
+     */
+    public ComputationGraph restore(File checkpoint) throws IOException {
+        return ModelSerializer.restoreComputationGraph(checkpoint, true);
+    }
+
+    /**
+     * @return 检查点中的训练进度
+     */
+    public TrainingState state(File checkpoint) {
+        TrainingState state = ModelSerializer.getObjectFromFile(checkpoint, STATE_KEY);
+        if (null == state) {
+            throw new IllegalStateException("检查点中没有训练进度:" + checkpoint);
+        }
+        return state;
+    }
+
+    private static void write(ComputationGraph net, TrainingState state, File target, boolean saveUpdater) throws IOException {
+        FileUtil.writeAtomically(target.getPath(), tmp -> {
+            ModelSerializer.writeModel(net, tmp, saveUpdater);
+            ModelSerializer.addObjectToFile(tmp, STATE_KEY, state);
+        });
+    }
+
+    /**
+     * 把新建的训练集和测试集迭代器恢复到检查点时的位置
+     * <p>
+     * fit和evaluate只在迭代器没有剩余数据时reset，训练时每个epoch(第一个除外)依次reset训练集和测试集各一次，
+     * 这里按同样的顺序reset，共享随机数生成器的迭代器也能得到相同的打乱顺序，然后跳过当前epoch已经训练的minibatch
+     */
+    public static void replay(DataSetIterator trainIter, DataSetIterator testIter, TrainingState state) {
+        for (int i = 0; i < state.getEpoch(); i++) {
+            trainIter.reset();
+            testIter.reset();
+        }
+        for (long i = 0; i < state.getBatches() && trainIter.hasNext(); i++) {
+            trainIter.next();
+        }
+    }
+
+    /**
+     * @param state        训练进度，每个minibatch后更新
+     * @param everyBatches 每隔多少个minibatch写一次检查点，0表示只统计进度
+     * @return 训练时记录进度并定期写检查点的监听器，只能用于单线程训练，并行训练时各个worker的iteration不对应minibatch
+     */
+    public BaseTrainingListener listener(TrainingState state, int everyBatches) {
+        return new BaseTrainingListener() {
+            @Override
+            public void iterationDone(Model model, int iteration, int epoch) {
+                state.setBatches(state.getBatches() + 1);
+                if (everyBatches > 0 && state.getBatches() % everyBatches == 0) {
+                    try {
+                        save((ComputationGraph) model, state);
+                    } catch (IOException e) {
+                        log.error("写出检查点出错", e);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package com.msg.classifier.cnn;
+
+import com.msg.text.TokenizedCorpus;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HyperParameterSearch和CrossValidation共用的部分: 试验状态、并发训练的线程池和在TokenizedCorpus上的评估
+ */
+final class TrainingSupport {
+    static final String COMPLETED = "COMPLETED";
+    static final String PRUNED = "PRUNED";
+    static final String FAILED = "FAILED";
+
+    private static final int EVALUATION_BATCH_SIZE = 256;
+
+    private TrainingSupport() {
+    }
+
+    /**
+     * @param threads    线程数
+     * @param namePrefix 线程名前缀，后面加上序号
+     * @return 守护线程组成的固定大小线程池，主线程退出时不用等它们
+     */
+    static ExecutorService newDaemonPool(int threads, String namePrefix) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, namePrefix + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 按EVALUATION_BATCH_SIZE分批预测测试集，没有已知词的句子跳过
+     *
+     * @param net        要评估的网络
+     * @param test       用vectorizer.encode转换的测试集
+     * @param vectorizer 向量化
+     * @param maxLength  句子长度上限，与训练时一致
+     */
+    static Evaluation evaluate(ComputationGraph net, TokenizedCorpus test, SentenceVectorizer vectorizer, int maxLength) {
+        Evaluation evaluation = new Evaluation(test.getLabels());
+        TokenIdDataSetIterator iterator = new TokenIdDataSetIterator(test, vectorizer, EVALUATION_BATCH_SIZE, null, null);
+        iterator.setMaxLength(maxLength);
+        while (iterator.hasNext()) {
+            DataSet dataSet = iterator.next();
+            INDArray output = net.output(false, new INDArray[]{dataSet.getFeatures()},
+                    new INDArray[]{dataSet.getFeaturesMaskArray()})[0];
+            evaluation.eval(dataSet.getLabels(), output);
+        }
+        return evaluation;
+    }
+}
@@ -0,0 +1,20 @@
+package com.msg.classifier.cnn;
+
+import lombok.Data;
+
+/**
+ * 超参数搜索中一个试验的结果
+ */
+@Data
+public class TrialResult {
+    private int trial;                      //试验编号
+    private HyperParameters parameters;
+    private String status;                  //COMPLETED、PRUNED或FAILED
+    private int epochs;                     //实际训练的epoch数
+    private double accuracy;                //最后一个epoch结束后测试集上的准确率
+    private double f1;
+    private long trainMillis;               //训练耗时，不含评估
+    private long latencyP50Micros;          //单条预测延迟的中位数
+    private long latencyP99Micros;
+    private String modelPath;               //试验模型的保存路径，不含优化器状态
+}
@@ -0,0 +1,313 @@
+package com.msg.classifier.fasttext;
+
+import com.msg.classifier.Prediction;
+import com.msg.classifier.TextClassifier;
+import com.msg.text.LabeledLine;
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * fastText风格的哈希n-gram线性分类器，不依赖词向量和ND4J，训练数据量不大时几秒内训练完，单条预测微秒级
+ * <p>
+ * 训练: 统计词频建立词表，每个epoch打乱样本，多个线程不加锁地并行SGD，学习率随处理的样本数线性衰减到0
+ * <p>
+ * 预测是线程安全的，每个线程复用自己的临时数组；train和load替换模型时正在进行的预测继续使用旧模型
+ */
+@Slf4j
+public class FastTextClassifier implements TextClassifier<FastTextModel> {
+    private final String modelPath;
+    private final ThreadLocal<Scratches> scratches = ThreadLocal.withInitial(Scratches::new);
+    private volatile FastTextModel model;
+
+    private int dim = 50;                       //词和n-gram的向量维度
+    private int epochs = 10;                    //训练的epoch数
+    private float learningRate = 0.5f;          //初始学习率
+    private int wordNgrams = 2;                 //n-gram的最大长度，1表示只用单个词
+    private int buckets = 1 << 19;              //n-gram哈希桶数
+    private int minCount = 1;                   //词频低于minCount的词不进词表
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 12345;
+
+    /**
+     * 模型文件存在时直接加载，否则在语料上训练后写出到modelPath
+     */
+    public FastTextClassifier(String textPath, String modelPath) {
+        this(modelPath);
+        if (new File(modelPath).isFile()) {
+            try {
+                load(modelPath);
+                return;
+            } catch (IOException e) {
+                log.error("加载模型出错，重新训练:" + modelPath, e);
+            }
+        }
+        train(textPath);
+    }
+
+    /**
+     * 只指定模型路径，设置好超参数后再调用train或load
+     */
+    public FastTextClassifier(String modelPath) {
+        this.modelPath = modelPath;
+    }
+
+    public void setDim(int dim) {
+        this.dim = dim;
+    }
+
+    public void setEpochs(int epochs) {
+        this.epochs = epochs;
+    }
+
+    public void setLearningRate(float learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public void setWordNgrams(int wordNgrams) {
+        this.wordNgrams = Math.max(1, wordNgrams);
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = Math.max(1, buckets);
+    }
+
+    public void setMinCount(int minCount) {
+        this.minCount = minCount;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public FastTextModel getModel() {
+        return model;
+    }
+
+    @Override
+    public FastTextModel train(String textPath) {
+        long start = System.currentTimeMillis();
+        List<String> texts = new ArrayList<>();
+        List<String> textLabels = new ArrayList<>();
+        LabeledLine labeledLine = new LabeledLine(LABEL_SPLIT);
+        for (String line : FileUtil.readFileToArray(textPath)) {
+            if (labeledLine.parse(line)) {
+                texts.add(labeledLine.text());
+                textLabels.add(labeledLine.label());
+            }
+        }
+        FastTextModel trained = newModel(texts, textLabels);
+
+        //样本预先转换成特征下标，训练的每个epoch不再分词
+        Map<String, Integer> labelIndex = new HashMap<>();
+        for (int i = 0; i < trained.labels.length; i++) {
+            labelIndex.put(trained.labels[i], i);
+        }
+        FastTextModel.Scratch scratch = trained.newScratch();
+        int[][] features = new int[texts.size()][];
+        int[] targets = new int[texts.size()];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = Arrays.copyOf(scratch.features, trained.features(texts.get(i), scratch));
+            targets[i] = labelIndex.get(textLabels.get(i));
+        }
+        log.info("词表 " + trained.numWords() + " 个词, " + trained.labels.length + " 个类别, " + features.length
+                + " 个样本, 准备耗时 " + (System.currentTimeMillis() - start) + "ms");
+
+        fit(trained, features, targets);
+        log.info("训练完成，耗时 " + (System.currentTimeMillis() - start) + "ms");
+        try {
+            trained.save(modelPath);
+        } catch (IOException e) {
+            log.error("写出模型出错:" + modelPath, e);
+        }
+        model = trained;
+        return trained;
+    }
+
+    /**
+     * 统计词频建立词表，词按词频从高到低排列，类别按字典序；输入向量均匀随机初始化，输出向量初始化为0
+     */
+    private FastTextModel newModel(List<String> texts, List<String> textLabels) {
+        Map<String, int[]> counts = new HashMap<>();
+        for (String text : texts) {
+            for (String token : FastTextModel.tokenize(text)) {
+                counts.computeIfAbsent(token, k -> new int[1])[0]++;
+            }
+        }
+        List<Map.Entry<String, int[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.removeIf(entry -> entry.getValue()[0] < minCount);
+        entries.sort((a, b) -> a.getValue()[0] != b.getValue()[0] ? Integer.compare(b.getValue()[0], a.getValue()[0])
+                : a.getKey().compareTo(b.getKey()));
+        String[] words = new String[entries.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = entries.get(i).getKey();
+        }
+        String[] labels = new TreeSet<>(textLabels).toArray(new String[0]);
+
+        Random rng = new Random(seed);
+        float[] input = new float[FastTextModel.matrixSize((long) words.length + buckets, dim)];
+        float bound = 1.0f / dim;
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (rng.nextFloat() * 2 - 1) * bound;
+        }
+        float[] output = new float[FastTextModel.matrixSize(labels.length, dim)];
+        return new FastTextModel(dim, wordNgrams, buckets, words, labels, input, output);
+    }
+
+    /**
+     * 每个线程负责固定的一部分样本，每个epoch打乱自己的样本顺序
+     * <p>
+     * 学习率按线程自己的进度线性衰减，与fastText一样每个线程只数自己处理过的样本，线程之间不共享计数器，
+     * 避免每个样本都在同一个原子变量上争用缓存行
+     */
+    private void fit(FastTextModel trained, int[][] features, int[] targets) {
+        int workers = Math.max(1, Math.min(threads, features.length));
+        AtomicInteger index = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "fasttext-train-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<double[]>> futures = new ArrayList<>(workers);
+            for (int w = 0; w < workers; w++) {
+                int worker = w;
+                futures.add(pool.submit(() -> {
+                    FastTextModel.Scratch scratch = trained.newScratch();
+                    Random rng = new Random(seed + worker);
+                    int[] order = new int[(features.length - worker + workers - 1) / workers];
+                    for (int i = 0; i < order.length; i++) {
+                        order[i] = worker + i * workers;
+                    }
+                    long total = (long) epochs * order.length;
+                    long processed = 0;
+                    double loss = 0;
+                    long examples = 0;
+                    for (int epoch = 0; epoch < epochs; epoch++) {
+                        for (int i = order.length - 1; i > 0; i--) {
+                            int j = rng.nextInt(i + 1);
+                            int tmp = order[i];
+                            order[i] = order[j];
+                            order[j] = tmp;
+                        }
+                        for (int sample : order) {
+                            float rate = learningRate * Math.max(0.0f, 1.0f - (float) processed++ / total);
+                            int[] sampleFeatures = features[sample];
+                            float sampleLoss = trained.update(sampleFeatures, sampleFeatures.length, targets[sample], rate, scratch);
+                            //只统计最后一个epoch的损失
+                            if (sampleLoss >= 0 && epoch == epochs - 1) {
+                                loss += sampleLoss;
+                                examples++;
+                            }
+                        }
+                    }
+                    return new double[]{loss, examples};
+                }));
+            }
+            double loss = 0;
+            long examples = 0;
+            for (Future<double[]> future : futures) {
+                double[] result = future.get();
+                loss += result[0];
+                examples += (long) result[1];
+            }
+            log.info(String.format("%d 个线程, %d 个epoch, 最后一个epoch的平均损失 %.5f", workers, epochs, loss / Math.max(1, examples)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("训练被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("训练出错", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public FastTextModel load(String modelPath) throws IOException {
+        long start = System.currentTimeMillis();
+        FastTextModel loaded = FastTextModel.load(modelPath);
+        model = loaded;
+        log.info("加载模型耗时 " + (System.currentTimeMillis() - start) + "ms, 词表 " + loaded.numWords() + " 个词");
+        return loaded;
+    }
+
+    private FastTextModel model() {
+        FastTextModel current = model;
+        if (null == current) {
+            throw new IllegalStateException("模型还没有训练或加载");
+        }
+        return current;
+    }
+
+    /**
+     * 每个线程的临时数组，模型替换后按新模型重新分配
+     */
+    private static final class Scratches {
+        private FastTextModel model;
+        private FastTextModel.Scratch scratch;
+
+        private FastTextModel.Scratch get(FastTextModel current) {
+            if (model != current) {
+                model = current;
+                scratch = current.newScratch();
+            }
+            return scratch;
+        }
+    }
+
+    @Override
+    public String predict(String text) {
+        FastTextModel current = model();
+        return current.labels[current.predict(text, scratches.get().get(current))];
+    }
+
+    /**
+     * @return 预测结果，probabilities是各类别的概率
+     */
+    public Prediction predictWithProbabilities(String text) {
+        FastTextModel current = model();
+        FastTextModel.Scratch scratch = scratches.get().get(current);
+        int best = current.predict(text, scratch);
+        double[] probabilities = new double[scratch.scores.length];
+        for (int k = 0; k < probabilities.length; k++) {
+            probabilities[k] = scratch.scores[k];
+        }
+        return new Prediction(current.labels[best], best, probabilities);
+    }
+
+    @Override
+    public List<Prediction> predictBatch(List<String> texts) {
+        List<Prediction> predictions = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            predictions.add(predictWithProbabilities(text));
+        }
+        return predictions;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return model().getLabels();
+    }
+
+    public static void main(String[] args) {
+        String textPath = args[0];
+        String modelPath = args[1];
+        FastTextClassifier classifier = new FastTextClassifier(textPath, modelPath);
+        for (int i = 2; i < args.length; i++) {
+            Prediction prediction = classifier.predictWithProbabilities(args[i]);
+            System.out.println(prediction.getLabel() + "\t" + prediction.getProbability() + "\t" + args[i]);
+        }
+    }
+}
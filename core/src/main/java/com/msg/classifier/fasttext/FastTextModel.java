@@ -0,0 +1,416 @@
+package com.msg.classifier.fasttext;
+
+import com.msg.util.FileUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * fastText风格的线性分类模型，参数全部放在float数组里
+ * <p>
+ * 1) 特征: 词表中的词，以及相邻wordNgrams个词组成的n-gram，n-gram按哈希映射到buckets个桶，不需要n-gram词表
+ * 2) 隐藏层: 所有特征的输入向量(input的行)取平均
+ * 3) 输出: 隐藏层乘以每个类别的输出向量(output的行)后做softmax
+ * <p>
+ * 词表是开放寻址的哈希表，直接在原文本上比较字符，预测时不为每个词创建子串
+ * <p>
+ * 文件格式: 魔数、头部长度、头部(超参数、词表、类别)，之后是小端序的input和output
+ */
+public class FastTextModel {
+    private static final int MAGIC = 0x46544331;       //"FTC1"
+    private static final long NGRAM_PRIME = 116049371;
+    private static final int IO_BUFFER = 1 << 20;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;    //部分JVM在数组头里保留了几个字
+
+    final int dim;
+    final int wordNgrams;
+    final int buckets;
+    final String[] words;
+    final String[] labels;
+    final float[] input;        //(词数 + 桶数) * dim
+    final float[] output;       //类别数 * dim
+    private final int[] wordTable;
+    private final int tableMask;
+
+    FastTextModel(int dim, int wordNgrams, int buckets, String[] words, String[] labels, float[] input, float[] output) {
+        this.dim = dim;
+        this.wordNgrams = wordNgrams;
+        this.buckets = buckets;
+        this.words = words;
+        this.labels = labels;
+        this.input = input;
+        this.output = output;
+        int size = Integer.highestOneBit(Math.max(2, words.length * 2 - 1)) << 1;
+        this.wordTable = new int[size];
+        this.tableMask = size - 1;
+        Arrays.fill(wordTable, -1);
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            int slot = hash(word, 0, word.length()) & tableMask;
+            while (wordTable[slot] >= 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            wordTable[slot] = i;
+        }
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public int getWordNgrams() {
+        return wordNgrams;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public int numWords() {
+        return words.length;
+    }
+
+    public List<String> getLabels() {
+        return Arrays.asList(labels);
+    }
+
+    /**
+     * @return 参数占用的字节数
+     */
+    public long parameterBytes() {
+        return 4L * (input.length + output.length);
+    }
+
+    /**
+     * FNV-1a
+     */
+    static int hash(CharSequence text, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h ^= text.charAt(i);
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * 按空白切分，和预测时的切分方式一致
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (start < i) {
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return text[from, to)在词表中的下标，不在词表中时返回-1
+     */
+    int wordId(String text, int from, int to, int hash) {
+        int length = to - from;
+        int slot = hash & tableMask;
+        int id;
+        while ((id = wordTable[slot]) >= 0) {
+            String word = words[id];
+            if (word.length() == length && text.regionMatches(from, word, 0, length)) {
+                return id;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    /**
+     * 每个线程一份的临时数组，预测和训练都不在热路径上分配内存
+     */
+    static final class Scratch {
+        int[] hashes = new int[64];
+        int[] features = new int[64];
+        final float[] hidden;
+        final float[] gradient;
+        final float[] scores;
+
+        Scratch(FastTextModel model) {
+            hidden = new float[model.dim];
+            gradient = new float[model.dim];
+            scores = new float[model.labels.length];
+        }
+    }
+
+    Scratch newScratch() {
+        return new Scratch(this);
+    }
+
+    /**
+     * 按空白切分文本，把词和n-gram的特征下标写到scratch.features
+     *
+     * @return 特征数
+     */
+    int features(String text, Scratch scratch) {
+        int tokens = 0;
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            int h = hash(text, start, i);
+            if (tokens == scratch.hashes.length) {
+                scratch.hashes = Arrays.copyOf(scratch.hashes, tokens * 2);
+            }
+            scratch.hashes[tokens++] = h;
+            int id = wordId(text, start, i, h);
+            if (id >= 0) {
+                count = add(scratch, count, id);
+            }
+        }
+        //未登录词不作为单个特征，但参与n-gram的哈希
+        for (int start = 0; start < tokens; start++) {
+            long h = scratch.hashes[start] & 0xffffffffL;
+            for (int end = start + 1; end < tokens && end < start + wordNgrams; end++) {
+                h = h * NGRAM_PRIME + (scratch.hashes[end] & 0xffffffffL);
+                count = add(scratch, count, words.length + (int) Long.remainderUnsigned(h, buckets));
+            }
+        }
+        return count;
+    }
+
+    private static int add(Scratch scratch, int count, int feature) {
+        if (count == scratch.features.length) {
+            scratch.features = Arrays.copyOf(scratch.features, count * 2);
+        }
+        scratch.features[count] = feature;
+        return count + 1;
+    }
+
+    /**
+     * 计算各个类别的概率，写到scratch.scores
+     *
+     * @return 概率最大的类别下标
+     */
+    int predict(String text, Scratch scratch) {
+        int count = features(text, scratch);
+        hidden(scratch.features, count, scratch.hidden);
+        return softmax(scratch.hidden, scratch.scores);
+    }
+
+    private void hidden(int[] features, int count, float[] hidden) {
+        Arrays.fill(hidden, 0.0f);
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = features[i] * dim;
+            for (int d = 0; d < dim; d++) {
+                hidden[d] += input[offset + d];
+            }
+        }
+        float scale = 1.0f / count;
+        for (int d = 0; d < dim; d++) {
+            hidden[d] *= scale;
+        }
+    }
+
+    private int softmax(float[] hidden, float[] scores) {
+        float max = Float.NEGATIVE_INFINITY;
+        int best = 0;
+        for (int k = 0; k < labels.length; k++) {
+            int offset = k * dim;
+            float score = 0.0f;
+            for (int d = 0; d < dim; d++) {
+                score += output[offset + d] * hidden[d];
+            }
+            scores[k] = score;
+            if (score > max) {
+                max = score;
+                best = k;
+            }
+        }
+        float sum = 0.0f;
+        for (int k = 0; k < labels.length; k++) {
+            scores[k] = (float) Math.exp(scores[k] - max);
+            sum += scores[k];
+        }
+        for (int k = 0; k < labels.length; k++) {
+            scores[k] /= sum;
+        }
+        return best;
+    }
+
+    /**
+     * 对一个样本做一步SGD，多个线程不加锁地同时更新参数(Hogwild)，和fastText一样
+     *
+     * @return 这个样本的交叉熵损失，没有任何特征时返回-1
+     */
+    float update(int[] features, int count, int target, float learningRate, Scratch scratch) {
+        if (count == 0) {
+            return -1;
+        }
+        float[] hidden = scratch.hidden;
+        float[] gradient = scratch.gradient;
+        float[] scores = scratch.scores;
+        hidden(features, count, hidden);
+        softmax(hidden, scores);
+        float loss = (float) -Math.log(Math.max(scores[target], 1e-10f));
+
+        Arrays.fill(gradient, 0.0f);
+        for (int k = 0; k < labels.length; k++) {
+            float alpha = learningRate * ((k == target ? 1.0f : 0.0f) - scores[k]);
+            int offset = k * dim;
+            for (int d = 0; d < dim; d++) {
+                gradient[d] += alpha * output[offset + d];
+                output[offset + d] += alpha * hidden[d];
+            }
+        }
+        float scale = 1.0f / count;
+        for (int i = 0; i < count; i++) {
+            int offset = features[i] * dim;
+            for (int d = 0; d < dim; d++) {
+                input[offset + d] += gradient[d] * scale;
+            }
+        }
+        return loss;
+    }
+
+    /**
+     * 先写到同目录下的临时文件再原子替换
+     */
+    public void save(String path) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            header.writeInt(dim);
+            header.writeInt(wordNgrams);
+            header.writeInt(buckets);
+            header.writeInt(words.length);
+            for (String word : words) {
+                header.writeUTF(word);
+            }
+            header.writeInt(labels.length);
+            for (String label : labels) {
+                header.writeUTF(label);
+            }
+        }
+        FileUtil.writeAtomically(path, tmp -> {
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(headerBytes.size());
+                buffer.flip();
+                writeFully(channel, buffer);
+                writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+                writeFloats(channel, buffer, input);
+                writeFloats(channel, buffer, output);
+            }
+        });
+    }
+
+    private static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException {
+        buffer.clear();
+        FloatBuffer floats = buffer.asFloatBuffer();
+        for (int from = 0, length; from < values.length; from += length) {
+            length = Math.min(floats.capacity(), values.length - from);
+            floats.clear();
+            floats.put(values, from, length);
+            buffer.clear();
+            buffer.limit(length * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * 参数矩阵rows * dim的元素数，按long计算，超过Java数组的上限时抛出异常；
+     * 例如200万个桶、300维已经有6亿个元素，再加上较大的词表或更高的维度就会超过int的范围
+     */
+    static int matrixSize(long rows, int dim) {
+        long size = rows * dim;
+        if (size > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("参数矩阵超过了数组的上限，请减少桶数或维度:" + rows + " * " + dim + " = " + size);
+        }
+        return (int) size;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static FastTextModel load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(8);
+            readFully(channel, buffer);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("不是FastTextModel文件:" + path);
+            }
+            ByteBuffer headerBytes = ByteBuffer.allocate(buffer.getInt());
+            readFully(channel, headerBytes);
+            try (DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes.array()))) {
+                int dim = header.readInt();
+                int wordNgrams = header.readInt();
+                int buckets = header.readInt();
+                String[] words = new String[header.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = header.readUTF();
+                }
+                String[] labels = new String[header.readInt()];
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = header.readUTF();
+                }
+                float[] input = readFloats(channel, buffer, matrixSize((long) words.length + buckets, dim));
+                float[] output = readFloats(channel, buffer, matrixSize(labels.length, dim));
+                return new FastTextModel(dim, wordNgrams, buckets, words, labels, input, output);
+            }
+        }
+    }
+
+    private static float[] readFloats(FileChannel channel, ByteBuffer buffer, int count) throws IOException {
+        float[] values = new float[count];
+        int capacity = buffer.capacity() / 4;
+        for (int from = 0, length; from < count; from += length) {
+            length = Math.min(capacity, count - from);
+            buffer.clear();
+            buffer.limit(length * 4);
+            readFully(channel, buffer);
+            buffer.flip();
+            buffer.asFloatBuffer().get(values, from, length);
+        }
+        return values;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("模型文件不完整");
+            }
+        }
+    }
+}
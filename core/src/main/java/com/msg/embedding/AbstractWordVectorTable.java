@@ -0,0 +1,270 @@
+package com.msg.embedding;
+
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * 按下标逐行读取的词向量表的公共实现
+ * <p>
+ * 子类只需要提供词和下标的映射以及按行读取向量，WordVectors的其余方法(相似度、近邻查询、词表视图)都在这里实现，
+ * 近邻查询是在整个词表上的逐行扫描
+ */
+public abstract class AbstractWordVectorTable implements WordVectors, WordVectorTable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String DEFAULT_UNK = "UNK";
+
+    private transient TableVocabCache vocabCache;
+    private String unk = DEFAULT_UNK;
+
+    /**
+     * @return 词数
+     */
+    public abstract int numWords();
+
+    /**
+     * @return 下标为index的词
+     */
+    public abstract String wordAt(int index);
+
+    /**
+     * 把第index行向量读到dest[offset, offset + vectorSize)
+     */
+    protected abstract void readRow(int index, float[] dest, int offset);
+
+    @Override
+    public abstract int indexOf(String word);
+
+    @Override
+    public boolean copyVector(String word, float[] dest, int offset) {
+        int index = indexOf(word);
+        if (index < 0) {
+            return false;
+        }
+        readRow(index, dest, offset);
+        return true;
+    }
+
+    @Override
+    public void copyRow(int index, float[] dest, int offset) {
+        readRow(index, dest, offset);
+    }
+
+    @Override
+    public boolean hasWord(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    @Override
+    public INDArray getWordVectorMatrix(String word) {
+        int index = indexOf(word);
+        if (index < 0) {
+            return null;
+        }
+        float[] vector = new float[vectorSize()];
+        readRow(index, vector, 0);
+        return Nd4j.create(vector, new int[]{1, vector.length});
+    }
+
+    @Override
+    public INDArray getWordVectorMatrixNormalized(String word) {
+        INDArray vector = getWordVectorMatrix(word);
+        if (null == vector) {
+            return null;
+        }
+        return vector.div(vector.norm2Number());
+    }
+
+    @Override
+    public double[] getWordVector(String word) {
+        int index = indexOf(word);
+        if (index < 0) {
+            return null;
+        }
+        float[] row = new float[vectorSize()];
+        readRow(index, row, 0);
+        double[] vector = new double[row.length];
+        for (int i = 0; i < row.length; i++) {
+            vector[i] = row[i];
+        }
+        return vector;
+    }
+
+    @Override
+    public INDArray getWordVectors(Collection<String> labels) {
+        int vectorSize = vectorSize();
+        List<String> known = new ArrayList<>(labels.size());
+        for (String label : labels) {
+            if (hasWord(label)) {
+                known.add(label);
+            }
+        }
+        float[] data = new float[known.size() * vectorSize];
+        for (int i = 0; i < known.size(); i++) {
+            copyVector(known.get(i), data, i * vectorSize);
+        }
+        return Nd4j.create(data, new int[]{known.size(), vectorSize});
+    }
+
+    @Override
+    public INDArray getWordVectorsMean(Collection<String> labels) {
+        return getWordVectors(labels).mean(0);
+    }
+
+    @Override
+    public double similarity(String word1, String word2) {
+        double[] v1 = getWordVector(word1);
+        double[] v2 = getWordVector(word2);
+        if (null == v1 || null == v2) {
+            return Double.NaN;
+        }
+        double dot = 0, norm1 = 0, norm2 = 0;
+        for (int i = 0; i < v1.length; i++) {
+            dot += v1[i] * v2[i];
+            norm1 += v1[i] * v1[i];
+            norm2 += v2[i] * v2[i];
+        }
+        return dot / Math.sqrt(norm1 * norm2);
+    }
+
+    /**
+     * 在整个词表上逐行计算余弦相似度，取最相似的top个词
+     */
+    protected List<String> nearest(float[] query, Set<String> exclude, int top) {
+        int vectorSize = vectorSize();
+        double queryNorm = 0;
+        for (float v : query) {
+            queryNorm += v * v;
+        }
+        queryNorm = Math.sqrt(queryNorm);
+        PriorityQueue<double[]> heap = new PriorityQueue<>(top + exclude.size() + 1, Comparator.comparingDouble(a -> a[0]));
+        float[] vector = new float[vectorSize];
+        for (int i = 0; i < numWords(); i++) {
+            readRow(i, vector, 0);
+            double dot = 0, norm = 0;
+            for (int j = 0; j < vectorSize; j++) {
+                dot += vector[j] * query[j];
+                norm += vector[j] * vector[j];
+            }
+            double score = norm == 0 || queryNorm == 0 ? 0 : dot / (Math.sqrt(norm) * queryNorm);
+            if (heap.size() < top + exclude.size()) {
+                heap.add(new double[]{score, i});
+            } else if (score > heap.peek()[0]) {
+                heap.poll();
+                heap.add(new double[]{score, i});
+            }
+        }
+        List<double[]> sorted = new ArrayList<>(heap);
+        sorted.sort((a, b) -> Double.compare(b[0], a[0]));
+        List<String> words = new ArrayList<>(top);
+        for (double[] entry : sorted) {
+            String word = wordAt((int) entry[1]);
+            if (!exclude.contains(word) && words.size() < top) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private float[] combine(Collection<String> positive, Collection<String> negative) {
+        int vectorSize = vectorSize();
+        float[] query = new float[vectorSize];
+        float[] vector = new float[vectorSize];
+        for (String word : positive) {
+            if (copyVector(word, vector, 0)) {
+                for (int i = 0; i < vectorSize; i++) {
+                    query[i] += vector[i];
+                }
+            }
+        }
+        for (String word : negative) {
+            if (copyVector(word, vector, 0)) {
+                for (int i = 0; i < vectorSize; i++) {
+                    query[i] -= vector[i];
+                }
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public Collection<String> wordsNearest(String word, int n) {
+        return wordsNearest(Collections.singletonList(word), Collections.<String>emptyList(), n);
+    }
+
+    @Override
+    public Collection<String> wordsNearest(Collection<String> positive, Collection<String> negative, int top) {
+        Set<String> exclude = new HashSet<>(positive);
+        exclude.addAll(negative);
+        return nearest(combine(positive, negative), exclude, top);
+    }
+
+    @Override
+    public Collection<String> wordsNearest(INDArray words, int top) {
+        return nearest(words.toFloatVector(), Collections.<String>emptySet(), top);
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(String word, int n) {
+        return wordsNearest(word, n);
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(Collection<String> positive, Collection<String> negative, int top) {
+        return wordsNearest(positive, negative, top);
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(INDArray words, int top) {
+        return wordsNearest(words, top);
+    }
+
+    @Override
+    public Map<String, Double> accuracy(List<String> questions) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持accuracy");
+    }
+
+    @Override
+    public List<String> similarWordsInVocabTo(String word, double accuracy) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "不支持similarWordsInVocabTo");
+    }
+
+    @Override
+    public VocabCache<VocabWord> vocab() {
+        if (null == vocabCache) {
+            vocabCache = new TableVocabCache(this);
+        }
+        return vocabCache;
+    }
+
+    @Override
+    public WeightLookupTable<VocabWord> lookupTable() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + "没有WeightLookupTable");
+    }
+
+    /**
+     * WordVectors接口声明的参数是原始类型，参数化后不再构成覆盖，只能保留原始类型
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void setModelUtils(ModelUtils utils) {
+        //相似度计算直接在词向量表上完成，不需要ModelUtils
+    }
+
+    @Override
+    public String getUNK() {
+        return unk;
+    }
+
+    @Override
+    public void setUNK(String newUNK) {
+        this.unk = newUNK;
+    }
+}
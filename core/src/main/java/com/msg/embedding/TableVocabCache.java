@@ -0,0 +1,223 @@
+package com.msg.embedding;
+
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 词向量表的只读词表视图，词和下标都直接从词向量表中读取，不额外在堆上保存一份词表
+ * <p>
+ * 词向量表里没有词频，所有和词频、文档数相关的方法都返回0，修改词表的方法都不支持
+ */
+public class TableVocabCache implements VocabCache<VocabWord> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient AbstractWordVectorTable vectors;
+
+    TableVocabCache(AbstractWordVectorTable vectors) {
+        this.vectors = vectors;
+    }
+
+    @Override
+    public Collection<String> words() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return vectors.wordAt(index);
+            }
+
+            @Override
+            public int size() {
+                return vectors.numWords();
+            }
+        };
+    }
+
+    @Override
+    public boolean containsWord(String word) {
+        return vectors.indexOf(word) >= 0;
+    }
+
+    @Override
+    public String wordAtIndex(int index) {
+        return index >= 0 && index < vectors.numWords() ? vectors.wordAt(index) : null;
+    }
+
+    @Override
+    public VocabWord elementAtIndex(int index) {
+        String word = wordAtIndex(index);
+        return null == word ? null : toVocabWord(index, word);
+    }
+
+    @Override
+    public int indexOf(String word) {
+        return vectors.indexOf(word);
+    }
+
+    @Override
+    public Collection<VocabWord> vocabWords() {
+        List<VocabWord> vocabWords = new ArrayList<>(vectors.numWords());
+        for (int i = 0; i < vectors.numWords(); i++) {
+            vocabWords.add(toVocabWord(i, vectors.wordAt(i)));
+        }
+        return vocabWords;
+    }
+
+    @Override
+    public VocabWord wordFor(String word) {
+        int index = vectors.indexOf(word);
+        return index < 0 ? null : toVocabWord(index, word);
+    }
+
+    @Override
+    public VocabWord wordFor(long id) {
+        return elementAtIndex((int) id);
+    }
+
+    @Override
+    public int numWords() {
+        return vectors.numWords();
+    }
+
+    @Override
+    public Collection<VocabWord> tokens() {
+        return vocabWords();
+    }
+
+    @Override
+    public VocabWord tokenFor(String label) {
+        return wordFor(label);
+    }
+
+    @Override
+    public VocabWord tokenFor(long id) {
+        return wordFor(id);
+    }
+
+    @Override
+    public boolean hasToken(String token) {
+        return containsWord(token);
+    }
+
+    private VocabWord toVocabWord(int index, String word) {
+        VocabWord vocabWord = new VocabWord(1.0, word);
+        vocabWord.setIndex(index);
+        return vocabWord;
+    }
+
+    @Override
+    public int wordFrequency(String word) {
+        return 0;
+    }
+
+    @Override
+    public long totalWordOccurrences() {
+        return 0;
+    }
+
+    @Override
+    public int docAppearedIn(String word) {
+        return 0;
+    }
+
+    @Override
+    public long totalNumberOfDocs() {
+        return 0;
+    }
+
+    @Override
+    public boolean vocabExists() {
+        return true;
+    }
+
+    @Override
+    public void loadVocab() {
+    }
+
+    @Override
+    public void saveVocab() {
+        throw readOnly();
+    }
+
+    @Override
+    public void incrementWordCount(String word) {
+        throw readOnly();
+    }
+
+    @Override
+    public void incrementWordCount(String word, int increment) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addWordToIndex(int index, String word) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addWordToIndex(int index, long elementId) {
+        throw readOnly();
+    }
+
+    /**
+     * @deprecated VocabCache已经废弃了这个方法，改用addToken
+     */
+    @Override
+    @Deprecated
+    public void putVocabWord(String word) {
+        addToken(new VocabWord(1.0, word));
+    }
+
+    @Override
+    public void incrementDocCount(String word, long howMuch) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setCountForDoc(String word, long count) {
+        throw readOnly();
+    }
+
+    @Override
+    public void incrementTotalDocCount() {
+        throw readOnly();
+    }
+
+    @Override
+    public void incrementTotalDocCount(long by) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addToken(VocabWord element) {
+        throw readOnly();
+    }
+
+    @Override
+    public void importVocabulary(VocabCache<VocabWord> vocabCache) {
+        throw readOnly();
+    }
+
+    @Override
+    public void updateWordsOccurrences() {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeElement(String label) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeElement(VocabWord element) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("词表是只读的");
+    }
+}
@@ -0,0 +1,30 @@
+package com.msg.embedding;
+
+/**
+ * 能把词向量直接拷贝到float数组里的词向量表
+ * <p>
+ * 构建CNN输入张量时逐词调用getWordVectorMatrix会为每个词创建一个INDArray，
+ * 实现了这个接口的词向量表可以直接把数据写进输入缓冲区
+ */
+public interface WordVectorTable {
+
+    /**
+     * @return 词向量维度
+     */
+    int vectorSize();
+
+    /**
+     * 把词向量拷贝到dest[offset, offset + vectorSize)
+     *
+     * @param word   词
+     * @param dest   目标数组
+     * @param offset 起始下标
+     * @return 词不存在时返回false，dest不会被修改
+     */
+    boolean copyVector(String word, float[] dest, int offset);
+
+    /**
+     * 把第index行词向量拷贝到dest[offset, offset + vectorSize)，index与WordVectors.indexOf一致
+     */
+    void copyRow(int index, float[] dest, int offset);
+}
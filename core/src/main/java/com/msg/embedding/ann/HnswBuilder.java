@@ -0,0 +1,392 @@
+package com.msg.embedding.ann;
+
+import com.msg.embedding.WordVectorTable;
+import com.msg.embedding.mmap.MappedWordVectors;
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 在堆上逐个插入词向量构建HNSW图，构建完成后写成HnswIndex可以直接内存映射的文件
+ * <p>
+ * 文件布局(小端序):
+ * <pre>
+ * 头部 128字节: magic, version, 词数, 维度, m, 第0层最大邻居数, 最高层, 入口节点, 哈希表大小, 保留,
+ *              哈希表偏移, 词偏移表偏移, 第0层偏移, 上层下标偏移, 上层偏移, 词内容偏移, 向量偏移
+ * 哈希表      int[哈希表大小]，开放寻址，存放词的下标，空槽为-1，哈希函数和MappedWordVectors相同
+ * 词偏移表    int[词数 + 1]
+ * 第0层       每个节点int[第0层最大邻居数 + 1]，第一个是邻居数
+ * 上层下标    int[词数]，节点在上层区域中的起始下标，只在第0层的节点为-1
+ * 上层        每个节点在第1层到它所在的最高层，每层int[m + 1]，第一个是邻居数
+ * 词内容      所有词的UTF-8字节
+ * 向量        归一化后的float[词数 * 维度]，起始位置按64字节对齐
+ * </pre>
+ * 构建是单线程的，插入一个节点的耗时主要由efConstruction决定
+ */
+@Slf4j
+public class HnswBuilder extends HnswGraph {
+    static final int MAGIC = 0x484E5331;        //"HNS1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+    static final int ALIGNMENT = 64;
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+
+    private final int capacity;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final Random random;
+    private final String[] words;
+    private final Map<String, Integer> indexes;
+    private final float[] vectors;
+    private final int[] layer0;
+    private final int[][] upper;
+    private final VisitedSet visited = new VisitedSet();
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param capacity       最多插入的词数
+     * @param dimension      向量维度
+     * @param m              第1层以上每个节点的最大邻居数，第0层是2m，越大召回率越高，索引也越大
+     * @param efConstruction 插入时搜索的候选数，越大图的质量越好，构建越慢
+     * @param seed           随机数种子，决定每个节点所在的层
+     */
+    public HnswBuilder(int capacity, int dimension, int m, int efConstruction, long seed) {
+        if ((long) capacity * dimension > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("词表太大，向量超过单个数组的容量: " + capacity + " * " + dimension);
+        }
+        if (m < 2) {
+            throw new IllegalArgumentException("m至少为2: " + m);
+        }
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelFactor = 1 / Math.log(m);
+        this.random = new Random(seed);
+        this.words = new String[capacity];
+        this.indexes = new HashMap<>(capacity * 2);
+        this.vectors = new float[capacity * dimension];
+        this.layer0 = new int[capacity * (maxM0 + 1)];
+        this.upper = new int[capacity][];
+    }
+
+    /**
+     * 用默认参数为词表中的所有词构建索引
+     */
+    public static HnswBuilder build(WordVectors source) {
+        return build(source, DEFAULT_M, DEFAULT_EF_CONSTRUCTION);
+    }
+
+    /**
+     * 按词表下标的顺序把所有词插入索引
+     *
+     * @param source 已经加载的词向量，Word2Vec或者WordVectorTable的实现
+     */
+    public static HnswBuilder build(WordVectors source, int m, int efConstruction) {
+        VocabCache<?> vocab = source.vocab();
+        int numWords = vocab.numWords();
+        if (numWords == 0) {
+            throw new IllegalArgumentException("词表为空");
+        }
+        int dimension = source instanceof WordVectorTable
+                ? ((WordVectorTable) source).vectorSize()
+                : (int) source.getWordVectorMatrix(vocab.wordAtIndex(0)).length();
+        long start = System.currentTimeMillis();
+        HnswBuilder builder = new HnswBuilder(numWords, dimension, m, efConstruction, 42);
+        float[] vector = new float[dimension];
+        for (int i = 0; i < numWords; i++) {
+            String word = vocab.wordAtIndex(i);
+            if (source instanceof WordVectorTable) {
+                ((WordVectorTable) source).copyVector(word, vector, 0);
+            } else {
+                vector = source.getWordVectorMatrix(word).toFloatVector();
+            }
+            builder.add(word, vector);
+            if ((i + 1) % 100000 == 0) {
+                log.info("已插入 " + (i + 1) + "/" + numWords + " 个词，耗时:" + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        log.info("构建HNSW索引，词数:" + builder.size + "，维度:" + dimension + "，m:" + m + "，efConstruction:" + efConstruction
+                + "，层数:" + (builder.maxLevel + 1) + "，耗时:" + (System.currentTimeMillis() - start) + "ms");
+        return builder;
+    }
+
+    /**
+     * 插入一个词向量，重复的词只保留第一次出现的
+     *
+     * @return 是否插入
+     */
+    public boolean add(String word, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("词向量维度不一致:" + word + " " + vector.length + " != " + dimension);
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("超过索引容量:" + capacity);
+        }
+        if (indexes.containsKey(word)) {
+            return false;
+        }
+        int node = size++;
+        words[node] = word;
+        indexes.put(word, node);
+        float[] query = new float[dimension];
+        normalize(vector, query);
+        System.arraycopy(query, 0, vectors, node * dimension, dimension);
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+        if (level > 0) {
+            upper[node] = new int[level * (m + 1)];
+        }
+        insert(node, level, query);
+        return true;
+    }
+
+    private void insert(int node, int level, float[] query) {
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedy(query, current, layer);
+        }
+        int[] entries = {current};
+        int entryCount = 1;
+        int[] found = new int[efConstruction];
+        float[] scores = new float[efConstruction];
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            int count = searchLayer(query, entries, entryCount, efConstruction, layer, visited).drainDescending(found, scores);
+            int[] selected = selectNeighbors(found, scores, count, layer == 0 ? maxM0 : m);
+            for (int neighbor : selected) {
+                appendNeighbor(node, layer, neighbor);
+                connect(neighbor, node, layer);
+            }
+            entries = found.clone();
+            entryCount = count;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 启发式地选择邻居: 候选按相似度从高到低，只有当它和查询点的相似度高于和所有已选邻居的相似度时才保留，
+     * 这样邻居分布在不同的方向上，图在聚簇之间也保持连通
+     *
+     * @param candidates 按相似度从高到低排列
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int count, int max) {
+        int[] selected = new int[Math.min(count, max)];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            int candidate = candidates[i];
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (similarity(candidate, selected[j]) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * 给node添加邻居neighbor，邻居数超过上限时重新选择
+     */
+    private void connect(int node, int neighbor, int layer) {
+        int max = layer == 0 ? maxM0 : m;
+        int count = neighborCount(node, layer);
+        if (count < max) {
+            appendNeighbor(node, layer, neighbor);
+            return;
+        }
+        NodeQueue queue = new NodeQueue(count + 1, false);
+        float[] query = new float[dimension];
+        System.arraycopy(vectors, node * dimension, query, 0, dimension);
+        queue.push(neighbor, similarity(query, neighbor));
+        for (int i = 0; i < count; i++) {
+            int existing = neighbor(node, layer, i);
+            queue.push(existing, similarity(query, existing));
+        }
+        int[] candidates = new int[count + 1];
+        float[] scores = new float[count + 1];
+        queue.drainDescending(candidates, scores);
+        int[] selected = selectNeighbors(candidates, scores, count + 1, max);
+        int[] block = block(node, layer);
+        int base = base(node, layer);
+        block[base] = selected.length;
+        System.arraycopy(selected, 0, block, base + 1, selected.length);
+    }
+
+    private void appendNeighbor(int node, int layer, int neighbor) {
+        int[] block = block(node, layer);
+        int base = base(node, layer);
+        block[base + 1 + block[base]] = neighbor;
+        block[base]++;
+    }
+
+    private int[] block(int node, int layer) {
+        return layer == 0 ? layer0 : upper[node];
+    }
+
+    private int base(int node, int layer) {
+        return layer == 0 ? node * (maxM0 + 1) : (layer - 1) * (m + 1);
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int dimension() {
+        return dimension;
+    }
+
+    @Override
+    int neighborCount(int node, int layer) {
+        return block(node, layer)[base(node, layer)];
+    }
+
+    @Override
+    int neighbor(int node, int layer, int i) {
+        return block(node, layer)[base(node, layer) + 1 + i];
+    }
+
+    @Override
+    float similarity(float[] query, int node) {
+        float dot = 0;
+        int offset = node * dimension;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return dot;
+    }
+
+    private float similarity(int a, int b) {
+        float dot = 0;
+        int offsetA = a * dimension;
+        int offsetB = b * dimension;
+        for (int i = 0; i < dimension; i++) {
+            dot += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return dot;
+    }
+
+    /**
+     * 写到同目录下的临时文件后原子替换
+     */
+    public void write(String path) throws IOException {
+        File target = FileUtil.writeAtomically(path, this::writeTo);
+        log.info("写出HNSW索引:" + target + "，大小:" + target.length() + "字节");
+    }
+
+    private void writeTo(File file) throws IOException {
+        int tableSize = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        byte[][] bytes = new byte[size][];
+        long wordsLength = 0;
+        for (int i = 0; i < size; i++) {
+            bytes[i] = words[i].getBytes(StandardCharsets.UTF_8);
+            wordsLength += bytes[i].length;
+            int slot = MappedWordVectors.hash(bytes[i]) & (tableSize - 1);
+            while (table[slot] != -1) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = i;
+        }
+        int[] upperOffsets = new int[size];
+        long upperLength = 0;
+        for (int i = 0; i < size; i++) {
+            upperOffsets[i] = null == upper[i] ? -1 : (int) upperLength;
+            upperLength += null == upper[i] ? 0 : upper[i].length;
+        }
+
+        long tableOffset = HEADER_SIZE;
+        long wordOffsetsOffset = tableOffset + 4L * tableSize;
+        long layer0Offset = wordOffsetsOffset + 4L * (size + 1);
+        long upperOffsetsOffset = layer0Offset + 4L * size * (maxM0 + 1);
+        long upperOffset = upperOffsetsOffset + 4L * size;
+        long wordsOffset = upperOffset + 4L * upperLength;
+        long vectorsOffset = (wordsOffset + wordsLength + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        if (vectorsOffset > Integer.MAX_VALUE) {
+            throw new IOException("词表太大，索引部分超过2GB");
+        }
+
+        try (FileChannel out = new RandomAccessFile(file, "rw").getChannel()) {
+            out.truncate(0);
+            ByteBuffer meta = ByteBuffer.allocate((int) vectorsOffset).order(ByteOrder.LITTLE_ENDIAN);
+            meta.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(dimension).putInt(m).putInt(maxM0)
+                    .putInt(maxLevel).putInt(entryPoint).putInt(tableSize).putInt(0);
+            meta.putLong(tableOffset).putLong(wordOffsetsOffset).putLong(layer0Offset).putLong(upperOffsetsOffset)
+                    .putLong(upperOffset).putLong(wordsOffset).putLong(vectorsOffset);
+            meta.position((int) tableOffset);
+            for (int slot : table) {
+                meta.putInt(slot);
+            }
+            int offset = 0;
+            meta.putInt(offset);
+            for (byte[] word : bytes) {
+                offset += word.length;
+                meta.putInt(offset);
+            }
+            for (int i = 0; i < size * (maxM0 + 1); i++) {
+                meta.putInt(layer0[i]);
+            }
+            for (int upperOffsetOfNode : upperOffsets) {
+                meta.putInt(upperOffsetOfNode);
+            }
+            for (int i = 0; i < size; i++) {
+                if (null != upper[i]) {
+                    for (int value : upper[i]) {
+                        meta.putInt(value);
+                    }
+                }
+            }
+            for (byte[] word : bytes) {
+                meta.put(word);
+            }
+            meta.clear();
+            while (meta.hasRemaining()) {
+                out.write(meta);
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            int floatsPerChunk = chunk.capacity() / 4;
+            int total = size * dimension;
+            for (int from = 0; from < total; from += floatsPerChunk) {
+                int length = Math.min(floatsPerChunk, total - from);
+                chunk.clear();
+                chunk.asFloatBuffer().put(vectors, from, length);
+                chunk.limit(length * 4);
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.msg.embedding.ann;
+
+/**
+ * HNSW(Hierarchical Navigable Small World)图的搜索算法，构建时和加载后查询共用
+ * <p>
+ * 所有向量都已经归一化，内积就是余弦相似度。第0层包含所有节点，每个节点以指数衰减的概率出现在更高的层上，
+ * 查询从最高层的入口节点开始逐层贪心地向查询向量靠近，到第0层时做宽度为ef的best-first搜索
+ */
+abstract class HnswGraph {
+
+    /**
+     * @return 节点数
+     */
+    abstract int size();
+
+    /**
+     * @return 向量维度
+     */
+    abstract int dimension();
+
+    /**
+     * @return 第layer层上node的邻居数
+     */
+    abstract int neighborCount(int node, int layer);
+
+    /**
+     * @return 第layer层上node的第i个邻居
+     */
+    abstract int neighbor(int node, int layer, int i);
+
+    /**
+     * @param query 归一化的查询向量
+     * @return 查询向量和node的余弦相似度
+     */
+    abstract float similarity(float[] query, int node);
+
+    /**
+     * 从entry开始在layer层上每次移动到最相似的邻居，直到没有更相似的邻居
+     */
+    int greedy(float[] query, int entry, int layer) {
+        int current = entry;
+        float best = similarity(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int node = current;
+            int count = neighborCount(node, layer);
+            for (int i = 0; i < count; i++) {
+                int candidate = neighbor(node, layer, i);
+                float score = similarity(query, candidate);
+                if (score > best) {
+                    best = score;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在layer层上从entries出发做best-first搜索，保留最相似的ef个节点
+     *
+     * @return 堆顶是相似度最低的结果
+     */
+    NodeQueue searchLayer(float[] query, int[] entries, int entryCount, int ef, int layer, VisitedSet visited) {
+        visited.clear(size());
+        NodeQueue candidates = new NodeQueue(ef * 2, true);
+        NodeQueue results = new NodeQueue(ef + 1, false);
+        for (int i = 0; i < entryCount; i++) {
+            int entry = entries[i];
+            if (visited.add(entry)) {
+                float score = similarity(query, entry);
+                candidates.push(entry, score);
+                results.push(entry, score);
+                if (results.size() > ef) {
+                    results.pop();
+                }
+            }
+        }
+        while (!candidates.isEmpty()) {
+            //剩下的候选都不可能比当前结果中最差的更好
+            if (results.size() >= ef && candidates.topScore() < results.topScore()) {
+                break;
+            }
+            int node = candidates.pop();
+            int count = neighborCount(node, layer);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbor(node, layer, i);
+                if (!visited.add(neighbor)) {
+                    continue;
+                }
+                float score = similarity(query, neighbor);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, score);
+                    results.push(neighbor, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 把向量归一化到dest，零向量保持为零
+     */
+    static void normalize(float[] vector, float[] dest) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            dest[i] = vector[i] * scale;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.msg.embedding.ann;
+
+import com.msg.embedding.mmap.MappedWordVectors;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 内存映射HnswBuilder写出的索引文件，回答余弦相似度的近似top-k查询
+ * <p>
+ * 打开时只读取头部，图和向量都直接从映射内存里读，同一台机器上的多个JVM共享操作系统的页缓存。
+ * 查询时第0层的候选数ef决定召回率和速度的权衡: ef越大召回率越高，查询越慢，ef不会小于k
+ * <p>
+ * 查询是线程安全的，每个线程有自己的已访问节点集合
+ */
+@Slf4j
+public class HnswIndex extends HnswGraph {
+    public static final String SUFFIX = ".hnsw";
+    public static final int DEFAULT_EF = 64;
+
+    private final String path;
+    private final int size;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int maxLevel;
+    private final int entryPoint;
+    private final int tableSize;
+    private final int tableOffset;
+    private final int wordOffsetsOffset;
+    private final int layer0Offset;
+    private final int upperOffsetsOffset;
+    private final int upperOffset;
+    private final int wordsOffset;
+    private final transient ByteBuffer meta;
+    private final transient FloatBuffer[] segments;
+    private final int rowsPerSegment;
+    private final ThreadLocal<VisitedSet> visited = ThreadLocal.withInitial(VisitedSet::new);
+    private volatile int ef = DEFAULT_EF;
+
+    private HnswIndex(String path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HnswBuilder.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != HnswBuilder.MAGIC || header.getInt() != HnswBuilder.VERSION) {
+                throw new IOException("不是HNSW索引文件:" + path);
+            }
+            size = header.getInt();
+            dimension = header.getInt();
+            m = header.getInt();
+            maxM0 = header.getInt();
+            maxLevel = header.getInt();
+            entryPoint = header.getInt();
+            tableSize = header.getInt();
+            header.getInt();
+            tableOffset = (int) header.getLong();
+            wordOffsetsOffset = (int) header.getLong();
+            layer0Offset = (int) header.getLong();
+            upperOffsetsOffset = (int) header.getLong();
+            upperOffset = (int) header.getLong();
+            wordsOffset = (int) header.getLong();
+            long vectorsOffset = header.getLong();
+
+            meta = channel.map(FileChannel.MapMode.READ_ONLY, 0, vectorsOffset).order(ByteOrder.LITTLE_ENDIAN);
+
+            //单个MappedByteBuffer最大2GB，向量按整行切分成多段映射
+            long rowBytes = 4L * dimension;
+            rowsPerSegment = (int) (Integer.MAX_VALUE / rowBytes);
+            int segmentCount = (int) ((size + (long) rowsPerSegment - 1) / rowsPerSegment);
+            segments = new FloatBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long firstRow = (long) i * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, size - firstRow);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, vectorsOffset + firstRow * rowBytes, rows * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+        }
+    }
+
+    /**
+     * 打开索引文件
+     */
+    public static HnswIndex open(String path) throws IOException {
+        long start = System.currentTimeMillis();
+        HnswIndex index = new HnswIndex(path);
+        log.info("映射HNSW索引:" + path + "，词数:" + index.size + "，维度:" + index.dimension + "，层数:" + (index.maxLevel + 1)
+                + "，耗时:" + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * @return 模型文件旁边的索引文件路径
+     */
+    public static String indexPath(String modelPath) {
+        return modelPath + SUFFIX;
+    }
+
+    /**
+     * 用默认参数打开模型旁边的索引，索引不存在或者比模型旧时重新构建
+     */
+    public static HnswIndex forModel(WordVectors vectors, String modelPath) throws IOException {
+        return forModel(vectors, modelPath, HnswBuilder.DEFAULT_M, HnswBuilder.DEFAULT_EF_CONSTRUCTION);
+    }
+
+    /**
+     * 打开模型旁边的索引，索引不存在或者比模型旧时重新构建
+     *
+     * @param vectors   已经从modelPath加载的词向量
+     * @param modelPath 模型文件路径，索引保存在modelPath + ".hnsw"
+     */
+    public static HnswIndex forModel(WordVectors vectors, String modelPath, int m, int efConstruction) throws IOException {
+        File index = new File(indexPath(modelPath));
+        if (!index.isFile() || index.lastModified() < new File(modelPath).lastModified()) {
+            HnswBuilder.build(vectors, m, efConstruction).write(index.getPath());
+        }
+        return open(index.getPath());
+    }
+
+    /**
+     * 设置默认的查询候选数
+     */
+    public void setEf(int ef) {
+        this.ef = Math.max(1, ef);
+    }
+
+    public int getEf() {
+        return ef;
+    }
+
+    /**
+     * @param query 查询向量，不需要归一化
+     * @param k     返回的节点数
+     * @param ef    第0层的候选数
+     * @return 按余弦相似度从高到低排列的节点下标
+     */
+    public int[] search(float[] query, int k, int ef) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("查询向量维度不一致:" + query.length + " != " + dimension);
+        }
+        float[] normalized = new float[dimension];
+        normalize(query, normalized);
+        return searchNormalized(normalized, k, ef);
+    }
+
+    private int[] searchNormalized(float[] query, int k, int ef) {
+        if (size == 0 || k <= 0) {
+            return new int[0];
+        }
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = greedy(query, current, layer);
+        }
+        NodeQueue results = searchLayer(query, new int[]{current}, 1, Math.max(ef, k), 0, visited.get());
+        while (results.size() > k) {
+            results.pop();
+        }
+        int[] nodes = new int[results.size()];
+        results.drainDescending(nodes, null);
+        return nodes;
+    }
+
+    /**
+     * 在所有向量上逐个计算相似度的精确top-k，用来评估近似查询的召回率
+     */
+    public int[] exactSearch(float[] query, int k) {
+        float[] normalized = new float[dimension];
+        normalize(query, normalized);
+        NodeQueue results = new NodeQueue(k + 1, false);
+        for (int node = 0; node < size; node++) {
+            float score = similarity(normalized, node);
+            if (results.size() < k || score > results.topScore()) {
+                results.push(node, score);
+                if (results.size() > k) {
+                    results.pop();
+                }
+            }
+        }
+        int[] nodes = new int[results.size()];
+        results.drainDescending(nodes, null);
+        return nodes;
+    }
+
+    /**
+     * 和WordVectors.wordsNearest一样，返回最相似的top个词，不包括word本身
+     *
+     * @return word不在索引中时返回空列表
+     */
+    public List<String> wordsNearest(String word, int top) {
+        int node = indexOf(word);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        int[] nodes = searchNormalized(vector(node), top + 1, ef);
+        List<String> words = new ArrayList<>(top);
+        for (int i = 0; i < nodes.length && words.size() < top; i++) {
+            if (nodes[i] != node) {
+                words.add(wordAt(nodes[i]));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @return 和向量最相似的top个词
+     */
+    public List<String> wordsNearest(float[] query, int top) {
+        int[] nodes = search(query, top, ef);
+        List<String> words = new ArrayList<>(nodes.length);
+        for (int node : nodes) {
+            words.add(wordAt(node));
+        }
+        return words;
+    }
+
+    /**
+     * @return 第node个词归一化后的向量
+     */
+    public float[] vector(int node) {
+        float[] vector = new float[dimension];
+        FloatBuffer segment = segments[node / rowsPerSegment];
+        int base = (node % rowsPerSegment) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = segment.get(base + i);
+        }
+        return vector;
+    }
+
+    public String wordAt(int node) {
+        int from = meta.getInt(wordOffsetsOffset + 4 * node);
+        int to = meta.getInt(wordOffsetsOffset + 4 * (node + 1));
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = meta.duplicate();
+        view.position(wordsOffset + from);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean wordEquals(int node, byte[] bytes) {
+        int from = meta.getInt(wordOffsetsOffset + 4 * node);
+        int to = meta.getInt(wordOffsetsOffset + 4 * (node + 1));
+        if (to - from != bytes.length) {
+            return false;
+        }
+        int base = wordsOffset + from;
+        for (int i = 0; i < bytes.length; i++) {
+            if (meta.get(base + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 词在索引中的下标，不存在时返回-1
+     */
+    public int indexOf(String word) {
+        if (null == word) {
+            return -1;
+        }
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int mask = tableSize - 1;
+        int slot = MappedWordVectors.hash(bytes) & mask;
+        int node;
+        while ((node = meta.getInt(tableOffset + 4 * slot)) != -1) {
+            if (wordEquals(node, bytes)) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    int neighborCount(int node, int layer) {
+        return meta.getInt(blockOffset(node, layer));
+    }
+
+    @Override
+    int neighbor(int node, int layer, int i) {
+        return meta.getInt(blockOffset(node, layer) + 4 * (1 + i));
+    }
+
+    private int blockOffset(int node, int layer) {
+        if (layer == 0) {
+            return layer0Offset + 4 * node * (maxM0 + 1);
+        }
+        int start = meta.getInt(upperOffsetsOffset + 4 * node);
+        return upperOffset + 4 * (start + (layer - 1) * (m + 1));
+    }
+
+    @Override
+    float similarity(float[] query, int node) {
+        FloatBuffer segment = segments[node / rowsPerSegment];
+        int base = (node % rowsPerSegment) * dimension;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * segment.get(base + i);
+        }
+        return dot;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
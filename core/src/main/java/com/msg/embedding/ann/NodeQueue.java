@@ -0,0 +1,107 @@
+package com.msg.embedding.ann;
+
+import java.util.Arrays;
+
+/**
+ * 按相似度排序的节点二叉堆，节点和相似度分别存放在int和float数组里，避免装箱
+ */
+final class NodeQueue {
+    private final boolean bestFirst;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+
+    /**
+     * @param capacity  初始容量，不够时自动扩容
+     * @param bestFirst true表示堆顶是相似度最高的节点，false表示堆顶是相似度最低的节点
+     */
+    NodeQueue(int capacity, boolean bestFirst) {
+        this.bestFirst = bestFirst;
+        this.nodes = new int[Math.max(1, capacity)];
+        this.scores = new float[nodes.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int top() {
+        return nodes[0];
+    }
+
+    float topScore() {
+        return scores[0];
+    }
+
+    private boolean above(float a, float b) {
+        return bestFirst ? a > b : a < b;
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!above(score, scores[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+
+    /**
+     * 移除堆顶
+     *
+     * @return 堆顶的节点
+     */
+    int pop() {
+        int result = nodes[0];
+        size--;
+        int node = nodes[size];
+        float score = scores[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && above(scores[child + 1], scores[child])) {
+                child++;
+            }
+            if (!above(scores[child], score)) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+        return result;
+    }
+
+    /**
+     * 堆顶是相似度最低的节点时，清空堆并按相似度从高到低写出
+     *
+     * @return 写出的节点数
+     */
+    int drainDescending(int[] nodesOut, float[] scoresOut) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            if (null != scoresOut) {
+                scoresOut[i] = topScore();
+            }
+            nodesOut[i] = pop();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,35 @@
+package com.msg.embedding.ann;
+
+/**
+ * 搜索时已访问节点的集合，用版本号标记，每次查询清空只需要把版本号加一
+ */
+final class VisitedSet {
+    private int[] marks = new int[0];
+    private int version;
+
+    /**
+     * 清空集合，节点数变化时重新分配
+     */
+    void clear(int size) {
+        if (marks.length < size) {
+            marks = new int[size];
+            version = 0;
+        }
+        version++;
+        if (version == Integer.MAX_VALUE) {
+            java.util.Arrays.fill(marks, 0);
+            version = 1;
+        }
+    }
+
+    /**
+     * @return 节点之前没有访问过时返回true
+     */
+    boolean add(int node) {
+        if (marks[node] == version) {
+            return false;
+        }
+        marks[node] = version;
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.msg.embedding.compact;
+
+import com.msg.classifier.cnn.CnnTextClassifier;
+import com.msg.util.FileUtil;
+import com.msg.util.TrainTestSplit;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizer.Tokenizer;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 根据训练语料裁剪词向量表
+ * <p>
+ * 保留语料中出现过的词，再加上完整词向量表中最靠前(fastText的.vec按词频降序排列)的topN个词，
+ * 可以选择float16或int8存储进一步压缩
+ */
+@Slf4j
+public class EmbeddingPruner {
+
+    private EmbeddingPruner() {
+
+    }
+
+    /**
+     * 统计语料的词表
+     *
+     * @param lines            语料，每行为"分好词的文本 labelSplit 标签"
+     * @param labelSplit       文本和标签的拆分符
+     * @param tokenizerFactory 和分类器一致的分词器
+     * @return 语料中出现过的词
+     */
+    public static Set<String> corpusVocabulary(List<String> lines, String labelSplit, TokenizerFactory tokenizerFactory) {
+        Set<String> vocabulary = new HashSet<>();
+        for (String line : lines) {
+            int split = line.indexOf(labelSplit);
+            String text = split < 0 ? line : line.substring(0, split);
+            Tokenizer tokenizer = tokenizerFactory.create(text);
+            while (tokenizer.hasMoreTokens()) {
+                vocabulary.add(tokenizer.nextToken());
+            }
+        }
+        return vocabulary;
+    }
+
+    /**
+     * 裁剪词向量表
+     *
+     * @param full        完整的词向量表
+     * @param corpusWords 语料中出现过的词
+     * @param topN        额外保留完整词向量表中前topN个高频词
+     * @param storage     存储方式
+     * @return 紧凑词向量表
+     */
+    public static QuantizedWordVectors prune(WordVectors full, Collection<String> corpusWords, int topN,
+                                             QuantizedWordVectors.Storage storage) {
+        Set<String> words = new LinkedHashSet<>();
+        int numWords = full.vocab().numWords();
+        for (int i = 0; i < Math.min(topN, numWords); i++) {
+            words.add(full.vocab().wordAtIndex(i));
+        }
+        words.addAll(corpusWords);
+        QuantizedWordVectors pruned = QuantizedWordVectors.from(full, words, storage);
+        log.info("裁剪词向量: " + numWords + " -> " + pruned.numWords() + "，存储方式:" + storage);
+        return pruned;
+    }
+
+    /**
+     * 生成紧凑词向量表，并输出节省的内存以及在TrainTestSplit测试集上相对完整词向量表的准确率变化
+     * <p>
+     * 参数: 训练文本路径 词向量路径 模型路径 输出路径 [topN] [FLOAT32|FLOAT16|INT8]
+     */
+    public static void main(String[] args) throws IOException {
+        String textPath = args[0];
+        String vectorPath = args[1];
+        String modelPath = args[2];
+        String outputPath = args[3];
+        int topN = args.length > 4 ? Integer.parseInt(args[4]) : 50000;
+        QuantizedWordVectors.Storage storage = args.length > 5
+                ? QuantizedWordVectors.Storage.valueOf(args[5]) : QuantizedWordVectors.Storage.INT8;
+
+        WordVectors full = CnnTextClassifier.loadWordVectors(vectorPath);
+        List<String> lines = FileUtil.readFileToArray(textPath);
+        Set<String> corpusWords = corpusVocabulary(lines, "__label__", new DefaultTokenizerFactory());
+        QuantizedWordVectors pruned = prune(full, corpusWords, topN, storage);
+        pruned.save(outputPath);
+
+        //和训练时相同的随机种子，得到同样的测试集
+        TrainTestSplit.TrainTest trainTest = TrainTestSplit.split(lines, 0.2f, "__label__", new Random(12345));
+        Evaluation fullEvaluation = new CnnTextClassifier(textPath, full, modelPath)
+                .evaluate(trainTest.getTestX(), trainTest.getTestY());
+        Evaluation prunedEvaluation = new CnnTextClassifier(textPath, pruned, modelPath)
+                .evaluate(trainTest.getTestX(), trainTest.getTestY());
+
+        int vectorSize = pruned.vectorSize();
+        long fullBytes = 4L * full.vocab().numWords() * vectorSize;
+        long prunedBytes = pruned.memoryBytes();
+        System.out.println("完整词向量: " + full.vocab().numWords() + " 个词, " + fullBytes / (1024 * 1024) + " MB");
+        System.out.println("紧凑词向量: " + pruned.numWords() + " 个词, " + prunedBytes / (1024 * 1024) + " MB (" + storage + ")");
+        System.out.println("节省内存: " + (fullBytes - prunedBytes) / (1024 * 1024) + " MB, "
+                + String.format("%.2f%%", 100.0 * (fullBytes - prunedBytes) / fullBytes));
+        System.out.println("准确率: 完整 " + String.format("%.4f", fullEvaluation.accuracy())
+                + ", 紧凑 " + String.format("%.4f", prunedEvaluation.accuracy())
+                + ", 变化 " + String.format("%+.4f", prunedEvaluation.accuracy() - fullEvaluation.accuracy()));
+    }
+}
@@ -0,0 +1,353 @@
+package com.msg.embedding.compact;
+
+import com.msg.embedding.AbstractWordVectorTable;
+import com.msg.embedding.WordVectorTable;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.*;
+
+/**
+ * 放在堆上的紧凑词向量表，支持float32、float16和带每行缩放系数的int8三种存储方式
+ * <p>
+ * 向量在getWordVectorMatrix或copyVector时才反量化成float，所以CnnSentenceDataSetIterator和SentenceVectorizer
+ * 构建输入张量时都是边查边反量化，不需要额外的float副本
+ */
+@Slf4j
+public class QuantizedWordVectors extends AbstractWordVectorTable {
+    private static final long serialVersionUID = 1L;
+
+    static final int MAGIC = 0x51575631;        //"QWV1"
+    private static final int IO_CHUNK = 1 << 16;    //读写向量数据时每次转换的字节数，向量数据超过2GB时也不需要一次分配
+
+    /**
+     * 向量存储方式
+     */
+    public enum Storage {
+        FLOAT32,
+        FLOAT16,
+        INT8        //每行按最大绝对值缩放到[-127, 127]
+    }
+
+    private final Storage storage;
+    private final int vectorSize;
+    private final String[] words;
+    private final Map<String, Integer> index;
+    private float[] floats;
+    private short[] halves;
+    private byte[] bytes;
+    private float[] scales;
+
+    private QuantizedWordVectors(Storage storage, int vectorSize, String[] words) {
+        this.storage = storage;
+        this.vectorSize = vectorSize;
+        this.words = words;
+        if ((long) words.length * vectorSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("词数乘以维度超过了数组的上限:" + words.length + " * " + vectorSize);
+        }
+        this.index = new HashMap<>(words.length * 2);
+        for (int i = 0; i < words.length; i++) {
+            index.put(words[i], i);
+        }
+        int size = words.length * vectorSize;
+        switch (storage) {
+            case FLOAT32:
+                floats = new float[size];
+                break;
+            case FLOAT16:
+                halves = new short[size];
+                break;
+            case INT8:
+                bytes = new byte[size];
+                scales = new float[words.length];
+                break;
+        }
+    }
+
+    /**
+     * 从完整的词向量表中抽取一部分词，按指定方式存储
+     *
+     * @param source  完整的词向量表
+     * @param words   要保留的词，词向量表中不存在的词会被忽略
+     * @param storage 存储方式
+     * @throws IllegalArgumentException words中没有一个词在词向量表中
+     */
+    public static QuantizedWordVectors from(WordVectors source, Collection<String> words, Storage storage) {
+        List<String> known = new ArrayList<>(words.size());
+        for (String word : words) {
+            if (source.hasWord(word)) {
+                known.add(word);
+            }
+        }
+        if (known.isEmpty()) {
+            throw new IllegalArgumentException("要保留的 " + words.size() + " 个词都不在词向量表中");
+        }
+        WordVectorTable table = source instanceof WordVectorTable ? (WordVectorTable) source : null;
+        int vectorSize = null != table ? table.vectorSize() : source.getWordVector(known.get(0)).length;
+        QuantizedWordVectors vectors = new QuantizedWordVectors(storage, vectorSize, known.toArray(new String[0]));
+        float[] row = new float[vectorSize];
+        for (int i = 0; i < known.size(); i++) {
+            if (null != table) {
+                table.copyVector(known.get(i), row, 0);
+            } else {
+                double[] vector = source.getWordVector(known.get(i));
+                for (int j = 0; j < vectorSize; j++) {
+                    row[j] = (float) vector[j];
+                }
+            }
+            vectors.writeRow(i, row);
+        }
+        return vectors;
+    }
+
+    private void writeRow(int row, float[] vector) {
+        int base = row * vectorSize;
+        switch (storage) {
+            case FLOAT32:
+                System.arraycopy(vector, 0, floats, base, vectorSize);
+                break;
+            case FLOAT16:
+                for (int i = 0; i < vectorSize; i++) {
+                    halves[base + i] = floatToHalf(vector[i]);
+                }
+                break;
+            case INT8:
+                float max = 0;
+                for (float v : vector) {
+                    max = Math.max(max, Math.abs(v));
+                }
+                float scale = max == 0 ? 1 : max / 127;
+                scales[row] = scale;
+                for (int i = 0; i < vectorSize; i++) {
+                    bytes[base + i] = (byte) Math.round(vector[i] / scale);
+                }
+                break;
+        }
+    }
+
+    @Override
+    protected void readRow(int row, float[] dest, int offset) {
+        int base = row * vectorSize;
+        switch (storage) {
+            case FLOAT32:
+                System.arraycopy(floats, base, dest, offset, vectorSize);
+                break;
+            case FLOAT16:
+                for (int i = 0; i < vectorSize; i++) {
+                    dest[offset + i] = halfToFloat(halves[base + i]);
+                }
+                break;
+            case INT8:
+                float scale = scales[row];
+                for (int i = 0; i < vectorSize; i++) {
+                    dest[offset + i] = bytes[base + i] * scale;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public int numWords() {
+        return words.length;
+    }
+
+    @Override
+    public String wordAt(int index) {
+        return words[index];
+    }
+
+    @Override
+    public int indexOf(String word) {
+        Integer i = index.get(word);
+        return null == i ? -1 : i;
+    }
+
+    @Override
+    public int vectorSize() {
+        return vectorSize;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return 向量数据占用的字节数，不包括词表本身
+     */
+    public long memoryBytes() {
+        long size = (long) words.length * vectorSize;
+        switch (storage) {
+            case FLOAT16:
+                return size * 2;
+            case INT8:
+                return size + 4L * words.length;
+            default:
+                return size * 4;
+        }
+    }
+
+    /**
+     * 保存到文件，向量数据按IO_CHUNK分块写出
+     */
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(storage.ordinal());
+            out.writeInt(words.length);
+            out.writeInt(vectorSize);
+            for (String word : words) {
+                out.writeUTF(word);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+            switch (storage) {
+                case FLOAT32:
+                    writeFloats(out, buffer, floats);
+                    break;
+                case FLOAT16:
+                    writeShorts(out, buffer, halves);
+                    break;
+                case INT8:
+                    writeFloats(out, buffer, scales);
+                    out.write(bytes);
+                    break;
+            }
+        }
+    }
+
+    private static void writeFloats(OutputStream out, ByteBuffer buffer, float[] values) throws IOException {
+        FloatBuffer floats = buffer.asFloatBuffer();
+        for (int from = 0; from < values.length; from += floats.capacity()) {
+            int length = Math.min(floats.capacity(), values.length - from);
+            floats.clear();
+            floats.put(values, from, length);
+            out.write(buffer.array(), 0, length * 4);
+        }
+    }
+
+    private static void writeShorts(OutputStream out, ByteBuffer buffer, short[] values) throws IOException {
+        ShortBuffer shorts = buffer.asShortBuffer();
+        for (int from = 0; from < values.length; from += shorts.capacity()) {
+            int length = Math.min(shorts.capacity(), values.length - from);
+            shorts.clear();
+            shorts.put(values, from, length);
+            out.write(buffer.array(), 0, length * 2);
+        }
+    }
+
+    /**
+     * 从文件加载，向量数据按IO_CHUNK分块读入
+     */
+    public static QuantizedWordVectors load(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 20))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是紧凑词向量文件:" + path);
+            }
+            Storage storage = Storage.values()[in.readInt()];
+            String[] words = new String[in.readInt()];
+            int vectorSize = in.readInt();
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readUTF();
+            }
+            QuantizedWordVectors vectors = new QuantizedWordVectors(storage, vectorSize, words);
+            ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK);
+            switch (storage) {
+                case FLOAT32:
+                    readFloats(in, buffer, vectors.floats);
+                    break;
+                case FLOAT16:
+                    readShorts(in, buffer, vectors.halves);
+                    break;
+                case INT8:
+                    readFloats(in, buffer, vectors.scales);
+                    in.readFully(vectors.bytes);
+                    break;
+            }
+            log.info("加载紧凑词向量:" + path + "，词数:" + words.length + "，存储方式:" + storage);
+            return vectors;
+        }
+    }
+
+    private static void readFloats(DataInputStream in, ByteBuffer buffer, float[] values) throws IOException {
+        FloatBuffer floats = buffer.asFloatBuffer();
+        for (int from = 0; from < values.length; from += floats.capacity()) {
+            int length = Math.min(floats.capacity(), values.length - from);
+            in.readFully(buffer.array(), 0, length * 4);
+            floats.clear();
+            floats.get(values, from, length);
+        }
+    }
+
+    private static void readShorts(DataInputStream in, ByteBuffer buffer, short[] values) throws IOException {
+        ShortBuffer shorts = buffer.asShortBuffer();
+        for (int from = 0; from < values.length; from += shorts.capacity()) {
+            int length = Math.min(shorts.capacity(), values.length - from);
+            in.readFully(buffer.array(), 0, length * 2);
+            shorts.clear();
+            shorts.get(values, from, length);
+        }
+    }
+
+    /**
+     * 判断文件是否为紧凑词向量格式
+     */
+    public static boolean isQuantizedFile(String path) {
+        File file = new File(path);
+        if (!file.isFile() || file.length() < 16) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * float转半精度，舍入到最近
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7FFFFFFF;
+        int rounded = abs + 0x1000;
+        if (rounded >= 0x47800000) {
+            if (abs >= 0x47800000) {
+                if (abs < 0x7F800000) {
+                    return (short) (sign | 0x7C00);
+                }
+                return (short) (sign | 0x7C00 | ((bits & 0x007FFFFF) >>> 13));
+            }
+            return (short) (sign | 0x7BFF);
+        }
+        if (rounded >= 0x38800000) {
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (rounded < 0x33000000) {
+            return (short) sign;
+        }
+        int exponent = abs >>> 23;
+        return (short) (sign | ((((bits & 0x7FFFFF) | 0x800000) + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    /**
+     * 半精度转float
+     */
+    static float halfToFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exponent == 0) {
+            float value = mantissa * 5.9604645e-8f;       //非规格化数，mantissa * 2^-24
+            return sign == 0 ? value : -value;
+        }
+        if (exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,147 @@
+package com.msg.embedding.mmap;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 把词向量逐个写成MappedWordVectors可以直接内存映射的二进制格式
+ * <p>
+ * 文件布局(小端序):
+ * <pre>
+ * 头部 64字节: magic, version, 词数, 维度, 哈希表大小, 保留, 哈希表偏移, 词偏移表偏移, 词内容偏移, 向量矩阵偏移
+ * 哈希表      int[哈希表大小]，开放寻址，存放词的下标，空槽为-1
+ * 词偏移表    int[词数 + 1]，第i个词的UTF-8字节在词内容中的起止位置
+ * 词内容      所有词的UTF-8字节
+ * 向量矩阵    float[词数 * 维度]，按行连续存放，起始位置按64字节对齐
+ * </pre>
+ * 写入时向量先顺序写到临时文件，词表只在内存里保留到close时生成索引
+ */
+@Slf4j
+public class MappedVectorWriter implements Closeable {
+    static final int MAGIC = 0x57564D31;        //"WVM1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int ALIGNMENT = 64;
+
+    private final File target;
+    private final int vectorSize;
+    private final File matrixFile;
+    private final DataOutputStream matrixOut;
+    private final ByteBuffer rowBuffer;
+    private final List<byte[]> words = new ArrayList<>();
+    private final Set<String> seen = new HashSet<>();
+
+    public MappedVectorWriter(String targetPath, int vectorSize) throws IOException {
+        this.target = new File(targetPath);
+        this.vectorSize = vectorSize;
+        this.matrixFile = File.createTempFile(target.getName(), ".matrix", target.getAbsoluteFile().getParentFile());
+        this.matrixOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(matrixFile), 1 << 20));
+        this.rowBuffer = ByteBuffer.allocate(vectorSize * 4).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 追加一个词向量，重复的词只保留第一次出现的
+     *
+     * @return 是否写入
+     */
+    public boolean add(String word, float[] vector) throws IOException {
+        if (vector.length != vectorSize) {
+            throw new IllegalArgumentException("词向量维度不一致:" + word + " " + vector.length + " != " + vectorSize);
+        }
+        if (!seen.add(word)) {
+            return false;
+        }
+        words.add(word.getBytes(StandardCharsets.UTF_8));
+        rowBuffer.clear();
+        rowBuffer.asFloatBuffer().put(vector);
+        matrixOut.write(rowBuffer.array());
+        return true;
+    }
+
+    public int vectorSize() {
+        return vectorSize;
+    }
+
+    public int size() {
+        return words.size();
+    }
+
+    /**
+     * 生成索引并写出最终文件
+     */
+    @Override
+    public void close() throws IOException {
+        matrixOut.close();
+        seen.clear();
+        try {
+            writeTarget();
+        } finally {
+            if (!matrixFile.delete()) {
+                log.warn("删除临时文件失败:" + matrixFile);
+            }
+        }
+    }
+
+    private void writeTarget() throws IOException {
+        int vocabSize = words.size();
+        int tableSize = Integer.highestOneBit(Math.max(2, vocabSize) * 2 - 1) << 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < vocabSize; i++) {
+            int slot = MappedWordVectors.hash(words.get(i)) & (tableSize - 1);
+            while (table[slot] != -1) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = i;
+        }
+
+        long tableOffset = HEADER_SIZE;
+        long wordOffsetsOffset = tableOffset + 4L * tableSize;
+        long wordsOffset = wordOffsetsOffset + 4L * (vocabSize + 1);
+        long wordsLength = 0;
+        for (byte[] word : words) {
+            wordsLength += word.length;
+        }
+        long matrixOffset = (wordsOffset + wordsLength + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        if (matrixOffset > Integer.MAX_VALUE) {
+            throw new IOException("词表太大，索引部分超过2GB");
+        }
+
+        try (FileChannel out = new RandomAccessFile(target, "rw").getChannel();
+             FileChannel matrix = new FileInputStream(matrixFile).getChannel()) {
+            out.truncate(0);
+            ByteBuffer meta = ByteBuffer.allocate((int) matrixOffset).order(ByteOrder.LITTLE_ENDIAN);
+            meta.putInt(MAGIC).putInt(VERSION).putInt(vocabSize).putInt(vectorSize).putInt(tableSize).putInt(0);
+            meta.putLong(tableOffset).putLong(wordOffsetsOffset).putLong(wordsOffset).putLong(matrixOffset);
+            meta.position((int) tableOffset);
+            for (int slot : table) {
+                meta.putInt(slot);
+            }
+            int offset = 0;
+            meta.putInt(offset);
+            for (byte[] word : words) {
+                offset += word.length;
+                meta.putInt(offset);
+            }
+            for (byte[] word : words) {
+                meta.put(word);
+            }
+            meta.clear();
+            while (meta.hasRemaining()) {
+                out.write(meta);
+            }
+            long position = 0;
+            long size = matrix.size();
+            while (position < size) {
+                position += matrix.transferTo(position, size - position, out);
+            }
+        }
+        log.info("写出二进制词向量:" + target + "，词数:" + vocabSize + "，维度:" + vectorSize);
+    }
+}
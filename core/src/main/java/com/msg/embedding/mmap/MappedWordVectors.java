@@ -0,0 +1,254 @@
+package com.msg.embedding.mmap;
+
+import com.msg.embedding.AbstractWordVectorTable;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 通过FileChannel内存映射MappedVectorWriter写出的二进制词向量文件
+ * <p>
+ * 打开文件只需要读取头部，词的查找走文件里的哈希表，向量直接从映射内存里读，
+ * 不会把整个词向量表加载到堆上，同一台机器上的多个JVM共享操作系统的页缓存
+ * <p>
+ * getWordVectorMatrix返回的INDArray直接指向映射内存(零拷贝)，是只读的，不要对它做原地修改
+ */
+@Slf4j
+public class MappedWordVectors extends AbstractWordVectorTable {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final int vocabSize;
+    private final int vectorSize;
+    private final int tableSize;
+    private final int rowsPerSegment;
+    private final transient ByteBuffer meta;
+    private final transient MappedByteBuffer[] segments;
+    private final int tableOffset;
+    private final int wordOffsetsOffset;
+    private final int wordsOffset;
+    private final boolean zeroCopy;
+
+    private MappedWordVectors(String path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MappedVectorWriter.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MappedVectorWriter.MAGIC || header.getInt() != MappedVectorWriter.VERSION) {
+                throw new IOException("不是二进制词向量文件:" + path);
+            }
+            vocabSize = header.getInt();
+            vectorSize = header.getInt();
+            tableSize = header.getInt();
+            header.getInt();
+            tableOffset = (int) header.getLong();
+            wordOffsetsOffset = (int) header.getLong();
+            wordsOffset = (int) header.getLong();
+            long matrixOffset = header.getLong();
+
+            meta = channel.map(FileChannel.MapMode.READ_ONLY, 0, matrixOffset).order(ByteOrder.LITTLE_ENDIAN);
+
+            //单个MappedByteBuffer最大2GB，矩阵按整行切分成多段映射
+            long rowBytes = 4L * vectorSize;
+            rowsPerSegment = (int) (Integer.MAX_VALUE / rowBytes);
+            int segmentCount = (int) ((vocabSize + (long) rowsPerSegment - 1) / rowsPerSegment);
+            segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long firstRow = (long) i * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, vocabSize - firstRow);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, matrixOffset + firstRow * rowBytes, rows * rowBytes);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        zeroCopy = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * 打开二进制词向量文件
+     *
+     * @param path 文件路径
+     */
+    public static MappedWordVectors open(String path) throws IOException {
+        long start = System.currentTimeMillis();
+        MappedWordVectors vectors = new MappedWordVectors(path);
+        log.info("映射二进制词向量:" + path + "，词数:" + vectors.vocabSize + "，维度:" + vectors.vectorSize
+                + "，耗时:" + (System.currentTimeMillis() - start) + "ms");
+        return vectors;
+    }
+
+    /**
+     * 判断文件是否为二进制词向量格式
+     */
+    public static boolean isMappedFile(String path) {
+        File file = new File(path);
+        if (!file.isFile() || file.length() < MappedVectorWriter.HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return Integer.reverseBytes(in.readInt()) == MappedVectorWriter.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 把文本格式的词向量(fastText的.vec或者word2vec的文本格式)一次性转换成二进制格式
+     *
+     * @param vecPath 文本词向量路径，第一行可以是"词数 维度"的头部
+     * @param binPath 输出的二进制文件路径
+     */
+    public static void convert(String vecPath, String binPath) throws IOException {
+        long start = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(vecPath), StandardCharsets.UTF_8), 1 << 20)) {
+            MappedVectorWriter writer = null;
+            String line;
+            int lineNumber = 0;
+            int skipped = 0;
+            try {
+                while (null != (line = reader.readLine())) {
+                    lineNumber++;
+                    String[] parts = line.trim().split(" ");
+                    if (lineNumber == 1 && parts.length == 2) {
+                        continue;
+                    }
+                    if (null == writer) {
+                        writer = new MappedVectorWriter(binPath, parts.length - 1);
+                    }
+                    if (parts.length - 1 != writer.vectorSize()) {
+                        skipped++;
+                        continue;
+                    }
+                    float[] vector = new float[parts.length - 1];
+                    for (int i = 1; i < parts.length; i++) {
+                        vector[i - 1] = Float.parseFloat(parts[i]);
+                    }
+                    writer.add(parts[0], vector);
+                }
+            } finally {
+                if (null != writer) {
+                    writer.close();
+                }
+            }
+            if (skipped > 0) {
+                log.warn("维度不一致被跳过的行数:" + skipped);
+            }
+        }
+        log.info("转换完成，耗时:" + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * FNV-1a哈希，写文件和查找时共用
+     */
+    public static int hash(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int numWords() {
+        return vocabSize;
+    }
+
+    @Override
+    public String wordAt(int index) {
+        int from = meta.getInt(wordOffsetsOffset + 4 * index);
+        int to = meta.getInt(wordOffsetsOffset + 4 * (index + 1));
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = meta.duplicate();
+        view.position(wordsOffset + from);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean wordEquals(int index, byte[] bytes) {
+        int from = meta.getInt(wordOffsetsOffset + 4 * index);
+        int to = meta.getInt(wordOffsetsOffset + 4 * (index + 1));
+        if (to - from != bytes.length) {
+            return false;
+        }
+        int base = wordsOffset + from;
+        for (int i = 0; i < bytes.length; i++) {
+            if (meta.get(base + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int indexOf(String word) {
+        if (null == word) {
+            return -1;
+        }
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int mask = tableSize - 1;
+        int slot = hash(bytes) & mask;
+        int index;
+        while ((index = meta.getInt(tableOffset + 4 * slot)) != -1) {
+            if (wordEquals(index, bytes)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 第index行向量的只读视图，调用方不能改变position以外的状态
+     */
+    private ByteBuffer row(int index) {
+        ByteBuffer view = segments[index / rowsPerSegment].duplicate();
+        int position = (index % rowsPerSegment) * vectorSize * 4;
+        view.position(position);
+        view.limit(position + vectorSize * 4);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    protected void readRow(int index, float[] dest, int offset) {
+        row(index).asFloatBuffer().get(dest, offset, vectorSize);
+    }
+
+    @Override
+    public int vectorSize() {
+        return vectorSize;
+    }
+
+    @Override
+    public INDArray getWordVectorMatrix(String word) {
+        int index = indexOf(word);
+        if (index < 0) {
+            return null;
+        }
+        if (zeroCopy) {
+            DataBuffer buffer = Nd4j.createBuffer(row(index), DataBuffer.Type.FLOAT, vectorSize);
+            return Nd4j.create(buffer, new int[]{1, vectorSize});
+        }
+        float[] vector = new float[vectorSize];
+        readRow(index, vector, 0);
+        return Nd4j.create(vector, new int[]{1, vectorSize});
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public static void main(String[] args) throws IOException {
+        //参数: 文本词向量路径 二进制词向量路径
+        convert(args[0], args[1]);
+        MappedWordVectors vectors = open(args[1]);
+        System.out.println("词数:" + vectors.numWords() + "，维度:" + vectors.vectorSize());
+    }
+}
@@ -0,0 +1,179 @@
+package com.msg.embedding.word2vec;
+
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.embeddings.loader.VectorsConfiguration;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.word2vec.Huffman;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.deeplearning4j.text.sentenceiterator.BasicLineIterator;
+import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizer.Tokenizer;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 在已有的word2vec模型上增量训练
+ * <p>
+ * 1) 加载完整模型(包括哈夫曼树和syn1)
+ * 2) 统计新语料的词频，已有的词累加词频，新语料中词频达到minWordFrequency的新词加入词表
+ * 3) 按新的词频重建哈夫曼树，syn0和syn1Neg按词重新对应到新的下标，新词随机初始化；
+ * syn1是哈夫曼树内部节点的参数，无法按词对应，和gensim一样按下标保留、多出来的补零
+ * 4) 只在新语料上训练，学习率为原学习率乘以衰减系数
+ * 5) 先写到同目录下的临时文件，再原子地替换目标文件
+ */
+@Slf4j
+public class IncrementalWord2Vec {
+
+    private IncrementalWord2Vec() {
+
+    }
+
+    /**
+     * @param modelPath         已有模型，由Word2VecModel.train写出
+     * @param newTextPath       新增的分好词的语料
+     * @param outputPath        更新后的模型路径，可以和modelPath相同
+     * @param learningRateDecay 增量训练的学习率相对原学习率的比例
+     * @return 更新后的模型
+     */
+    public static Word2Vec update(String modelPath, String newTextPath, String outputPath, double learningRateDecay) throws IOException {
+        log.info("加载已有模型....");
+        Word2Vec base = Word2VecModel.load(modelPath, true);
+        VectorsConfiguration configuration = base.getConfiguration();
+        VocabCache<VocabWord> vocab = base.vocab();
+        @SuppressWarnings("unchecked")
+        InMemoryLookupTable<VocabWord> lookupTable = (InMemoryLookupTable<VocabWord>) base.lookupTable();
+        TokenizerFactory tokenizerFactory = Word2VecModel.tokenizerFactory();
+
+        log.info("统计新语料词频....");
+        Map<String, Integer> counts = countWords(newTextPath, tokenizerFactory);
+        long newWordCount = 0;
+        for (int count : counts.values()) {
+            newWordCount += count;
+        }
+        int oldSize = vocab.numWords();
+        extendVocabulary(vocab, lookupTable, counts, configuration);
+        log.info("词表: " + oldSize + " -> " + vocab.numWords() + "，新语料词数:" + newWordCount);
+
+        double learningRate = configuration.getLearningRate() * learningRateDecay;
+        log.info("增量训练，学习率:" + learningRate);
+        //学习率按已处理词数占词表总词频的比例线性衰减，训练期间换成新语料的词数，让学习率在新语料上完整地衰减一遍
+        long totalOccurrences = vocab.totalWordOccurrences();
+        setTotalWordOccurrences(vocab, newWordCount);
+        SentenceIterator iterator = new BasicLineIterator(new File(newTextPath));
+        Word2Vec vec = new Word2Vec.Builder(configuration)
+                .vocabCache(vocab)
+                .lookupTable(lookupTable)
+                .resetModel(false)
+                .learningRate(learningRate)
+                .minLearningRate(Math.min(configuration.getMinLearningRate(), learningRate))
+                .iterate(iterator)
+                .tokenizerFactory(tokenizerFactory)
+                .build();
+        try {
+            vec.fit();
+        } finally {
+            setTotalWordOccurrences(vocab, totalOccurrences);
+        }
+
+        log.info("模型写入到硬盘....");
+        writeAtomically(vec, outputPath);
+        return vec;
+    }
+
+    static Map<String, Integer> countWords(String textPath, TokenizerFactory tokenizerFactory) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        SentenceIterator iterator = new BasicLineIterator(new File(textPath));
+        while (iterator.hasNext()) {
+            Tokenizer tokenizer = tokenizerFactory.create(iterator.nextSentence());
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken();
+                if (!token.isEmpty()) {
+                    counts.merge(token, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 扩展词表并重排syn0、syn1、syn1Neg
+     */
+    private static void extendVocabulary(VocabCache<VocabWord> vocab, InMemoryLookupTable<VocabWord> lookupTable,
+                                         Map<String, Integer> counts, VectorsConfiguration configuration) {
+        Map<String, Integer> oldIndex = new HashMap<>();
+        for (VocabWord word : vocab.vocabWords()) {
+            oldIndex.put(word.getLabel(), word.getIndex());
+        }
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String word = entry.getKey();
+            int count = entry.getValue();
+            if (vocab.containsWord(word)) {
+                vocab.incrementWordCount(word, count);
+            } else if (count >= configuration.getMinWordFrequency()) {
+                vocab.addToken(new VocabWord(count, word));
+            }
+        }
+        vocab.updateWordsOccurrences();
+
+        Huffman huffman = new Huffman(vocab.vocabWords());
+        huffman.build();
+        huffman.applyIndexes(vocab);
+
+        int numWords = vocab.numWords();
+        int layerSize = configuration.getLayersSize();
+        INDArray oldSyn0 = lookupTable.getSyn0();
+        INDArray oldSyn1 = lookupTable.getSyn1();
+        INDArray oldSyn1Neg = lookupTable.getSyn1Neg();
+        //和InMemoryLookupTable.resetWeights一样的初始化方式
+        INDArray syn0 = Nd4j.rand(new int[]{numWords, layerSize}, Nd4j.getRandomFactory().getNewRandomInstance(configuration.getSeed()))
+                .subi(0.5).divi(layerSize);
+        INDArray syn1Neg = null == oldSyn1Neg ? null : Nd4j.zeros(numWords, layerSize);
+        for (VocabWord word : vocab.vocabWords()) {
+            Integer old = oldIndex.get(word.getLabel());
+            if (null != old) {
+                syn0.putRow(word.getIndex(), oldSyn0.getRow(old));
+                if (null != syn1Neg) {
+                    syn1Neg.putRow(word.getIndex(), oldSyn1Neg.getRow(old));
+                }
+            }
+        }
+        lookupTable.setSyn0(syn0);
+        if (null != oldSyn1) {
+            INDArray syn1 = Nd4j.zeros(numWords, layerSize);
+            int rows = Math.min(oldSyn1.rows(), numWords);
+            for (int i = 0; i < rows; i++) {
+                syn1.putRow(i, oldSyn1.getRow(i));
+            }
+            lookupTable.setSyn1(syn1);
+        }
+        if (null != syn1Neg) {
+            lookupTable.setSyn1Neg(syn1Neg);
+            lookupTable.initNegative();
+        }
+        //AdaGrad的历史梯度按词表大小分配，词表变化后重新初始化
+        lookupTable.setUseAdaGrad(configuration.isUseAdaGrad());
+    }
+
+    private static void setTotalWordOccurrences(VocabCache<VocabWord> vocab, long total) {
+        if (vocab instanceof AbstractCache) {
+            ((AbstractCache<VocabWord>) vocab).setTotalWordOccurences(total);
+        }
+    }
+
+    /**
+     * 写到同目录下的临时文件后原子替换，写出过程中失败或者被中断不会破坏原来的模型
+     */
+    static void writeAtomically(Word2Vec vec, String outputPath) throws IOException {
+        FileUtil.writeAtomically(outputPath, tmp -> WordVectorSerializer.writeWord2VecModel(vec, tmp));
+    }
+}
@@ -0,0 +1,275 @@
+package com.msg.embedding.word2vec;
+
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.sequencevectors.interfaces.SequenceIterator;
+import org.deeplearning4j.models.sequencevectors.sequence.Sequence;
+import org.deeplearning4j.models.word2vec.Huffman;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.deeplearning4j.text.tokenization.tokenizer.Tokenizer;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 由一个目录下的多个分片文件组成的语料，分片可以是gzip或zstd压缩的
+ * <p>
+ * 1) countWords: 多线程按文件并行分词并统计词频，每个线程一个词频表，最后合并
+ * 2) buildVocabulary: 由词频构建word2vec的词表和哈夫曼树，不需要Word2Vec再单线程扫描一遍语料
+ * 3) iterator: 多个后台线程并行读取和分词，通过有界队列把分好词的句子交给Word2Vec的训练线程
+ * <p>
+ * 各个文件的句子是交错输出的，顺序不固定，对word2vec训练没有影响
+ */
+@Slf4j
+public class ShardedCorpus {
+    private final List<String> files;
+    private final TokenizerFactory tokenizerFactory;
+    private final int threads;
+    private final int queueCapacity;
+    private final Charset charset;
+
+    /**
+     * @param dir              语料目录，多线程递归查找所有文件
+     * @param tokenizerFactory 分词器，各个线程共用，需要是线程安全的(DefaultTokenizerFactory是)
+     * @param threads          并行读取和分词的线程数
+     * @param queueCapacity    训练时缓冲的句子数
+     */
+    public ShardedCorpus(String dir, TokenizerFactory tokenizerFactory, int threads, int queueCapacity) {
+        this(FileUtil.listFiles(dir, threads), tokenizerFactory, threads, queueCapacity, Charset.forName(FileUtil.DEFAULT_ENCODE));
+    }
+
+    public ShardedCorpus(List<String> files, TokenizerFactory tokenizerFactory, int threads, int queueCapacity, Charset charset) {
+        this.files = new ArrayList<>(files);
+        Collections.sort(this.files);
+        this.tokenizerFactory = tokenizerFactory;
+        this.threads = Math.max(1, threads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.charset = charset;
+    }
+
+    public List<String> getFiles() {
+        return files;
+    }
+
+    private BufferedReader open(String file) throws IOException {
+        return new BufferedReader(new InputStreamReader(FileUtil.openInputStream(file), charset), 1 << 16);
+    }
+
+    private List<String> tokenize(String line) {
+        Tokenizer tokenizer = tokenizerFactory.create(line);
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken();
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private interface LineConsumer {
+        void accept(List<String> tokens) throws InterruptedException;
+    }
+
+    /**
+     * 多个线程从共享的文件下标上领取文件，逐行分词后交给各自的consumer
+     *
+     * @param consumers 每个线程一个
+     */
+    private void process(List<LineConsumer> consumers, ExecutorService pool) throws InterruptedException {
+        AtomicInteger cursor = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (LineConsumer consumer : consumers) {
+            futures.add(pool.submit(() -> {
+                int index;
+                while ((index = cursor.getAndIncrement()) < files.size()) {
+                    String file = files.get(index);
+                    try (BufferedReader reader = open(file)) {
+                        String line;
+                        while (null != (line = reader.readLine())) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new InterruptedException();
+                            }
+                            List<String> tokens = tokenize(line);
+                            if (!tokens.isEmpty()) {
+                                consumer.accept(tokens);
+                            }
+                        }
+                    } catch (IOException e) {
+                        log.error("读取文件出错:" + file, e);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("处理语料出错", e.getCause());
+            }
+        }
+    }
+
+    private ExecutorService newPool(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 并行统计词频
+     */
+    public Map<String, Long> countWords() {
+        long start = System.currentTimeMillis();
+        List<Map<String, long[]>> partials = new ArrayList<>(threads);
+        List<LineConsumer> consumers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Map<String, long[]> partial = new HashMap<>();
+            partials.add(partial);
+            consumers.add(tokens -> {
+                for (String token : tokens) {
+                    long[] count = partial.get(token);
+                    if (null == count) {
+                        partial.put(token, new long[]{1});
+                    } else {
+                        count[0]++;
+                    }
+                }
+            });
+        }
+        ExecutorService pool = newPool("corpus-count");
+        try {
+            process(consumers, pool);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("统计词频被中断", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Map<String, Long> counts = new HashMap<>();
+        for (Map<String, long[]> partial : partials) {
+            partial.forEach((word, count) -> counts.merge(word, count[0], Long::sum));
+        }
+        log.info("统计词频: " + files.size() + " 个文件, " + counts.size() + " 个不同的词, 耗时 "
+                + (System.currentTimeMillis() - start) + "ms, 线程数 " + threads);
+        return counts;
+    }
+
+    /**
+     * 由并行统计的词频构建词表，词频低于minWordFrequency的词去掉，并建立哈夫曼树
+     */
+    public AbstractCache<VocabWord> buildVocabulary(int minWordFrequency) {
+        Map<String, Long> counts = countWords();
+        AbstractCache<VocabWord> vocab = new AbstractCache.Builder<VocabWord>().build();
+        long total = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (entry.getValue() >= minWordFrequency) {
+                vocab.addToken(new VocabWord(entry.getValue(), entry.getKey()));
+                total += entry.getValue();
+            }
+        }
+        vocab.setTotalWordOccurences(total);
+        Huffman huffman = new Huffman(vocab.vocabWords());
+        huffman.build();
+        huffman.applyIndexes(vocab);
+        log.info("词表大小: " + vocab.numWords());
+        return vocab;
+    }
+
+    /**
+     * @return 后台并行分词的句子迭代器，可以直接作为Word2Vec.Builder.iterate的参数
+     */
+    public SequenceIterator<VocabWord> iterator() {
+        return new ParallelSequenceIterator();
+    }
+
+    /**
+     * 每次reset启动一组后台线程读完所有文件，句子放进有界队列，队列满时后台线程阻塞，内存占用不超过queueCapacity个句子
+     */
+    private class ParallelSequenceIterator implements SequenceIterator<VocabWord> {
+        private final Sequence<VocabWord> end = new Sequence<>();
+        private BlockingQueue<Sequence<VocabWord>> queue;
+        private ExecutorService pool;
+        private Sequence<VocabWord> next;
+
+        private ParallelSequenceIterator() {
+            reset();
+        }
+
+        @Override
+        public synchronized boolean hasMoreSequences() {
+            if (null == next) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("读取语料被中断", e);
+                }
+            }
+            return next != end;
+        }
+
+        @Override
+        public synchronized Sequence<VocabWord> nextSequence() {
+            if (!hasMoreSequences()) {
+                throw new NoSuchElementException();
+            }
+            Sequence<VocabWord> sequence = next;
+            next = null;
+            return sequence;
+        }
+
+        @Override
+        public synchronized void reset() {
+            if (null != pool) {
+                pool.shutdownNow();
+            }
+            BlockingQueue<Sequence<VocabWord>> current = new ArrayBlockingQueue<>(queueCapacity);
+            queue = current;
+            next = null;
+            pool = newPool("corpus-reader");
+            ExecutorService readers = pool;
+            List<LineConsumer> consumers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                consumers.add(tokens -> {
+                    Sequence<VocabWord> sequence = new Sequence<>();
+                    for (String token : tokens) {
+                        sequence.addElement(new VocabWord(1.0, token));
+                    }
+                    current.put(sequence);
+                });
+            }
+            //单独的线程等待所有读取线程结束后放入结束标记
+            Thread coordinator = new Thread(() -> {
+                try {
+                    try {
+                        process(consumers, readers);
+                    } catch (RuntimeException e) {
+                        //reset时读取线程被中断，不是错误
+                        if (readers.isShutdown()) {
+                            return;
+                        }
+                        log.error("读取语料出错", e);
+                    }
+                    current.put(end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    readers.shutdown();
+                }
+            }, "corpus-reader-coordinator");
+            coordinator.setDaemon(true);
+            coordinator.start();
+        }
+    }
+}
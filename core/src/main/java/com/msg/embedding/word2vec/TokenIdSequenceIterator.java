@@ -0,0 +1,91 @@
+package com.msg.embedding.word2vec;
+
+import com.msg.text.TokenizedCorpus;
+import com.msg.text.Vocabulary;
+import org.deeplearning4j.models.sequencevectors.interfaces.SequenceIterator;
+import org.deeplearning4j.models.sequencevectors.sequence.Sequence;
+import org.deeplearning4j.models.word2vec.Huffman;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 把已经转换成ID的语料交给Word2Vec训练，不再逐行分词
+ * <p>
+ * 词频直接按ID累加，由词频构建word2vec的词表和哈夫曼树；每个ID只创建一个VocabWord，
+ * 输出句子时复用，词频低于minWordFrequency的词跳过
+ */
+public class TokenIdSequenceIterator implements SequenceIterator<VocabWord> {
+    private final TokenizedCorpus corpus;
+    private final VocabWord[] words;
+    private final AbstractCache<VocabWord> vocabCache;
+    private int cursor;
+
+    /**
+     * @param corpus           用IdTokenizer按vocabulary转换的语料
+     * @param vocabulary       语料的词表
+     * @param minWordFrequency 最小词频
+     */
+    public TokenIdSequenceIterator(TokenizedCorpus corpus, Vocabulary vocabulary, int minWordFrequency) {
+        this.corpus = corpus;
+        long[] counts = new long[vocabulary.size()];
+        int[] ids = corpus.ids();
+        for (int i = 0; i < corpus.size(); i++) {
+            int offset = corpus.offset(i);
+            for (int j = 0; j < corpus.length(i); j++) {
+                counts[ids[offset + j]]++;
+            }
+        }
+
+        vocabCache = new AbstractCache.Builder<VocabWord>().build();
+        words = new VocabWord[counts.length];
+        long total = 0;
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] >= minWordFrequency) {
+                words[id] = new VocabWord(counts[id], vocabulary.word(id));
+                vocabCache.addToken(words[id]);
+                total += counts[id];
+            }
+        }
+        vocabCache.setTotalWordOccurences(total);
+        Huffman huffman = new Huffman(vocabCache.vocabWords());
+        huffman.build();
+        huffman.applyIndexes(vocabCache);
+    }
+
+    /**
+     * @return 由语料词频构建的词表，作为Word2Vec.Builder.vocabCache的参数
+     */
+    public AbstractCache<VocabWord> getVocabCache() {
+        return vocabCache;
+    }
+
+    @Override
+    public boolean hasMoreSequences() {
+        return cursor < corpus.size();
+    }
+
+    @Override
+    public Sequence<VocabWord> nextSequence() {
+        if (!hasMoreSequences()) {
+            throw new NoSuchElementException();
+        }
+        int sentence = cursor++;
+        int[] ids = corpus.ids();
+        int offset = corpus.offset(sentence);
+        Sequence<VocabWord> sequence = new Sequence<>();
+        for (int j = 0; j < corpus.length(sentence); j++) {
+            VocabWord word = words[ids[offset + j]];
+            if (null != word) {
+                sequence.addElement(word);
+            }
+        }
+        return sequence;
+    }
+
+    @Override
+    public void reset() {
+        cursor = 0;
+    }
+}
@@ -0,0 +1,162 @@
+package com.msg.embedding.word2vec;
+
+import com.msg.text.IdTokenizer;
+import com.msg.text.TokenizedCorpus;
+import com.msg.text.Vocabulary;
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.deeplearning4j.text.sentenceiterator.BasicLineIterator;
+import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizer.preprocessor.CommonPreprocessor;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+
+@Slf4j
+public class Word2VecModel {
+    private static final int MIN_WORD_FREQUENCY = 5;
+
+    /**
+     * word2vec包含两种结构:
+     * 1) skip-gram结构:skip-gram结构是利用中间词预测邻近词
+     * 2) cbow结构:cbow模型是利用上下文词预测中间词
+     *
+     * @param textPath  要训练词向量的分词后的文本
+     * @param modelPath 要保存词向量模型的路径
+     * @throws IOException
+     */
+    public static void train(String textPath, String modelPath) throws IOException {
+        log.info("加载数据....");
+        SentenceIterator iterator = new BasicLineIterator(new File(textPath));
+
+        TokenizerFactory tokenizerFactory = tokenizerFactory();
+
+        log.info("构建模型....");
+        Word2Vec vec = builder()
+                .iterate(iterator)      //调用的数据
+                .tokenizerFactory(tokenizerFactory)  //分词
+                .build();
+        log.info("开始训练模型....");
+        vec.fit();
+
+        log.info("模型写入到硬盘....");
+        WordVectorSerializer.writeWord2VecModel(vec, modelPath);
+
+    }
+
+    /**
+     * 语料读入内存后只分词一次，转换成ID序列，统计词频和训练都直接读ID，适合放得进内存的语料
+     *
+     * @param textPath  要训练词向量的分词后的文本
+     * @param modelPath 要保存词向量模型的路径
+     */
+    public static void trainTokenized(String textPath, String modelPath) throws IOException {
+        log.info("加载数据并转换成ID....");
+        Vocabulary vocabulary = new Vocabulary();
+        IdTokenizer tokenizer = new IdTokenizer(vocabulary, true);
+        tokenizer.setPreProcessor(new CommonPreprocessor());
+        TokenizedCorpus corpus = TokenizedCorpus.read(FileUtil.readFileToArray(textPath), null, tokenizer::encode);
+        TokenIdSequenceIterator iterator = new TokenIdSequenceIterator(corpus, vocabulary, MIN_WORD_FREQUENCY);
+        log.info("句子数: " + corpus.size() + ", 词表大小: " + iterator.getVocabCache().numWords());
+
+        log.info("构建模型....");
+        Word2Vec vec = builder()
+                .vocabCache(iterator.getVocabCache())      //已经建好的词表，训练时不再扫描语料建词表
+                .resetModel(false)
+                .iterate(iterator)
+                .build();
+        log.info("开始训练模型....");
+        vec.fit();
+
+        log.info("模型写入到硬盘....");
+        WordVectorSerializer.writeWord2VecModel(vec, modelPath);
+    }
+
+    /**
+     * 用一个目录下的所有分片文件(可以是.gz压缩的)训练词向量，读取、分词和统计词频按文件多线程并行
+     *
+     * @param corpusDir 语料目录
+     * @param modelPath 要保存词向量模型的路径
+     * @param threads   读取和分词的线程数
+     */
+    public static void trainDirectory(String corpusDir, String modelPath, int threads) throws IOException {
+        ShardedCorpus corpus = new ShardedCorpus(corpusDir, tokenizerFactory(), threads, 10000);
+        log.info("并行统计词频，构建词表....");
+        AbstractCache<VocabWord> vocab = corpus.buildVocabulary(MIN_WORD_FREQUENCY);
+
+        log.info("构建模型....");
+        Word2Vec vec = builder()
+                .vocabCache(vocab)      //已经建好的词表，训练时不再扫描语料建词表
+                .resetModel(false)
+                .iterate(corpus.iterator())
+                .build();
+        log.info("开始训练模型....");
+        vec.fit();
+
+        log.info("模型写入到硬盘....");
+        WordVectorSerializer.writeWord2VecModel(vec, modelPath);
+    }
+
+    /**
+     * 所有训练方式共用的参数
+     */
+    static Word2Vec.Builder builder() {
+        return new Word2Vec.Builder()
+                .minWordFrequency(MIN_WORD_FREQUENCY)    //最小词频
+                .batchSize(32)          //批大小
+                .useAdaGrad(true)       //是否用ada
+                .learningRate(0.001)    //学习率
+                .iterations(10)         //迭代次数
+                .layerSize(200)         //生成词向量维数
+                .seed(42)               //随机数种子，为了复现结果
+                .windowSize(5);         //窗口大小，前后多少个词作为训练输入或者输出
+    }
+
+    /**
+     * 增量训练，在已有模型上只训练新增的语料，更新后的模型原子地写回modelPath
+     *
+     * @param modelPath   已有的词向量模型
+     * @param newTextPath 新增的分好词的文本
+     */
+    public static Word2Vec trainIncremental(String modelPath, String newTextPath) throws IOException {
+        return IncrementalWord2Vec.update(modelPath, newTextPath, modelPath, 0.5);
+    }
+
+    /**
+     * 训练和增量训练共用的分词方式
+     */
+    static TokenizerFactory tokenizerFactory() {
+        TokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+        tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+        return tokenizerFactory;
+    }
+
+    public static Word2Vec load(String modelPath) {
+        return WordVectorSerializer.readWord2VecModel(new File(modelPath));
+    }
+
+    /**
+     * @param extended 是否同时加载哈夫曼树和syn1，继续训练时需要
+     */
+    public static Word2Vec load(String modelPath, boolean extended) {
+        return WordVectorSerializer.readWord2VecModel(new File(modelPath), extended);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String basicPath = Word2VecModel.class.getClassLoader().getResource("word2vec").getPath();
+        System.out.println(basicPath);
+        train(basicPath + "/words.txt", basicPath + "/words.bin");
+        Word2Vec wordVectors = load(basicPath + "/words.bin");
+
+        System.out.println(wordVectors.wordsNearest("人民", 10));
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+package com.msg.iterator;
+
+import org.deeplearning4j.iterator.LabeledSentenceProvider;
+import org.nd4j.linalg.primitives.Pair;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * 按句子长度分桶的LabeledSentenceProvider
+ * <p>
+ * CnnSentenceDataSetIterator每次取minibatchSize个句子，按其中最长的句子确定张量长度。
+ * 随机组成的批次里只要有一条长句子，其余的短句子都要填充到同样的长度，卷积的大部分计算都浪费在填充上。
+ * 这里把源provider的句子放进按长度划分的桶里，某个桶攒够batchSize条就整批输出，
+ * 这样迭代器拿到的每个批次长度相近，张量只需填充到这个桶的最大长度
+ * <p>
+ * 缓冲的句子数不超过桶数 * batchSize，批次之间的顺序仍然由源provider的顺序决定
+ * <p>
+ * 有效长度为0的句子(分词后没有一个词有词向量)直接丢掉：迭代器也会跳过它们，留在桶里会让批次跨过桶的边界
+ */
+public class BucketingSentenceProvider implements LabeledSentenceProvider {
+    private final LabeledSentenceProvider source;
+    private final int batchSize;
+    private final int[] boundaries;
+    private final ToIntFunction<String> lengthFunction;
+    private final List<List<Pair<String, String>>> buckets;
+    private final Deque<Pair<String, String>> ready = new ArrayDeque<>();
+
+    /**
+     * @param source         源provider
+     * @param batchSize      与CnnSentenceDataSetIterator的minibatchSize一致
+     * @param boundaries     各个桶的长度上限，升序，超过最后一个上限的句子放进最后一个桶
+     * @param lengthFunction 句子的有效长度，应当与迭代器的分词和未知词处理一致
+     */
+    public BucketingSentenceProvider(LabeledSentenceProvider source, int batchSize, int[] boundaries,
+                                     ToIntFunction<String> lengthFunction) {
+        this.source = source;
+        this.batchSize = batchSize;
+        this.boundaries = boundaries;
+        this.lengthFunction = lengthFunction;
+        this.buckets = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            buckets.add(new ArrayList<>(batchSize));
+        }
+    }
+
+    /**
+     * @return 长度所在的桶
+     */
+    public static int bucketOf(int length, int[] boundaries) {
+        for (int i = 0; i < boundaries.length; i++) {
+            if (length <= boundaries[i]) {
+                return i;
+            }
+        }
+        return boundaries.length - 1;
+    }
+
+    /**
+     * 从源provider读句子，直到有一个桶满了或者源provider读完，跳过有效长度为0的句子
+     */
+    private void fill() {
+        while (ready.isEmpty() && source.hasNext()) {
+            Pair<String, String> sentence = source.nextSentence();
+            int length = lengthFunction.applyAsInt(sentence.getFirst());
+            if (length == 0) {
+                continue;
+            }
+            List<Pair<String, String>> bucket = buckets.get(bucketOf(length, boundaries));
+            bucket.add(sentence);
+            if (bucket.size() >= batchSize) {
+                ready.addAll(bucket);
+                bucket.clear();
+            }
+        }
+        if (ready.isEmpty()) {
+            //源provider读完，剩下不满一批的句子按桶从短到长输出
+            for (List<Pair<String, String>> bucket : buckets) {
+                ready.addAll(bucket);
+                bucket.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !ready.isEmpty();
+    }
+
+    @Override
+    public Pair<String, String> nextSentence() {
+        fill();
+        if (ready.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return ready.poll();
+    }
+
+    @Override
+    public void reset() {
+        source.reset();
+        ready.clear();
+        for (List<Pair<String, String>> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    /**
+     * @return 源provider的句子数，包括会被跳过的有效长度为0的句子
+     */
+    @Override
+    public int totalNumSentences() {
+        return source.totalNumSentences();
+    }
+
+    @Override
+    public List<String> allLabels() {
+        return source.allLabels();
+    }
+
+    @Override
+    public int numLabelClasses() {
+        return source.numLabelClasses();
+    }
+}
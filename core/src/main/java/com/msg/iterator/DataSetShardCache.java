@@ -0,0 +1,183 @@
+package com.msg.iterator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 预先向量化好的DataSet分片缓存
+ * <p>
+ * 第一次把数据迭代器的每个minibatch向量化后按分片写到磁盘上，之后的每个epoch直接读分片，不用再分词和查词向量。
+ * 目录下的manifest记录了生成缓存时的指纹(语料、词向量、句子长度等)，指纹变化时缓存自动失效并重建
+ */
+@Slf4j
+public class DataSetShardCache {
+    private static final String MANIFEST = "manifest.properties";
+    private static final String SHARD_PATTERN = "shard-%06d.bin";
+
+    private final File dir;
+    private final String fingerprint;
+
+    /**
+     * @param dir         缓存目录
+     * @param fingerprint 生成缓存所依赖的输入的指纹，见fingerprint方法
+     */
+    public DataSetShardCache(String dir, String fingerprint) {
+        this.dir = new File(dir);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * 计算指纹，参数可以是任意能决定向量化结果的值，File按路径、大小和修改时间参与计算
+     */
+    public static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                String value;
+                if (part instanceof File) {
+                    File file = (File) part;
+                    value = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+                } else if (part instanceof float[]) {
+                    value = Arrays.toString((float[]) part);
+                } else {
+                    value = String.valueOf(part);
+                }
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return 缓存存在且指纹一致
+     */
+    public boolean isValid() {
+        Properties manifest = readManifest();
+        if (null == manifest || !fingerprint.equals(manifest.getProperty("fingerprint"))) {
+            return false;
+        }
+        int shards = Integer.parseInt(manifest.getProperty("shards"));
+        for (int i = 0; i < shards; i++) {
+            if (!shardFile(i).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 缓存无效时从source重新生成，有效时直接返回
+     *
+     * @param source 数据迭代器，每个minibatch写成一个分片
+     */
+    public DataSetShardCache build(DataSetIterator source) throws IOException {
+        if (isValid()) {
+            log.info("使用已有的分片缓存:" + dir);
+            return this;
+        }
+        clear();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建缓存目录失败:" + dir);
+        }
+        long start = System.currentTimeMillis();
+        source.reset();
+        int shards = 0;
+        long examples = 0;
+        while (source.hasNext()) {
+            DataSet dataSet = source.next();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(shardFile(shards)), 1 << 20)) {
+                dataSet.save(out);
+            }
+            shards++;
+            examples += dataSet.numExamples();
+        }
+
+        //manifest最后写，中途失败的缓存不会被认为有效
+        Properties manifest = new Properties();
+        manifest.setProperty("fingerprint", fingerprint);
+        manifest.setProperty("shards", String.valueOf(shards));
+        manifest.setProperty("examples", String.valueOf(examples));
+        manifest.setProperty("batch", String.valueOf(source.batch()));
+        manifest.setProperty("labels", String.join("\t", source.getLabels()));
+        try (OutputStream out = new FileOutputStream(new File(dir, MANIFEST))) {
+            manifest.store(out, "DataSet shard cache");
+        }
+        log.info("生成分片缓存:" + dir + "，分片数:" + shards + "，样本数:" + examples
+                + "，耗时:" + (System.currentTimeMillis() - start) + "ms");
+        return this;
+    }
+
+    /**
+     * 删除缓存目录下的分片和manifest
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if ((file.getName().startsWith("shard-") || MANIFEST.equals(file.getName())) && !file.delete()) {
+                log.warn("删除缓存文件失败:" + file);
+            }
+        }
+    }
+
+    /**
+     * 读取分片的迭代器
+     *
+     * @param prefetchThreads 后台读取分片的线程数
+     * @param prefetchDepth   预读的分片数
+     * @param shuffle         每个epoch是否打乱分片顺序
+     * @param seed            打乱分片的随机种子
+     */
+    public ShardDataSetIterator iterator(int prefetchThreads, int prefetchDepth, boolean shuffle, long seed) {
+        Properties manifest = readManifest();
+        if (null == manifest || !isValid()) {
+            throw new IllegalStateException("分片缓存无效，需要先调用build:" + dir);
+        }
+        int shards = Integer.parseInt(manifest.getProperty("shards"));
+        List<File> files = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            files.add(shardFile(i));
+        }
+        List<String> labels = Arrays.asList(manifest.getProperty("labels").split("\t"));
+        int batch = Integer.parseInt(manifest.getProperty("batch"));
+        return new ShardDataSetIterator(files, labels, batch, prefetchThreads, prefetchDepth, shuffle, seed);
+    }
+
+    private File shardFile(int index) {
+        return new File(dir, String.format(SHARD_PATTERN, index));
+    }
+
+    private Properties readManifest() {
+        File file = new File(dir, MANIFEST);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            manifest.load(in);
+            return manifest;
+        } catch (IOException e) {
+            log.warn("读取manifest出错:" + file);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.msg.iterator;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 读取DataSetShardCache分片的迭代器
+ * <p>
+ * 后台线程池按顺序预读后面的prefetchDepth个分片，训练线程取数据时不需要等待磁盘读取和反序列化，
+ * 每次reset时重新打乱分片顺序
+ */
+public class ShardDataSetIterator implements DataSetIterator {
+    private static final long serialVersionUID = 1L;
+
+    private final List<File> shards;
+    private final List<String> labels;
+    private final int batch;
+    private final int prefetchDepth;
+    private final boolean shuffle;
+    private final Random rng;
+    private final transient ExecutorService loader;
+    private final transient Deque<Future<DataSet>> pending = new ArrayDeque<>();
+    private List<File> order;
+    private int cursor;
+    private DataSetPreProcessor preProcessor;
+    private int inputColumns = -1;
+
+    ShardDataSetIterator(List<File> shards, List<String> labels, int batch, int prefetchThreads, int prefetchDepth,
+                         boolean shuffle, long seed) {
+        this.shards = shards;
+        this.labels = labels;
+        this.batch = batch;
+        this.prefetchDepth = Math.max(1, prefetchDepth);
+        this.shuffle = shuffle;
+        this.rng = new Random(seed);
+        this.loader = Executors.newFixedThreadPool(Math.max(1, prefetchThreads), r -> {
+            Thread thread = new Thread(r, "shard-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reset();
+    }
+
+    private void fill() {
+        while (pending.size() < prefetchDepth && cursor < order.size()) {
+            File shard = order.get(cursor++);
+            pending.add(loader.submit(() -> load(shard)));
+        }
+    }
+
+    private static DataSet load(File shard) throws IOException {
+        DataSet dataSet = new DataSet();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(shard), 1 << 20)) {
+            dataSet.load(in);
+        }
+        return dataSet;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public DataSet next() {
+        Future<DataSet> future = pending.poll();
+        if (null == future) {
+            throw new NoSuchElementException();
+        }
+        fill();
+        DataSet dataSet;
+        try {
+            dataSet = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("读取分片被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("读取分片出错", e.getCause());
+        }
+        if (null != preProcessor) {
+            preProcessor.preProcess(dataSet);
+        }
+        return dataSet;
+    }
+
+    /**
+     * 分片大小在生成缓存时就已经确定，num参数被忽略
+     */
+    @Override
+    public DataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void reset() {
+        for (Future<DataSet> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        order = new ArrayList<>(shards);
+        if (shuffle) {
+            Collections.shuffle(order, rng);
+        }
+        cursor = 0;
+        fill();
+    }
+
+    /**
+     * 关闭后台预读线程
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    @Override
+    public int inputColumns() {
+        if (inputColumns < 0 && !shards.isEmpty()) {
+            try {
+                inputColumns = (int) load(shards.get(0)).getFeatures().size(-1);
+            } catch (IOException e) {
+                throw new IllegalStateException("读取分片出错", e);
+            }
+        }
+        return inputColumns;
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return labels.size();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        //已经有自己的预读线程
+        return false;
+    }
+
+    @Override
+    public int batch() {
+        return batch;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return labels;
+    }
+}
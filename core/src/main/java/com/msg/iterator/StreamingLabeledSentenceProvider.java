@@ -0,0 +1,346 @@
+package com.msg.iterator;
+
+import com.msg.text.LabeledLine;
+import com.msg.util.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.iterator.LabeledSentenceProvider;
+import org.nd4j.linalg.primitives.Pair;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 流式读取"分好词的文本 __label__ 标签"格式的语料，内存占用与语料大小无关
+ * <p>
+ * 1) 可以读取一个或多个文件，按行惰性读取
+ * 2) 每一行根据内容的哈希值确定属于训练集还是测试集，不需要把数据读入内存就能得到可复现的拆分，
+ * 各个标签进入测试集的比例期望上都是testPercent
+ * 3) 用一个有界的缓冲区做局部打乱，每次reset后打乱的顺序不同但可复现
+ * <p>
+ * 可以直接作为CnnSentenceDataSetIterator.Builder的sentenceProvider
+ */
+@Slf4j
+public class StreamingLabeledSentenceProvider implements LabeledSentenceProvider {
+
+    /**
+     * 读取的数据子集
+     */
+    public enum Subset {
+        TRAIN,
+        TEST,
+        ALL
+    }
+
+    private static final int HASH_BUCKETS = 10000;
+
+    private final List<String> paths;
+    private final LabeledLine labeledLine;
+    private final String encode;
+    private final String ignore;
+    private final Subset subset;
+    private final int testBuckets;
+    private final long splitSeed;
+    private final int shuffleBufferSize;
+    private final long shuffleSeed;
+    private final List<String> labels;
+
+    private int epoch = 0;
+    private Random rng;
+    private List<String> fileOrder;
+    private int fileCursor;
+    private BufferedReader reader;
+    private final List<Pair<String, String>> buffer;
+    private Pair<String, String> next;
+    private int totalNumSentences = -1;
+    private int count;
+    private int wrongCount;
+
+    private StreamingLabeledSentenceProvider(Builder builder) {
+        this.paths = builder.paths;
+        this.labeledLine = new LabeledLine(builder.labelSplit);
+        this.encode = builder.encode;
+        this.ignore = builder.ignore;
+        this.subset = builder.subset;
+        this.testBuckets = (int) (builder.testPercent * HASH_BUCKETS);
+        this.splitSeed = builder.splitSeed;
+        this.shuffleBufferSize = Math.max(1, builder.shuffleBufferSize);
+        this.shuffleSeed = builder.shuffleSeed;
+        this.buffer = new ArrayList<>(shuffleBufferSize);
+        this.labels = null != builder.labels ? new ArrayList<>(builder.labels) : scanLabels();
+        reset();
+    }
+
+    /**
+     * 没有指定标签时，先流式扫描一遍得到所有标签，同时得到句子数
+     */
+    private List<String> scanLabels() {
+        Set<String> labelSet = new TreeSet<>();
+        int total = 0;
+        for (String path : paths) {
+            try (BufferedReader in = open(path)) {
+                String line;
+                while (null != (line = in.readLine())) {
+                    Pair<String, String> sentence = parse(line);
+                    if (null != sentence && accept(line)) {
+                        labelSet.add(sentence.getSecond());
+                        total++;
+                    }
+                }
+            } catch (IOException e) {
+                log.error("读取文件出错:" + path);
+            }
+        }
+        totalNumSentences = total;
+        return new ArrayList<>(labelSet);
+    }
+
+    private BufferedReader open(String path) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(path), encode), 1 << 16);
+    }
+
+    /**
+     * 按LabeledLine拆分一行为(文本, 标签)，空行、注释行、没有标签的行返回null
+     */
+    private Pair<String, String> parse(String line) {
+        if (FileUtil.DEFAULT_VALUE.equals(line) || line.startsWith(ignore) || !labeledLine.parse(line)) {
+            return null;
+        }
+        return new Pair<>(labeledLine.text(), labeledLine.label());
+    }
+
+    /**
+     * 根据行内容的哈希值判断是否属于当前子集
+     */
+    private boolean accept(String line) {
+        if (subset == Subset.ALL) {
+            return true;
+        }
+        boolean test = bucket(line, splitSeed) < testBuckets;
+        return subset == Subset.TEST ? test : !test;
+    }
+
+    /**
+     * 64位FNV-1a哈希映射到[0, HASH_BUCKETS)
+     */
+    static int bucket(String line, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        return (int) ((h & Long.MAX_VALUE) % HASH_BUCKETS);
+    }
+
+    /**
+     * 从文件中读下一个属于当前子集的句子，所有文件读完返回null
+     */
+    private Pair<String, String> readNext() {
+        try {
+            while (fileCursor < fileOrder.size() || null != reader) {
+                if (null == reader) {
+                    reader = open(fileOrder.get(fileCursor++));
+                }
+                String line;
+                while (null != (line = reader.readLine())) {
+                    Pair<String, String> sentence = parse(line);
+                    if (null == sentence) {
+                        if (!FileUtil.DEFAULT_VALUE.equals(line) && !line.startsWith(ignore)) {
+                            wrongCount++;
+                        }
+                        continue;
+                    }
+                    if (accept(line)) {
+                        return sentence;
+                    }
+                }
+                reader.close();
+                reader = null;
+            }
+        } catch (IOException e) {
+            log.error("读取文件出错:" + fileOrder.get(Math.max(0, fileCursor - 1)));
+            closeReader();
+        }
+        return null;
+    }
+
+    /**
+     * 缓冲区未满时先填满，之后每读入一条就从缓冲区中随机取出一条，文件读完后把缓冲区随机取空
+     */
+    private Pair<String, String> advance() {
+        Pair<String, String> sentence;
+        while (buffer.size() < shuffleBufferSize && null != (sentence = readNext())) {
+            buffer.add(sentence);
+        }
+        if (buffer.isEmpty()) {
+            return null;
+        }
+        int i = rng.nextInt(buffer.size());
+        Pair<String, String> result = buffer.get(i);
+        Pair<String, String> last = buffer.remove(buffer.size() - 1);
+        if (i < buffer.size()) {
+            buffer.set(i, last);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return null != next;
+    }
+
+    @Override
+    public Pair<String, String> nextSentence() {
+        if (null == next) {
+            throw new NoSuchElementException();
+        }
+        Pair<String, String> current = next;
+        count++;
+        next = advance();
+        if (null == next) {
+            totalNumSentences = count;
+            if (wrongCount > 0) {
+                log.warn("格式错误的行数:" + wrongCount);
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void reset() {
+        closeReader();
+        buffer.clear();
+        rng = new Random(shuffleSeed + epoch++);
+        fileOrder = new ArrayList<>(paths);
+        if (shuffleBufferSize > 1) {
+            Collections.shuffle(fileOrder, rng);
+        }
+        fileCursor = 0;
+        count = 0;
+        wrongCount = 0;
+        next = advance();
+    }
+
+    private void closeReader() {
+        if (null != reader) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.error("关闭缓冲流出错！");
+            }
+            reader = null;
+        }
+    }
+
+    /**
+     * @return 句子数，指定了标签且还没有完整读完一遍时返回-1
+     */
+    @Override
+    public int totalNumSentences() {
+        return totalNumSentences;
+    }
+
+    @Override
+    public List<String> allLabels() {
+        return labels;
+    }
+
+    @Override
+    public int numLabelClasses() {
+        return labels.size();
+    }
+
+    public static class Builder {
+        private List<String> paths = new ArrayList<>();
+        private String labelSplit = "__label__";
+        private String encode = FileUtil.DEFAULT_ENCODE;
+        private String ignore = FileUtil.DEFAULT_IGNORE;
+        private Subset subset = Subset.ALL;
+        private float testPercent = 0.2f;
+        private long splitSeed = 12345;
+        private int shuffleBufferSize = 10000;
+        private long shuffleSeed = 12345;
+        private List<String> labels;
+
+        /**
+         * 语料文件，可以多次调用
+         */
+        public Builder addPath(String path) {
+            paths.add(path);
+            return this;
+        }
+
+        public Builder paths(Collection<String> paths) {
+            this.paths.addAll(paths);
+            return this;
+        }
+
+        public Builder labelSplit(String labelSplit) {
+            this.labelSplit = labelSplit;
+            return this;
+        }
+
+        public Builder encode(String encode) {
+            this.encode = encode;
+            return this;
+        }
+
+        /**
+         * 以这个字符开始的行跳过，与FileUtil.readFileToArray一致
+         */
+        public Builder ignore(String ignore) {
+            this.ignore = ignore;
+            return this;
+        }
+
+        /**
+         * 读取训练集、测试集或者全部数据
+         *
+         * @param subset      子集
+         * @param testPercent 测试集的比例
+         */
+        public Builder subset(Subset subset, float testPercent) {
+            this.subset = subset;
+            this.testPercent = testPercent;
+            return this;
+        }
+
+        /**
+         * 拆分训练集和测试集的哈希种子，训练和测试用的两个provider必须相同
+         */
+        public Builder splitSeed(long splitSeed) {
+            this.splitSeed = splitSeed;
+            return this;
+        }
+
+        /**
+         * 打乱缓冲区大小，1表示不打乱，按文件顺序读取
+         */
+        public Builder shuffleBufferSize(int shuffleBufferSize) {
+            this.shuffleBufferSize = shuffleBufferSize;
+            return this;
+        }
+
+        public Builder shuffleSeed(long shuffleSeed) {
+            this.shuffleSeed = shuffleSeed;
+            return this;
+        }
+
+        /**
+         * 指定所有标签，可以省去构造时扫描一遍语料
+         */
+        public Builder labels(List<String> labels) {
+            this.labels = labels;
+            return this;
+        }
+
+        public StreamingLabeledSentenceProvider build() {
+            if (paths.isEmpty()) {
+                throw new IllegalArgumentException("至少需要一个语料文件");
+            }
+            return new StreamingLabeledSentenceProvider(this);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.msg.lm;
+
+import org.deeplearning4j.nn.api.layers.RecurrentLayer;
+import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * 用字符级语言模型批量生成文本
+ * <p>
+ * 多个互相独立的生成流组成一个batch，每一步只调用一次rnnTimeStep。输入张量按流数预先分配，每一步只改写上一步的字符，
+ * 输出放在复用的workspace里，概率读到预先分配的float数组后由CharacterSampler选出下一个字符
+ * <p>
+ * 同时支持LstmLanguageModel的两种网络: 第一层是EmbeddingSequenceLayer时输入字符下标，否则输入one-hot。
+ * 生成会清空并改写网络的RNN状态，不是线程安全的，也不要和训练同时进行
+ */
+public class CharacterGenerator {
+    private static final WorkspaceConfiguration OUTPUT_WORKSPACE = WorkspaceConfiguration.builder()
+            .initialSize(0)
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .policyLearning(LearningPolicy.FIRST_LOOP)
+            .build();
+    private static final String OUTPUT_WORKSPACE_ID = "CHARACTER_GENERATOR_OUTPUT";
+
+    private final MultiLayerNetwork network;
+    private final String alphabet;
+    private final int[] charIndex = new int[Character.MAX_VALUE + 1];
+    private final boolean indexInput;
+    private final Random random;
+    private INDArray input;
+    private int[] current = new int[0];
+    private int[] lastInput = new int[0];
+    private float[] probabilities = new float[0];
+
+    /**
+     * @param network  训练好的字符级语言模型
+     * @param alphabet 训练时使用的字符表
+     */
+    public CharacterGenerator(MultiLayerNetwork network, String alphabet) {
+        this(network, alphabet, new Random(42));
+    }
+
+    public CharacterGenerator(MultiLayerNetwork network, String alphabet, Random random) {
+        this.network = network;
+        this.alphabet = alphabet;
+        this.random = random;
+        this.indexInput = network.getLayerWiseConfigurations().getConf(0).getLayer() instanceof EmbeddingSequenceLayer;
+        Arrays.fill(charIndex, -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            charIndex[alphabet.charAt(i)] = i;
+        }
+    }
+
+    /**
+     * @return 字符在字符表中的下标，不在字符表中时返回-1
+     */
+    public int indexOf(char c) {
+        return charIndex[c];
+    }
+
+    /**
+     * 单个流的生成
+     */
+    public String generate(String prompt, int length, CharacterSampler sampler) {
+        return generate(Collections.singletonList(prompt), length, sampler).get(0);
+    }
+
+    /**
+     * 同时生成多个流，每个流先读入自己的提示文本，再各自生成length个字符
+     * <p>
+     * 提示文本长度不同时，较短的流先开始生成，较长的流还在读入提示，所有流仍然在同一个batch里前进。
+     * 提示中字符表以外的字符被跳过，提示为空时以字符表的第一个字符开始
+     *
+     * @return 每个流生成的文本，不包括提示
+     */
+    public List<String> generate(List<String> prompts, int length, CharacterSampler sampler) {
+        int streams = prompts.size();
+        int[][] promptIndexes = new int[streams][];
+        int steps = 0;
+        for (int s = 0; s < streams; s++) {
+            promptIndexes[s] = encode(prompts.get(s));
+            steps = Math.max(steps, promptIndexes[s].length + length - 1);
+        }
+        StringBuilder[] outputs = new StringBuilder[streams];
+        for (int s = 0; s < streams; s++) {
+            outputs[s] = new StringBuilder(length);
+        }
+        prepare(streams);
+        network.rnnClearPreviousState();
+        int numCharacters = alphabet.length();
+        for (int t = 0; t <= steps && length > 0; t++) {
+            for (int s = 0; s < streams; s++) {
+                int[] prompt = promptIndexes[s];
+                setInput(s, t < prompt.length ? prompt[t] : current[s]);
+            }
+            step(streams);
+            for (int s = 0; s < streams; s++) {
+                if (t >= promptIndexes[s].length - 1 && outputs[s].length() < length) {
+                    int next = sampler.sample(probabilities, s * numCharacters, numCharacters, random);
+                    current[s] = next;
+                    outputs[s].append(alphabet.charAt(next));
+                }
+            }
+        }
+        network.rnnClearPreviousState();
+        List<String> results = new ArrayList<>(streams);
+        for (StringBuilder output : outputs) {
+            results.add(output.toString());
+        }
+        return results;
+    }
+
+    /**
+     * 束搜索: 保留对数概率之和最大的beamWidth个候选，每一步把所有候选的所有后继字符放在一起重新选择
+     * <p>
+     * 候选作为beamWidth个流放在一个batch里，选择后按父候选重新排列各个RNN层的状态
+     *
+     * @return 对数概率之和最大的生成结果，不包括提示
+     */
+    public String beamSearch(String prompt, int length, int beamWidth) {
+        int[] promptIndex = encode(prompt);
+        int numCharacters = alphabet.length();
+        prepare(beamWidth);
+        network.rnnClearPreviousState();
+        for (int t = 0; t < promptIndex.length - 1; t++) {
+            for (int b = 0; b < beamWidth; b++) {
+                setInput(b, promptIndex[t]);
+            }
+            step(beamWidth);
+        }
+        Arrays.fill(current, 0, beamWidth, promptIndex[promptIndex.length - 1]);
+
+        int[][] sequences = new int[beamWidth][length];
+        int[][] nextSequences = new int[beamWidth][length];
+        double[] scores = new double[beamWidth];
+        double[] nextScores = new double[beamWidth];
+        int[] parents = new int[beamWidth];
+        int[] nextChars = new int[beamWidth];
+        //所有候选一开始相同，第一步只从第一个候选扩展，避免重复
+        int live = 1;
+        for (int t = 0; t < length; t++) {
+            for (int b = 0; b < beamWidth; b++) {
+                setInput(b, current[b]);
+            }
+            step(beamWidth);
+            int selected = 0;
+            for (int b = 0; b < live; b++) {
+                for (int c = 0; c < numCharacters; c++) {
+                    double score = scores[b] + Math.log(Math.max(probabilities[b * numCharacters + c], 1e-30f));
+                    //按分数降序插入到长度为beamWidth的有序数组
+                    if (selected < beamWidth || score > nextScores[selected - 1]) {
+                        int position = Math.min(selected, beamWidth - 1);
+                        while (position > 0 && nextScores[position - 1] < score) {
+                            nextScores[position] = nextScores[position - 1];
+                            parents[position] = parents[position - 1];
+                            nextChars[position] = nextChars[position - 1];
+                            position--;
+                        }
+                        nextScores[position] = score;
+                        parents[position] = b;
+                        nextChars[position] = c;
+                        selected = Math.min(selected + 1, beamWidth);
+                    }
+                }
+            }
+            for (int b = 0; b < selected; b++) {
+                System.arraycopy(sequences[parents[b]], 0, nextSequences[b], 0, t);
+                nextSequences[b][t] = nextChars[b];
+                current[b] = nextChars[b];
+            }
+            int[][] swap = sequences;
+            sequences = nextSequences;
+            nextSequences = swap;
+            System.arraycopy(nextScores, 0, scores, 0, selected);
+            live = selected;
+            reorderState(parents, selected, beamWidth);
+        }
+        network.rnnClearPreviousState();
+        StringBuilder output = new StringBuilder(length);
+        for (int c : sequences[0]) {
+            output.append(alphabet.charAt(c));
+        }
+        return output.toString();
+    }
+
+    private int[] encode(String prompt) {
+        int[] indexes = new int[prompt.length()];
+        int count = 0;
+        for (int i = 0; i < prompt.length(); i++) {
+            int index = charIndex[prompt.charAt(i)];
+            if (index >= 0) {
+                indexes[count++] = index;
+            }
+        }
+        return count == 0 ? new int[]{0} : Arrays.copyOf(indexes, count);
+    }
+
+    /**
+     * 按流数分配输入张量和概率数组，流数不变时复用
+     */
+    private void prepare(int streams) {
+        int numCharacters = alphabet.length();
+        if (null == input || input.size(0) != streams) {
+            input = indexInput ? Nd4j.zeros(new int[]{streams, 1, 1}) : Nd4j.zeros(new int[]{streams, numCharacters, 1});
+            current = new int[streams];
+            lastInput = new int[streams];
+            probabilities = new float[streams * numCharacters];
+        } else if (!indexInput) {
+            input.assign(0);
+        }
+        Arrays.fill(current, 0);
+        Arrays.fill(lastInput, 0);
+    }
+
+    private void setInput(int stream, int index) {
+        if (indexInput) {
+            input.putScalar(stream, 0, 0, index);
+        } else {
+            //one-hot输入只需要清掉上一步的位置
+            input.putScalar(stream, lastInput[stream], 0, 0);
+            input.putScalar(stream, index, 0, 1);
+            lastInput[stream] = index;
+        }
+    }
+
+    /**
+     * 所有流前进一步，输出的概率按[流, 字符]写到probabilities
+     */
+    private void step(int streams) {
+        int numCharacters = alphabet.length();
+        try (MemoryWorkspace workspace = Nd4j.getWorkspaceManager().getAndActivateWorkspace(OUTPUT_WORKSPACE, OUTPUT_WORKSPACE_ID)) {
+            INDArray output = network.rnnTimeStep(input, workspace);
+            //视图的data()已经从视图的起点开始，只需要按步长计算位置
+            DataBuffer data = output.data();
+            long streamStride = output.stride(0);
+            long charStride = output.stride(1);
+            for (int s = 0; s < streams; s++) {
+                for (int c = 0; c < numCharacters; c++) {
+                    probabilities[s * numCharacters + c] = data.getFloat(s * streamStride + c * charStride);
+                }
+            }
+        }
+    }
+
+    /**
+     * 第i个流的RNN状态换成第parents[i]个流的状态，没有被选中的流保持原状态
+     */
+    private void reorderState(int[] parents, int selected, int streams) {
+        int[] rows = new int[streams];
+        for (int i = 0; i < streams; i++) {
+            rows[i] = i < selected ? parents[i] : i;
+        }
+        for (int layer = 0; layer < network.getnLayers(); layer++) {
+            if (!(network.getLayer(layer) instanceof RecurrentLayer)) {
+                continue;
+            }
+            Map<String, INDArray> state = network.rnnGetPreviousState(layer);
+            Map<String, INDArray> reordered = new HashMap<>();
+            for (Map.Entry<String, INDArray> entry : state.entrySet()) {
+                reordered.put(entry.getKey(), Nd4j.pullRows(entry.getValue(), 1, rows));
+            }
+            network.rnnSetPreviousState(layer, reordered);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.msg.lm;
+
+import java.util.Random;
+
+/**
+ * 从字符的概率分布中选出下一个字符
+ * <p>
+ * 实现可以保存临时数组以避免每一步分配内存，因此不是线程安全的，每个CharacterGenerator使用自己的实例
+ */
+public interface CharacterSampler {
+
+    /**
+     * @param probabilities 概率分布，位于[offset, offset + length)
+     * @return 选中的字符下标，在[0, length)之间
+     */
+    int sample(float[] probabilities, int offset, int length, Random random);
+
+    /**
+     * 每一步取概率最大的字符
+     */
+    static CharacterSampler greedy() {
+        return (probabilities, offset, length, random) -> {
+            int best = 0;
+            for (int i = 1; i < length; i++) {
+                if (probabilities[offset + i] > probabilities[offset + best]) {
+                    best = i;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * 按p^(1/temperature)重新归一化后采样，temperature小于1时更保守，大于1时更随机
+     */
+    static CharacterSampler temperature(double temperature) {
+        return topK(Integer.MAX_VALUE, temperature);
+    }
+
+    /**
+     * 只在概率最大的k个字符中按温度采样
+     */
+    static CharacterSampler topK(int k, double temperature) {
+        if (k < 1 || temperature <= 0) {
+            throw new IllegalArgumentException("k必须为正数，temperature必须大于0: " + k + ", " + temperature);
+        }
+        return new CharacterSampler() {
+            private int[] candidates = new int[0];
+            private double[] weights = new double[0];
+
+            @Override
+            public int sample(float[] probabilities, int offset, int length, Random random) {
+                if (candidates.length < length) {
+                    candidates = new int[length];
+                    weights = new double[length];
+                }
+                int count = Math.min(k, length);
+                //部分选择排序，k通常很小
+                for (int i = 0; i < length; i++) {
+                    candidates[i] = i;
+                }
+                if (count < length) {
+                    for (int i = 0; i < count; i++) {
+                        int best = i;
+                        for (int j = i + 1; j < length; j++) {
+                            if (probabilities[offset + candidates[j]] > probabilities[offset + candidates[best]]) {
+                                best = j;
+                            }
+                        }
+                        int swap = candidates[i];
+                        candidates[i] = candidates[best];
+                        candidates[best] = swap;
+                    }
+                }
+                double total = 0;
+                for (int i = 0; i < count; i++) {
+                    double p = probabilities[offset + candidates[i]];
+                    weights[i] = p <= 0 ? 0 : Math.exp(Math.log(p) / temperature);
+                    total += weights[i];
+                }
+                if (total <= 0) {
+                    return candidates[0];
+                }
+                double target = random.nextDouble() * total;
+                for (int i = 0; i < count; i++) {
+                    target -= weights[i];
+                    if (target <= 0) {
+                        return candidates[i];
+                    }
+                }
+                return candidates[count - 1];
+            }
+        };
+    }
+}
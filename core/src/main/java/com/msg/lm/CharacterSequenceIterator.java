@@ -0,0 +1,239 @@
+package com.msg.lm;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * 流式读取整个文本文件，切成固定长度的字符窗口组成minibatch，用于字符级语言模型的训练
+ * <p>
+ * 文本按顺序切成长度为sequenceLength的窗口，标签是向后错一位的字符，相邻窗口首尾相接，不会丢掉字符之间的转移。
+ * 特征是字符在字符表里的下标，形状[batch, 1, sequenceLength]，由网络第一层EmbeddingSequenceLayer查表，
+ * 不需要one-hot输入；标签是one-hot的[batch, 字符数, sequenceLength]，直接写进float数组后一次创建
+ * <p>
+ * 字符表以外的字符被跳过，文件末尾不满一个窗口的字符被丢弃
+ */
+public class CharacterSequenceIterator implements DataSetIterator {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final Charset charset;
+    private final String alphabet;
+    private final int[] charIndex = new int[Character.MAX_VALUE + 1];
+    private final int sequenceLength;
+    private final int batchSize;
+    private final long maxCharacters;
+    private final char[] buffer = new char[1 << 16];
+    private Reader reader;
+    private int position;
+    private int limit;
+    private int carry;
+    private volatile long charactersRead;
+    private DataSet next;
+    private boolean exhausted;
+    private DataSetPreProcessor preProcessor;
+
+    /**
+     * @param path           文本文件路径
+     * @param alphabet       字符表，字符在其中的位置就是它的下标
+     * @param sequenceLength 每个窗口的字符数
+     * @param batchSize      每个minibatch的窗口数
+     */
+    public CharacterSequenceIterator(String path, String alphabet, int sequenceLength, int batchSize) {
+        this(path, Charset.forName("UTF-8"), alphabet, sequenceLength, batchSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxCharacters 每个epoch最多读取的有效字符数
+     */
+    public CharacterSequenceIterator(String path, Charset charset, String alphabet, int sequenceLength, int batchSize,
+                                     long maxCharacters) {
+        this.path = path;
+        this.charset = charset;
+        this.alphabet = alphabet;
+        this.sequenceLength = sequenceLength;
+        this.batchSize = batchSize;
+        this.maxCharacters = maxCharacters;
+        Arrays.fill(charIndex, -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            charIndex[alphabet.charAt(i)] = i;
+        }
+        reset();
+    }
+
+    /**
+     * @return 下一个字符表内字符的下标，读完时返回-1
+     */
+    private int read() throws IOException {
+        while (charactersRead < maxCharacters) {
+            if (position == limit) {
+                limit = reader.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            int index = charIndex[buffer[position++]];
+            if (index >= 0) {
+                charactersRead++;
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取sequenceLength + 1个字符，第一个是上一个窗口的最后一个字符
+     */
+    private boolean readWindow(int[] window) throws IOException {
+        int start = 0;
+        if (carry >= 0) {
+            window[start++] = carry;
+        }
+        for (int i = start; i < window.length; i++) {
+            int index = read();
+            if (index < 0) {
+                return false;
+            }
+            window[i] = index;
+        }
+        carry = window[window.length - 1];
+        return true;
+    }
+
+    private DataSet readBatch() {
+        List<int[]> windows = new ArrayList<>(batchSize);
+        try {
+            while (windows.size() < batchSize) {
+                int[] window = new int[sequenceLength + 1];
+                if (!readWindow(window)) {
+                    break;
+                }
+                windows.add(window);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取文本出错:" + path, e);
+        }
+        if (windows.isEmpty()) {
+            return null;
+        }
+        int count = windows.size();
+        int numCharacters = alphabet.length();
+        float[] features = new float[count * sequenceLength];
+        float[] labels = new float[count * numCharacters * sequenceLength];
+        for (int i = 0; i < count; i++) {
+            int[] window = windows.get(i);
+            for (int t = 0; t < sequenceLength; t++) {
+                features[i * sequenceLength + t] = window[t];
+                labels[(i * numCharacters + window[t + 1]) * sequenceLength + t] = 1;
+            }
+        }
+        return new DataSet(Nd4j.create(features, new int[]{count, 1, sequenceLength}, 'c'),
+                Nd4j.create(labels, new int[]{count, numCharacters, sequenceLength}, 'c'));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (null == next && !exhausted) {
+            next = readBatch();
+            exhausted = null == next;
+        }
+        return null != next;
+    }
+
+    @Override
+    public DataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DataSet dataSet = next;
+        next = null;
+        if (null != preProcessor) {
+            preProcessor.preProcess(dataSet);
+        }
+        return dataSet;
+    }
+
+    /**
+     * 窗口数在构造时就已经确定，num参数被忽略
+     */
+    @Override
+    public DataSet next(int num) {
+        return next();
+    }
+
+    /**
+     * @return 本epoch到目前为止读取的有效字符数
+     */
+    public long getCharactersRead() {
+        return charactersRead;
+    }
+
+    @Override
+    public void reset() {
+        try {
+            if (null != reader) {
+                reader.close();
+            }
+            reader = new InputStreamReader(new FileInputStream(path), charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开文本出错:" + path, e);
+        }
+        position = 0;
+        limit = 0;
+        carry = -1;
+        charactersRead = 0;
+        next = null;
+        exhausted = false;
+    }
+
+    @Override
+    public int inputColumns() {
+        return 1;
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return alphabet.length();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        List<String> labels = new ArrayList<>(alphabet.length());
+        for (char c : alphabet.toCharArray()) {
+            labels.add(String.valueOf(c));
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,145 @@
+package com.msg.lm;
+
+import com.msg.metrics.Metrics;
+import com.msg.metrics.TrainingMetricsListener;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.BackpropType;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+/**
+ * * Created by MSG on 19-4-4 下午5:55
+ */
+public class LstmLanguageModel {
+    public static final String VALID_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890\"\n',.?;()[]{}:!- ";
+    public static final int SEQUENCE_LENGTH = 1000;
+    public static final int TBPTT_LENGTH = 50;
+    public static final int BATCH_SIZE = 32;
+    public static final int EMBEDDING_SIZE = 32;
+    public static final int HIDDEN = 128;
+
+    /**
+     * 构建一层LSTM加RnnOutputLayer的字符级语言模型
+     *
+     * @param numCharacters 字符表大小，即输入和输出的维度
+     * @param hidden        LSTM隐藏层大小
+     */
+    public static MultiLayerNetwork buildNetwork(int numCharacters, int hidden) {
+        LSTM.Builder lstmBuilder = new LSTM.Builder();
+        lstmBuilder.activation(Activation.TANH);
+        lstmBuilder.nIn(numCharacters);
+        lstmBuilder.nOut(hidden); // Hidden
+        LSTM inputLayer = lstmBuilder.build();
+
+        RnnOutputLayer.Builder outputBuilder = new RnnOutputLayer.Builder();
+        outputBuilder.lossFunction(LossFunctions.LossFunction.MSE);
+        outputBuilder.activation(Activation.SOFTMAX);
+        outputBuilder.nIn(hidden); // Hidden
+        outputBuilder.nOut(numCharacters);
+        RnnOutputLayer outputLayer = outputBuilder.build();
+
+        NeuralNetConfiguration.Builder nnBuilder = new NeuralNetConfiguration.Builder();
+        nnBuilder.optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT);
+        nnBuilder.updater(new Adam(0.01));
+        nnBuilder.weightInit(WeightInit.XAVIER);
+        nnBuilder.miniBatch(true);
+
+        MultiLayerNetwork network = new MultiLayerNetwork(
+                nnBuilder.list()
+                        .layer(0, inputLayer)
+                        .layer(1, outputLayer)
+                        .backprop(true).pretrain(false)
+                        .build());
+
+        network.init();
+        return network;
+    }
+
+    /**
+     * 构建EmbeddingSequenceLayer、LSTM加RnnOutputLayer的字符级语言模型，用截断BPTT训练
+     * <p>
+     * 输入是[batch, 1, 时间步]的字符下标，不需要one-hot，和CharacterSequenceIterator配合使用
+     *
+     * @param numCharacters 字符表大小
+     * @param embeddingSize 字符向量维度
+     * @param hidden        LSTM隐藏层大小
+     * @param tbpttLength   截断BPTT每段的时间步数
+     */
+    public static MultiLayerNetwork buildNetwork(int numCharacters, int embeddingSize, int hidden, int tbpttLength) {
+        NeuralNetConfiguration.Builder nnBuilder = new NeuralNetConfiguration.Builder();
+        nnBuilder.optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT);
+        nnBuilder.updater(new Adam(0.01));
+        nnBuilder.weightInit(WeightInit.XAVIER);
+        nnBuilder.seed(42);
+
+        MultiLayerNetwork network = new MultiLayerNetwork(
+                nnBuilder.list()
+                        .layer(0, new EmbeddingSequenceLayer.Builder()
+                                .nIn(numCharacters).nOut(embeddingSize).inferInputLength(true).build())
+                        .layer(1, new LSTM.Builder().activation(Activation.TANH)
+                                .nIn(embeddingSize).nOut(hidden).build())
+                        .layer(2, new RnnOutputLayer.Builder(LossFunctions.LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                                .nIn(hidden).nOut(numCharacters).build())
+                        .backpropType(BackpropType.TruncatedBPTT)
+                        .tBPTTForwardLength(tbpttLength)
+                        .tBPTTBackwardLength(tbpttLength)
+                        .build());
+
+        network.init();
+        return network;
+    }
+
+    /**
+     * 在整个文本上训练，文本按SEQUENCE_LENGTH切成窗口，每BATCH_SIZE个窗口一个minibatch，
+     * 每个epoch结束输出字符吞吐量、内存占用和一段生成的文本
+     *
+     * @param textPath 文本路径
+     * @param epochs   遍历文本的次数
+     */
+    public static MultiLayerNetwork train(String textPath, int epochs) {
+        String validCharacters = VALID_CHARACTERS;
+        CharacterSequenceIterator iterator = new CharacterSequenceIterator(textPath, validCharacters, SEQUENCE_LENGTH, BATCH_SIZE);
+        MultiLayerNetwork network = buildNetwork(validCharacters.length(), EMBEDDING_SIZE, HIDDEN, TBPTT_LENGTH);
+        TrainingMetricsListener listener = new TrainingMetricsListener(Metrics.registry(), 10, epochs);
+        network.setListeners(listener);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            long start = System.nanoTime();
+            listener.onEpochStart(network);
+            network.fit(iterator);
+            listener.onEpochEnd(network);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("epoch %d: %d 个字符, %.0f 字符/秒, 堆外内存 %s, 堆内存 %s",
+                    epoch, iterator.getCharactersRead(), iterator.getCharactersRead() / seconds,
+                    Pointer.formatBytes(Pointer.totalBytes()),
+                    Pointer.formatBytes(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())));
+            System.out.println(epoch + " > A" + generate(network, validCharacters, 200) + "\n----------\n");
+            iterator.reset();
+        }
+        return network;
+    }
+
+    /**
+     * 从第一个字符开始，每一步取概率最大的字符作为下一步的输入
+     *
+     * @param network 由buildNetwork构建的网络
+     */
+    public static String generate(MultiLayerNetwork network, String validCharacters, int length) {
+        return new CharacterGenerator(network, validCharacters)
+                .generate(String.valueOf(validCharacters.charAt(0)), length, CharacterSampler.greedy());
+    }
+
+    public static void main(String[] args) {
+        String path = LstmLanguageModel.class.getClassLoader().getResource("temp.txt").getPath();
+        train(path, 100);
+    }
+
+
+}
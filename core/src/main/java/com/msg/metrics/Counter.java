@@ -0,0 +1,15 @@
+package com.msg.metrics;
+
+/**
+ * 单调递增的计数器
+ */
+public interface Counter {
+
+    void increment(long delta);
+
+    default void increment() {
+        increment(1);
+    }
+
+    long count();
+}
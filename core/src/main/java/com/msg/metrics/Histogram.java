@@ -0,0 +1,20 @@
+package com.msg.metrics;
+
+/**
+ * 记录非负整数值的分布，例如以微秒为单位的延迟、批大小
+ */
+public interface Histogram {
+
+    void record(long value);
+
+    long count();
+
+    double mean();
+
+    long max();
+
+    /**
+     * @param percentile 百分位，取值(0, 100]，例如99.9
+     */
+    long percentile(double percentile);
+}
@@ -0,0 +1,62 @@
+package com.msg.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 默认的指标注册表，所有指标保存在内存中，可以通过JmxMetricsExporter暴露给JMX
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new AdderCounter());
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LogLinearHistogram());
+    }
+
+    @Override
+    public void gauge(String name, DoubleSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    @Override
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.count()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".mean", histogram.mean());
+            values.put(name + ".p50", histogram.percentile(50));
+            values.put(name + ".p99", histogram.percentile(99));
+            values.put(name + ".p999", histogram.percentile(99.9));
+            values.put(name + ".max", histogram.max());
+        });
+        return values;
+    }
+
+    private static class AdderCounter implements Counter {
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public void increment(long delta) {
+            adder.add(delta);
+        }
+
+        @Override
+        public long count() {
+            return adder.sum();
+        }
+    }
+}
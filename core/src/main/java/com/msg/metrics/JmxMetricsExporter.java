@@ -0,0 +1,89 @@
+package com.msg.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * 把注册表里的指标作为一个MBean的只读属性暴露给JMX，属性列表在每次读取时按当前的指标生成
+ */
+@Slf4j
+public class JmxMetricsExporter implements DynamicMBean {
+    public static final String DEFAULT_NAME = "com.msg.classification4j:type=Metrics";
+
+    private final MetricsRegistry registry;
+
+    private JmxMetricsExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 注册到平台MBeanServer，同名的MBean已经存在时先注销
+     *
+     * @return 是否注册成功
+     */
+    public static boolean register(MetricsRegistry registry, String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new JmxMetricsExporter(registry), name);
+            return true;
+        } catch (JMException e) {
+            log.warn("注册JMX指标出错:" + objectName, e);
+            return false;
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.snapshot().get(attribute);
+        if (null == value) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.doubleValue();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = registry.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = snapshot.get(attribute);
+            if (null != value) {
+                list.add(new Attribute(attribute, value.doubleValue()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> snapshot = registry.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (String name : snapshot.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "double", name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "classification4j指标", attributes, null, null, null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("指标是只读的:" + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(actionName));
+    }
+}
@@ -0,0 +1,32 @@
+package com.msg.metrics;
+
+/**
+ * 全局默认的指标注册表，第一次使用时创建InMemoryMetricsRegistry并注册到JMX
+ */
+public class Metrics {
+    private static volatile MetricsRegistry registry;
+
+    private Metrics() {
+
+    }
+
+    public static MetricsRegistry registry() {
+        if (null == registry) {
+            synchronized (Metrics.class) {
+                if (null == registry) {
+                    InMemoryMetricsRegistry inMemory = new InMemoryMetricsRegistry();
+                    JmxMetricsExporter.register(inMemory, JmxMetricsExporter.DEFAULT_NAME);
+                    registry = inMemory;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * 替换全局注册表，之后创建的分类器和监听器使用新的注册表
+     */
+    public static void setRegistry(MetricsRegistry registry) {
+        Metrics.registry = registry;
+    }
+}
@@ -0,0 +1,32 @@
+package com.msg.metrics;
+
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 指标注册表，训练和推理代码只依赖这个接口，可以替换成对接其它监控系统的实现
+ * <p>
+ * 同名的计数器和直方图只创建一次，重复获取返回同一个对象
+ */
+public interface MetricsRegistry {
+
+    /**
+     * @return 名为name的计数器
+     */
+    Counter counter(String name);
+
+    /**
+     * @return 名为name的直方图
+     */
+    Histogram histogram(String name);
+
+    /**
+     * 注册一个读取时才计算的指标，同名的会被覆盖
+     */
+    void gauge(String name, DoubleSupplier supplier);
+
+    /**
+     * @return 所有指标的当前值，直方图展开为count、mean、p50、p99、p999、max
+     */
+    Map<String, Number> snapshot();
+}
@@ -0,0 +1,168 @@
+package com.msg.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * 训练指标监听器，代替ScoreIterationListener
+ * <p>
+ * 记录每个iteration的耗时、样本吞吐量、score、预计剩余时间、当前线程的ND4J workspace占用和堆外内存，
+ * 以及每个epoch的GC次数和耗时，每隔printIterations个iteration输出一行日志
+ * <p>
+ * 并行训练时多个worker共用一个监听器，iterationDone是同步的
+ */
+@Slf4j
+public class TrainingMetricsListener extends BaseTrainingListener {
+    private final MetricsRegistry registry;
+    private final int printIterations;
+    private final int totalEpochs;
+    private final Counter iterations;
+    private final Counter examples;
+    private final Histogram iterationTime;
+
+    private long lastTimestamp;
+    private long epochStart;
+    private long epochExamples;
+    private int epochIterations;
+    private int iterationsPerEpoch;
+    private int epoch;
+    private boolean inEpoch;
+    private long gcCountAtEpochStart;
+    private long gcTimeAtEpochStart;
+
+    private volatile double score;
+    private volatile double examplesPerSecond;
+    private volatile double etaSeconds;
+    private volatile long workspaceBytes;
+
+    /**
+     * @param registry        指标注册表
+     * @param printIterations 每隔多少个iteration输出一次日志，0表示不输出
+     * @param totalEpochs     计划训练的epoch数，用来估算剩余时间
+     */
+    public TrainingMetricsListener(MetricsRegistry registry, int printIterations, int totalEpochs) {
+        this.registry = registry;
+        this.printIterations = printIterations;
+        this.totalEpochs = totalEpochs;
+        this.iterations = registry.counter("train.iterations");
+        this.examples = registry.counter("train.examples");
+        this.iterationTime = registry.histogram("train.iteration.micros");
+        registry.gauge("train.score", () -> score);
+        registry.gauge("train.examples.per.second", () -> examplesPerSecond);
+        registry.gauge("train.eta.seconds", () -> etaSeconds);
+        registry.gauge("train.epoch", () -> epoch);
+        registry.gauge("train.workspace.bytes", () -> workspaceBytes);
+        registry.gauge("memory.offheap.bytes", Pointer::totalBytes);
+        registry.gauge("memory.physical.bytes", Pointer::physicalBytes);
+        registry.gauge("memory.heap.bytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
+
+    /**
+     * 已经在epoch中时忽略，训练循环可以在fit前主动调用，不会和网络自己的回调重复计算
+     */
+    @Override
+    public synchronized void onEpochStart(Model model) {
+        if (inEpoch) {
+            return;
+        }
+        inEpoch = true;
+        epochStart = System.nanoTime();
+        lastTimestamp = epochStart;
+        epochExamples = 0;
+        epochIterations = 0;
+        gcCountAtEpochStart = gcCount();
+        gcTimeAtEpochStart = gcTime();
+    }
+
+    @Override
+    public synchronized void onEpochEnd(Model model) {
+        if (!inEpoch) {
+            return;
+        }
+        inEpoch = false;
+        if (epochIterations > 0) {
+            iterationsPerEpoch = epochIterations;
+        }
+        long gcCount = gcCount() - gcCountAtEpochStart;
+        long gcTime = gcTime() - gcTimeAtEpochStart;
+        registry.histogram("train.epoch.gc.millis").record(gcTime);
+        registry.gauge("train.last.epoch.gc.count", () -> gcCount);
+        registry.gauge("train.last.epoch.gc.millis", () -> gcTime);
+        double seconds = (System.nanoTime() - epochStart) / 1e9;
+        log.info(String.format("epoch %d 完成: %d 个iteration, %d 个样本, 耗时 %.1fs, %.1f 样本/秒, GC %d 次共 %dms",
+                epoch, epochIterations, epochExamples, seconds, epochExamples / Math.max(seconds, 1e-9), gcCount, gcTime));
+        epoch++;
+    }
+
+    @Override
+    public synchronized void iterationDone(Model model, int iteration, int epoch) {
+        if (!inEpoch) {
+            onEpochStart(model);
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastTimestamp;
+        lastTimestamp = now;
+        int batchSize = model.batchSize();
+
+        iterations.increment();
+        examples.increment(batchSize);
+        iterationTime.record(elapsed / 1000);
+        epochIterations++;
+        epochExamples += batchSize;
+        score = model.score();
+        examplesPerSecond = epochExamples / Math.max((now - epochStart) / 1e9, 1e-9);
+        etaSeconds = eta(now);
+        workspaceBytes = workspaceBytes();
+
+        if (printIterations > 0 && iteration % printIterations == 0) {
+            log.info(String.format("iteration %d, score %.5f, %.1f 样本/秒, iteration耗时p50 %dus, 剩余 %s, workspace %s, 堆外 %s",
+                    iteration, score, examplesPerSecond, iterationTime.percentile(50),
+                    etaSeconds < 0 ? "未知" : String.format("%.0fs", etaSeconds),
+                    Pointer.formatBytes(workspaceBytes), Pointer.formatBytes(Pointer.totalBytes())));
+        }
+    }
+
+    /**
+     * 第一个epoch结束前不知道每个epoch有多少个iteration，返回-1
+     */
+    private double eta(long now) {
+        if (iterationsPerEpoch <= 0) {
+            return -1;
+        }
+        double secondsPerIteration = (now - epochStart) / 1e9 / epochIterations;
+        long remaining = Math.max(0, iterationsPerEpoch - epochIterations)
+                + (long) Math.max(0, totalEpochs - epoch - 1) * iterationsPerEpoch;
+        return remaining * secondsPerIteration;
+    }
+
+    private static long workspaceBytes() {
+        long bytes = 0;
+        for (MemoryWorkspace workspace : Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread()) {
+            bytes += workspace.getCurrentSize();
+        }
+        return bytes;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
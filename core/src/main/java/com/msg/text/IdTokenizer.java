@@ -0,0 +1,94 @@
+package com.msg.text;
+
+import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+
+import java.util.function.IntConsumer;
+
+/**
+ * 把分好词的文本直接转换成词表里的ID，按空白切分，分隔符与DefaultTokenizerFactory(StringTokenizer)相同
+ * <p>
+ * 没有预处理器时每个词直接在原文本的区间上查词表，已知的词不产生任何对象；
+ * 设置了预处理器(例如word2vec用的CommonPreprocessor)时先截取出词再处理，处理后为空的词跳过
+ */
+public class IdTokenizer {
+    private final Vocabulary vocabulary;
+    private final boolean addUnknown;
+    private TokenPreProcess preProcessor;
+
+    /**
+     * @param vocabulary 词表
+     * @param addUnknown 词表里没有的词是否加入词表，否则跳过
+     */
+    public IdTokenizer(Vocabulary vocabulary, boolean addUnknown) {
+        this.vocabulary = vocabulary;
+        this.addUnknown = addUnknown;
+    }
+
+    public void setPreProcessor(TokenPreProcess preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    public Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    public static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * 词的区间
+     */
+    public interface TokenConsumer {
+        void accept(String text, int from, int to);
+    }
+
+    /**
+     * 依次把text[from, to)中每个词的区间交给consumer
+     */
+    public static void forEachToken(String text, int from, int to, TokenConsumer consumer) {
+        int i = from;
+        while (i < to) {
+            while (i < to && isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < to && !isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                consumer.accept(text, start, i);
+            }
+        }
+    }
+
+    /**
+     * 把text[from, to)中的词依次转换成ID交给out
+     */
+    public void encode(String text, int from, int to, IntConsumer out) {
+        forEachToken(text, from, to, (s, start, end) -> {
+            int id;
+            if (null == preProcessor) {
+                id = addUnknown ? vocabulary.idOrAdd(s, start, end) : vocabulary.id(s, start, end);
+            } else {
+                String token = preProcessor.preProcess(s.substring(start, end));
+                if (null == token || token.isEmpty()) {
+                    return;
+                }
+                id = addUnknown ? vocabulary.add(token) : vocabulary.id(token);
+            }
+            if (id >= 0) {
+                out.accept(id);
+            }
+        });
+    }
+
+    /**
+     * @return 文本的ID序列
+     */
+    public int[] encode(String text) {
+        IntArrayBuilder ids = new IntArrayBuilder(16);
+        encode(text, 0, text.length(), ids);
+        return ids.toArray();
+    }
+}
@@ -0,0 +1,43 @@
+package com.msg.text;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 按需扩容的int数组，用来收集ID，不装箱
+ */
+public class IntArrayBuilder implements IntConsumer {
+    private int[] data;
+    private int size;
+
+    public IntArrayBuilder(int capacity) {
+        data = new int[Math.max(1, capacity)];
+    }
+
+    @Override
+    public void accept(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, data.length * 2L));
+        }
+        data[size++] = value;
+    }
+
+    public int get(int index) {
+        return data[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return 长度正好为size的副本
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
@@ -0,0 +1,88 @@
+package com.msg.text;
+
+/**
+ * 解析"分好词的文本 labelSplit 标签"格式的一行，参考fasttext数据格式
+ * <p>
+ * 分隔符按字面匹配，文本是第一个分隔符之前的部分，标签是第一个和第二个分隔符之间的部分，都去掉首尾空白(与String.trim相同)；
+ * 没有分隔符或者标签为空的行没有标签。TrainTestSplit、TokenizedCorpus、StreamingLabeledSentenceProvider和FastTextClassifier
+ * 都按这里的规则读语料
+ * <p>
+ * 解析结果是行内的下标，只在调用text()和label()时才截取字符串；一个实例可以依次解析多行，不是线程安全的
+ */
+public class LabeledLine {
+    private final String labelSplit;
+    private String line;
+    private int split = -1;
+    private int labelFrom;
+    private int labelTo;
+
+    /**
+     * @param labelSplit 文本和标签的分隔符
+     */
+    public LabeledLine(String labelSplit) {
+        this.labelSplit = labelSplit;
+    }
+
+    /**
+     * @param line 一行语料
+     * @return 这一行是否有非空的标签，没有时text()和label()不可用
+     */
+    public boolean parse(String line) {
+        this.line = line;
+        split = line.indexOf(labelSplit);
+        if (split < 0) {
+            return false;
+        }
+        int from = split + labelSplit.length();
+        int to = line.indexOf(labelSplit, from);
+        to = to < 0 ? line.length() : to;
+        while (from < to && line.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && line.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        labelFrom = from;
+        labelTo = to;
+        if (from == to) {
+            split = -1;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 第一个分隔符的位置，文本是line[0, textEnd)
+     */
+    public int textEnd() {
+        return split;
+    }
+
+    /**
+     * @return 标签在行内的起始位置
+     */
+    public int labelFrom() {
+        return labelFrom;
+    }
+
+    /**
+     * @return 标签在行内的结束位置(不含)
+     */
+    public int labelTo() {
+        return labelTo;
+    }
+
+    /**
+     * @return 去掉首尾空白的文本
+     */
+    public String text() {
+        return line.substring(0, split).trim();
+    }
+
+    /**
+     * @return 去掉首尾空白的标签
+     */
+    public String label() {
+        return line.substring(labelFrom, labelTo);
+    }
+}
@@ -0,0 +1,159 @@
+package com.msg.text;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * 转换成ID后的语料，所有句子的ID紧挨着存放在一个int数组里，另有每个句子的起始位置和类别下标
+ * <p>
+ * 语料只分词一次，之后的拆分、训练的每个epoch和评估都直接读ID；select返回只包含部分句子的视图，
+ * 与原语料共用同一份数据，不复制ID
+ * <p>
+ * 类别按字典序排列，与CollectionLabeledSentenceProvider和CnnSentenceDataSetIterator的顺序一致
+ */
+public class TokenizedCorpus {
+    private final int[] ids;
+    private final int[] offsets;        //第i个句子是ids[offsets[i], offsets[i + 1])
+    private final int[] labels;
+    private final List<String> labelNames;
+    private final int[] rows;           //视图包含的句子在原语料中的下标，null表示全部
+
+    /**
+     * 文本区间到ID的转换，IdTokenizer::encode和SentenceVectorizer::encode都可以直接使用
+     */
+    public interface Encoder {
+        void encode(String text, int from, int to, IntConsumer out);
+    }
+
+    private TokenizedCorpus(int[] ids, int[] offsets, int[] labels, List<String> labelNames, int[] rows) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.labels = labels;
+        this.labelNames = labelNames;
+        this.rows = rows;
+    }
+
+    /**
+     * 读取"分好词的文本 labelSplit 标签"格式的语料，按LabeledLine解析，标签为分隔符之后到下一个分隔符之前的部分
+     * <p>
+     * 没有标签的行跳过；labelSplit为null时整行都是文本，所有句子的类别下标为0，没有类别名
+     *
+     * @param lines      语料
+     * @param labelSplit 文本和标签的分隔符
+     * @param encoder    文本到ID的转换
+     */
+    public static TokenizedCorpus read(List<String> lines, String labelSplit, Encoder encoder) {
+        IntArrayBuilder ids = new IntArrayBuilder(lines.size() * 16);
+        int[] offsets = new int[lines.size() + 1];
+        int[] labels = new int[lines.size()];
+        Vocabulary labelVocabulary = new Vocabulary(16);
+        LabeledLine labeledLine = null == labelSplit ? null : new LabeledLine(labelSplit);
+        int n = 0;
+        for (String line : lines) {
+            int end = line.length();
+            if (null != labeledLine) {
+                if (!labeledLine.parse(line)) {
+                    continue;
+                }
+                labels[n] = labelVocabulary.idOrAdd(line, labeledLine.labelFrom(), labeledLine.labelTo());
+                end = labeledLine.textEnd();
+            }
+            encoder.encode(line, 0, end, ids);
+            offsets[++n] = ids.size();
+        }
+
+        //类别改为按字典序编号
+        List<String> labelNames = new ArrayList<>(labelVocabulary.size());
+        for (int i = 0; i < labelVocabulary.size(); i++) {
+            labelNames.add(labelVocabulary.word(i));
+        }
+        Collections.sort(labelNames);
+        int[] order = new int[labelNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[labelVocabulary.id(labelNames.get(i))] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            labels[i] = order.length == 0 ? 0 : order[labels[i]];
+        }
+        return new TokenizedCorpus(ids.toArray(), Arrays.copyOf(offsets, n + 1), Arrays.copyOf(labels, n),
+                Collections.unmodifiableList(labelNames), null);
+    }
+
+    private int row(int i) {
+        return null == rows ? i : rows[i];
+    }
+
+    /**
+     * @return 句子数
+     */
+    public int size() {
+        return null == rows ? labels.length : rows.length;
+    }
+
+    /**
+     * @return 第i个句子的词数
+     */
+    public int length(int i) {
+        int row = row(i);
+        return offsets[row + 1] - offsets[row];
+    }
+
+    /**
+     * @return 第i个句子的第一个ID在ids()中的位置
+     */
+    public int offset(int i) {
+        return offsets[row(i)];
+    }
+
+    /**
+     * @return 所有句子共用的ID数组，只读
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    /**
+     * @return 第i个句子的ID序列的副本
+     */
+    public int[] sentence(int i) {
+        int row = row(i);
+        return Arrays.copyOfRange(ids, offsets[row], offsets[row + 1]);
+    }
+
+    /**
+     * @return 第i个句子的类别下标
+     */
+    public int label(int i) {
+        return labels[row(i)];
+    }
+
+    /**
+     * @return 类别名，按字典序
+     */
+    public List<String> getLabels() {
+        return labelNames;
+    }
+
+    /**
+     * @return 各个类别的句子数
+     */
+    public int[] labelCounts() {
+        int[] counts = new int[Math.max(1, labelNames.size())];
+        for (int i = 0; i < size(); i++) {
+            counts[label(i)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @param indexes 句子在当前视图中的下标
+     * @return 只包含这些句子的视图，顺序与indexes一致
+     */
+    public TokenizedCorpus select(int[] indexes) {
+        int[] selected = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            selected[i] = row(indexes[i]);
+        }
+        return new TokenizedCorpus(ids, offsets, labels, labelNames, selected);
+    }
+}
@@ -0,0 +1,140 @@
+package com.msg.text;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 词和连续整数ID之间的映射，ID从0开始按加入的顺序分配
+ * <p>
+ * 查找可以直接在原文本的一个区间上进行，不需要先截取出词的字符串；查找不加锁，可以和add并发，
+ * 查找时刚加入的词可能还看不到，返回-1，需要的话调用方再加锁add一次
+ */
+public class Vocabulary {
+    /**
+     * 词和ID一起发布，读线程看到槽位里的对象时它的字段一定已经初始化完成
+     */
+    private static final class Entry {
+        private final String word;
+        private final int id;
+
+        private Entry(String word, int id) {
+            this.word = word;
+            this.id = id;
+        }
+    }
+
+    private volatile AtomicReferenceArray<Entry> table;
+    private volatile String[] words;
+    private int size;
+
+    public Vocabulary() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize 预计的词数，超过后自动扩容
+     */
+    public Vocabulary(int expectedSize) {
+        table = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) * 2);
+        words = new String[Math.max(16, expectedSize)];
+    }
+
+    /**
+     * 与String.hashCode相同的多项式哈希，再把高位混合到低位
+     */
+    private static int hash(String text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return text[from, to)对应的词的ID，不存在时返回-1
+     */
+    public int id(String text, int from, int to) {
+        AtomicReferenceArray<Entry> current = table;
+        int mask = current.length() - 1;
+        int length = to - from;
+        for (int slot = hash(text, from, to) & mask; ; slot = (slot + 1) & mask) {
+            Entry entry = current.get(slot);
+            if (null == entry) {
+                return -1;
+            }
+            if (entry.word.length() == length && entry.word.regionMatches(0, text, from, length)) {
+                return entry.id;
+            }
+        }
+    }
+
+    public int id(String word) {
+        return id(word, 0, word.length());
+    }
+
+    /**
+     * 加入一个词
+     *
+     * @return 词的ID，已经存在时返回原来的ID
+     */
+    public synchronized int add(String word) {
+        int id = id(word);
+        if (id >= 0) {
+            return id;
+        }
+        id = size;
+        if (id == words.length) {
+            words = Arrays.copyOf(words, id * 2);
+        }
+        words[id] = word;
+        if ((size + 1) * 2 > table.length()) {
+            rehash(table.length() * 2);
+        }
+        insert(table, new Entry(word, id));
+        size++;
+        return id;
+    }
+
+    /**
+     * @return text[from, to)对应的词的ID，不存在时先加入
+     */
+    public int idOrAdd(String text, int from, int to) {
+        int id = id(text, from, to);
+        return id >= 0 ? id : add(text.substring(from, to));
+    }
+
+    private static void insert(AtomicReferenceArray<Entry> target, Entry entry) {
+        int mask = target.length() - 1;
+        int slot = hash(entry.word, 0, entry.word.length()) & mask;
+        while (null != target.get(slot)) {
+            slot = (slot + 1) & mask;
+        }
+        target.set(slot, entry);
+    }
+
+    /**
+     * 扩容时先建好新表再替换，读线程要么看到完整的旧表，要么看到完整的新表
+     */
+    private void rehash(int capacity) {
+        AtomicReferenceArray<Entry> old = table;
+        AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            Entry entry = old.get(i);
+            if (null != entry) {
+                insert(grown, entry);
+            }
+        }
+        table = grown;
+    }
+
+    /**
+     * @return ID对应的词
+     */
+    public String word(int id) {
+        return words[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,598 @@
+package com.msg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Created by MSG on 2018-04-12:上午9:16
+ */
+@Slf4j
+public class FileUtil {
+
+    public static final String DEFAULT_ENCODE = "utf-8";
+    public static final String DEFAULT_VALUE = "";
+    public static final String DEFAULT_IGNORE = "#";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 23;      //并行读取时每个分块的字节数
+
+    private FileUtil() {
+
+    }
+
+
+    public static List<String> readFileToArray(String filePath) {
+        return readFileToArray(filePath, DEFAULT_ENCODE);
+    }
+
+    public static List<String> readFileToArray(String filePath, String encode) {
+        return readFileToArray(filePath, encode, DEFAULT_IGNORE);
+    }
+
+    /**
+     * 将文件里的内容按行读取到一个list列表中
+     *
+     * @param filePath 文件路径
+     * @param encode   文件编码
+     * @param ignore   以这个字符开始的行，跳过
+     * @return
+     */
+    public static List<String> readFileToArray(String filePath, String encode, String ignore) {
+        List<String> lines = new ArrayList<>();
+        encode = (null == encode || DEFAULT_VALUE.equals(encode)) ? DEFAULT_ENCODE : encode;
+        BufferedReader bufferedReader = null;
+        String line;
+        try {
+            bufferedReader = new BufferedReader(
+                    new InputStreamReader(
+                            new FileInputStream(filePath), encode));
+            while (null != (line = bufferedReader.readLine())) {
+                if (!DEFAULT_VALUE.equals(line) && !line.startsWith(ignore)) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取文件出错:" + filePath);
+        } finally {
+            if (null != bufferedReader) {
+                try {
+                    bufferedReader.close();
+                } catch (IOException e) {
+                    log.error("关闭缓冲流出错！");
+                }
+            }
+        }
+        return lines;
+    }
+
+    public static void writeStrToFile(String line, String filePath) {
+        writeStrToFile(line, filePath, DEFAULT_ENCODE, false);
+    }
+
+    public static void writeStrToFile(String line, String filePath, String encode, boolean append) {
+        List<String> lines = Arrays.asList(line);
+        writeArrayToFile(lines, filePath, encode, append);
+    }
+
+    public static <T> void writeArrayToFile(List<T> lines, String filePath) {
+        writeArrayToFile(lines, filePath, DEFAULT_ENCODE, false);
+    }
+
+    public static <T> void writeArrayToFile(List<T> lines, String filePath, String encode) {
+        writeArrayToFile(lines, filePath, encode, false);
+    }
+
+
+    /**
+     * 将列表数据写入文件
+     *
+     * @param lines    列表数据
+     * @param filePath 写出的路径
+     * @param encode   写出的编码
+     * @param append   是否添加模式
+     */
+    public static <T> void writeArrayToFile(List<T> lines, String filePath, String encode, boolean append) {
+        encode = (null == encode || DEFAULT_VALUE.equals(encode)) ? DEFAULT_ENCODE : encode;
+        BufferedWriter bw = null;
+        try {
+            bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath, append), encode));
+            for (Object line : lines) {
+                bw.write(line.toString());
+                bw.newLine();
+            }
+        } catch (FileNotFoundException e) {
+            log.error("文件路径出错:" + filePath);
+        } catch (UnsupportedEncodingException e) {
+            log.error("不支持的编码格式:" + encode);
+        } catch (IOException e) {
+            log.error("写入出错:" + filePath);
+        } finally {
+            if (null != bw) {
+                try {
+                    bw.close();
+                } catch (IOException e) {
+                    log.error("关闭输出缓冲流出错");
+                }
+            }
+        }
+    }
+
+
+    public static File createFile(String path) {
+        return createPath(path, "FILE");
+    }
+
+    public static File createDir(String path) {
+        return createPath(path, "DIR");
+    }
+
+    /**
+     * 创建目录或者文件
+     *
+     * @param path
+     * @param type
+     * @return
+     */
+    private static File createPath(String path, String type) {
+        File file = new File(path);
+        if (!file.exists()) {
+            if ("FILE".equals(type)) {
+                try {
+                    if (file.createNewFile()) {
+                        log.info("创建文件成功:" + path);
+                    }
+                } catch (IOException e) {
+                    log.error("文件出错:" + path);
+                }
+            } else if ("DIR".equals(type)) {
+                if (file.mkdirs()) {
+                    log.info("创建目录成功:" + path);
+                }
+            } else {
+                log.error("输入类型出错，只能FILE或者DIR");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 简单的获得一个目录下所有的文件
+     *
+     * @param dir
+     * @return
+     */
+    public static List<String> listFiles(String dir) {
+        List<String> filesList = new ArrayList<>();
+        File path = new File(dir);
+        if (path.isDirectory()) {
+            File[] files = path.listFiles();
+            if(null != files) {
+                for (File file : files) {
+                    filesList.addAll(listFiles(file.getAbsolutePath()));
+                }
+            }
+        } else {
+            filesList.add(path.getAbsolutePath());
+        }
+        return filesList;
+    }
+
+
+    /**
+     * 打开文件的输入流，按文件头判断是否压缩:gzip直接解压，zstd需要classpath里有zstd-jni
+     *
+     * @param filePath 文件路径
+     * @return 解压后的输入流
+     */
+    public static InputStream openInputStream(String filePath) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(filePath)), BUFFER_SIZE);
+        try {
+            byte[] head = new byte[4];
+            in.mark(head.length);
+            int n = 0;
+            int read;
+            while (n < head.length && (read = in.read(head, n, head.length - n)) > 0) {
+                n += read;
+            }
+            in.reset();
+            if (isGzip(head, n)) {
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            if (isZstd(head, n)) {
+                if (!ZstdUtils.isZstdCompressionAvailable()) {
+                    throw new IOException("读取zstd压缩文件需要zstd-jni:" + filePath);
+                }
+                return new BufferedInputStream(new ZstdCompressorInputStream(in), BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static boolean isGzip(byte[] head, int n) {
+        return n >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b;
+    }
+
+    private static boolean isZstd(byte[] head, int n) {
+        return n >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5 && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd;
+    }
+
+    /**
+     * @return 文件是否是gzip或zstd压缩的
+     */
+    public static boolean isCompressed(String filePath) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(filePath))) {
+            byte[] head = new byte[4];
+            int n = 0;
+            int read;
+            while (n < head.length && (read = in.read(head, n, head.length - n)) > 0) {
+                n += read;
+            }
+            return isGzip(head, n) || isZstd(head, n);
+        }
+    }
+
+    private static Charset charset(String encode) {
+        return Charset.forName((null == encode || DEFAULT_VALUE.equals(encode)) ? DEFAULT_ENCODE : encode);
+    }
+
+    private static boolean keep(String line, String ignore) {
+        return !DEFAULT_VALUE.equals(line) && (null == ignore || !line.startsWith(ignore));
+    }
+
+    public static Stream<String> lines(String filePath) throws IOException {
+        return lines(filePath, DEFAULT_ENCODE, DEFAULT_IGNORE);
+    }
+
+    /**
+     * 按行惰性读取文件，跳过空行和以ignore开始的行，与readFileToArray一致；压缩文件透明解压
+     * <p>
+     * 不会把整个文件放进内存，适合只需要扫描一遍的大语料；返回的流需要关闭(try-with-resources)，
+     * 读取出错时抛出UncheckedIOException
+     *
+     * @param filePath 文件路径
+     * @param encode   文件编码
+     * @param ignore   以这个字符开始的行，跳过
+     */
+    public static Stream<String> lines(String filePath, String encode, String ignore) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(openInputStream(filePath), charset(encode)), BUFFER_SIZE);
+        try {
+            return reader.lines().filter(line -> keep(line, ignore)).onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    public static List<String> readFileToArrayParallel(String filePath, int threads) {
+        return readFileToArrayParallel(filePath, DEFAULT_ENCODE, DEFAULT_IGNORE, threads);
+    }
+
+    /**
+     * 多线程读取文件，结果与readFileToArray相同(行的顺序不变)
+     * <p>
+     * 文件按换行符切成若干个分块，每个线程用FileChannel按位置读取自己的分块，各自解码和分行，
+     * 分块之间没有共享状态，最后按分块顺序合并。
+     * 只有换行符是单字节的编码(UTF-8、GBK等)可以这样切分，其他编码和压缩文件退回单线程顺序读取
+     *
+     * @param filePath 文件路径
+     * @param encode   文件编码
+     * @param ignore   以这个字符开始的行，跳过
+     * @param threads  线程数
+     * @return 读取出错时为空列表
+     */
+    public static List<String> readFileToArrayParallel(String filePath, String encode, String ignore, int threads) {
+        return readFileToArrayParallel(filePath, encode, ignore, threads, CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize 每个分块的字节数，测试时用很小的分块覆盖分块边界
+     */
+    static List<String> readFileToArrayParallel(String filePath, String encode, String ignore, int threads, int chunkSize) {
+        Charset charset = charset(encode);
+        try {
+            if ("\n".getBytes(charset).length != 1 || "\r".getBytes(charset).length != 1 || isCompressed(filePath)) {
+                try (Stream<String> lines = lines(filePath, charset.name(), ignore)) {
+                    List<String> result = new ArrayList<>();
+                    lines.forEach(result::add);
+                    return result;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.error("读取文件出错:" + filePath, e);
+            return new ArrayList<>();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "file-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ThreadLocal<ChunkReader> readers = ThreadLocal.withInitial(() -> new ChunkReader(charset));
+            List<Future<List<String>>> chunks = new ArrayList<>();
+            long start = 0;
+            while (start < channel.size()) {
+                long from = start;
+                long to = chunkEnd(channel, from + Math.max(1, chunkSize));
+                chunks.add(pool.submit(() -> readers.get().read(channel, from, to, ignore)));
+                start = to;
+            }
+            List<List<String>> parts = new ArrayList<>(chunks.size());
+            int size = 0;
+            for (Future<List<String>> chunk : chunks) {
+                parts.add(chunk.get());
+                size += parts.get(parts.size() - 1).size();
+            }
+            List<String> lines = new ArrayList<>(size);
+            for (List<String> part : parts) {
+                lines.addAll(part);
+            }
+            return lines;
+        } catch (IOException | ExecutionException e) {
+            log.error("读取文件出错:" + filePath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("读取文件被中断:" + filePath);
+        } finally {
+            pool.shutdownNow();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return position之后第一个'\n'的下一个位置，分块的最后一行完整地留在这个分块里
+     */
+    private static long chunkEnd(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += Math.max(n, 0);
+        }
+        return size;
+    }
+
+    /**
+     * 每个线程一个，复用字节和字符缓冲区；缓冲区只有64K，解码和分行都在CPU缓存里完成
+     */
+    private static class ChunkReader {
+        private final CharsetDecoder decoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        ChunkReader(Charset charset) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * 读取[from, to)并按'\n'、'\r'或"\r\n"分行，与BufferedReader.readLine一致
+         */
+        List<String> read(FileChannel channel, long from, long to, String ignore) throws IOException {
+            List<String> lines = new ArrayList<>((int) ((to - from) / 64));
+            decoder.reset();
+            bytes.clear();
+            chars.clear();
+            long position = from;
+            while (true) {
+                if (position < to && bytes.hasRemaining()) {
+                    bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + (to - position)));
+                    int n = channel.read(bytes, position);
+                    if (n < 0) {
+                        throw new EOFException("文件在读取时被截断");
+                    }
+                    position += n;
+                }
+                boolean last = position == to;
+                bytes.flip();
+                boolean done = decoder.decode(bytes, chars, last).isUnderflow() && last && !bytes.hasRemaining();
+                bytes.compact();
+                if (done) {
+                    decoder.flush(chars);
+                }
+
+                char[] text = chars.array();
+                int end = chars.position();
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    if (text[i] != '\n' && text[i] != '\r') {
+                        continue;
+                    }
+                    if (text[i] == '\r' && i + 1 == end && !done) {
+                        break;      //可能是"\r\n"被缓冲区截断，等下一轮
+                    }
+                    addLine(lines, text, start, i, ignore);
+                    if (text[i] == '\r' && i + 1 < end && text[i + 1] == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+                if (done) {
+                    addLine(lines, text, start, end, ignore);
+                    return lines;
+                }
+
+                //没读完的行移到缓冲区开头，一行比缓冲区还长时扩容
+                System.arraycopy(text, start, text, 0, end - start);
+                chars.position(end - start);
+                if (chars.remaining() < 2) {
+                    CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+                    chars.flip();
+                    larger.put(chars);
+                    chars = larger;
+                }
+            }
+        }
+    }
+
+    private static void addLine(List<String> lines, char[] text, int from, int to, String ignore) {
+        if (to > from && !startsWith(text, from, to, ignore)) {
+            lines.add(new String(text, from, to - from));
+        }
+    }
+
+    private static boolean startsWith(char[] text, int from, int to, String prefix) {
+        if (null == prefix || prefix.length() > to - from) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void writeLines(Stream<?> lines, String filePath) throws IOException {
+        writeLines(lines, filePath, DEFAULT_ENCODE);
+    }
+
+    /**
+     * 把流里的元素逐行写出，不需要先收集成列表；路径以.gz结尾时写成gzip压缩的文件，用writeAtomically写出
+     *
+     * @param lines    行，调用toString写出
+     * @param filePath 写出的路径
+     * @param encode   写出的编码
+     */
+    public static void writeLines(Stream<?> lines, String filePath, String encode) throws IOException {
+        writeAtomically(filePath, tmp -> {
+            OutputStream out = new FileOutputStream(tmp);
+            if (filePath.endsWith(".gz")) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, charset(encode)), BUFFER_SIZE)) {
+                Iterator<?> iterator = lines.iterator();
+                while (iterator.hasNext()) {
+                    writer.write(iterator.next().toString());
+                    writer.newLine();
+                }
+            }
+        });
+    }
+
+    /**
+     * 写出文件内容的回调
+     */
+    public interface TempFileWriter {
+        /**
+         * @param tmp 与目标文件同目录的临时文件，写完后由writeAtomically替换目标文件
+         */
+        void write(File tmp) throws IOException;
+    }
+
+    /**
+     * 先写到同目录下的临时文件，写完后原子地替换目标文件，中途失败或者被中断不会留下不完整的文件，也不会破坏原来的文件
+     *
+     * @param filePath 写出的路径
+     * @param writer   把内容写到临时文件
+     * @return 写好的目标文件
+     */
+    public static File writeAtomically(String filePath, TempFileWriter writer) throws IOException {
+        Path target = new File(filePath).getAbsoluteFile().toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + "." + System.nanoTime() + ".tmp");
+        try {
+            writer.write(tmp.toFile());
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return target.toFile();
+    }
+
+    /**
+     * 多线程获得一个目录下所有的文件，结果与listFiles相同，按路径排序
+     * <p>
+     * Files.walk是单线程逐个目录展开的，流的parallel()并不能并行遍历目录；这里每个子目录作为一个
+     * ForkJoin任务，在网络文件系统或目录很多时并行列目录。与listFiles一样跟随符号链接，
+     * 按文件的fileKey跳过已经遍历过的目录，避免链接成环
+     *
+     * @param dir     目录，也可以是单个文件
+     * @param threads 线程数
+     */
+    public static List<String> listFiles(String dir, int threads) {
+        Path root = Paths.get(dir).toAbsolutePath();
+        if (!Files.isDirectory(root)) {
+            return new ArrayList<>(Collections.singletonList(root.toString()));
+        }
+        Queue<String> files = new ConcurrentLinkedQueue<>();
+        Set<Object> visited = ConcurrentHashMap.newKeySet();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new ListTask(root, files, visited));
+        } finally {
+            pool.shutdown();
+        }
+        List<String> result = new ArrayList<>(files);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Queue<String> files;
+        private final Set<Object> visited;
+
+        ListTask(Path dir, Queue<String> files, Set<Object> visited) {
+            this.dir = dir;
+            this.files = files;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            List<ListTask> subdirs = new ArrayList<>();
+            try {
+                Object key = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+                if (null != key && !visited.add(key)) {
+                    return;
+                }
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                    for (Path child : children) {
+                        if (Files.isDirectory(child)) {
+                            subdirs.add(new ListTask(child, files, visited));
+                        } else {
+                            files.add(child.toString());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("读取目录出错:" + dir, e);
+            }
+            invokeAll(subdirs);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.msg.util;
+
+import com.msg.text.IntArrayBuilder;
+import com.msg.text.LabeledLine;
+import com.msg.text.TokenizedCorpus;
+import lombok.Data;
+
+import java.util.*;
+
+/**
+ * Created by MSG on 2018-11-01:上午9:50
+ */
+public class TrainTestSplit {
+    private static final int MAX_PRINTED_WRONG_TEXTS = 10;
+
+    /**
+     * 拆分后的数据及标签对象
+     */
+    @Data
+    public static class TrainTest {
+        private List<String> trainX;
+        private List<String> testX;
+        private List<String> trainY;
+        private List<String> testY;
+
+        private Set<String> labels;
+        private List<String> wrongTexts;
+    }
+
+    /**
+     * 拆分数据集，拆分成四部分，trainX，testX，trainY，testY
+     *
+     * @param lines       待拆分数据集, 格式为用labelSplit拆分为两部分,第一部分为分好词的数据,第二部分为标签,参考fasttext数据格式
+     * @param testPercent 测试集的百分比
+     * @param labelSplit  拆分数据和标签的拆分符，按字面匹配
+     * @return
+     */
+    public static TrainTest split(List<String> lines, float testPercent, String labelSplit, Random rng) {
+        TrainTest trainTest = new TrainTest();
+
+        List<String> wrongTexts = new ArrayList<>();
+        Map<String, List<String>> labelMap = new HashMap<>();
+
+        //按字面查找分隔符，不用每行编译一次正则的String.split；标签是第一个和第二个分隔符之间的部分
+        LabeledLine labeledLine = new LabeledLine(labelSplit);
+        for (String line : lines) {
+            if (!labeledLine.parse(line)) {
+                wrongTexts.add(line);
+                continue;
+            }
+            List<String> labelList = labelMap.computeIfAbsent(labeledLine.label(), k -> new ArrayList<>());
+            labelList.add(labeledLine.text());
+        }
+
+        trainTest.setWrongTexts(wrongTexts);
+        trainTest.setLabels(labelMap.keySet());
+
+        List<String> trainX = new ArrayList<>();
+        List<String> trainY = new ArrayList<>();
+        List<String> testX = new ArrayList<>();
+        List<String> testY = new ArrayList<>();
+
+        for (Map.Entry<String, List<String>> entry : labelMap.entrySet()) {
+            String label = entry.getKey();
+            List<String> labelList = entry.getValue();
+            int numAll = (int) (testPercent * (labelList.size() - 1)) + 1;
+            Collections.shuffle(labelList, rng);
+            for (int i = numAll; i < labelList.size(); i++) {
+                String line = labelList.get(i);
+                trainX.add(line);
+                trainY.add(label);
+            }
+
+            for (int i = 0; i < numAll; i++) {
+                String line = labelList.get(i);
+                testX.add(line);
+                testY.add(label);
+            }
+        }
+        trainTest.setTrainX(trainX);
+        trainTest.setTrainY(trainY);
+        trainTest.setTestX(testX);
+        trainTest.setTestY(testY);
+
+        System.out.println("训练集和测试集的拆分情况：");
+
+        System.out.println("\ttrainX size:" + trainX.size());
+        System.out.println("\ttrainY size:" + trainY.size());
+        System.out.println("\ttestX size:" + testX.size());
+        System.out.println("\ttestY size:" + testY.size());
+
+        System.out.println("\twrong size:" + wrongTexts.size());
+        //只打印前几条，格式错误的行很多时不刷屏
+        System.out.println("\twrong text:" + wrongTexts.subList(0, Math.min(MAX_PRINTED_WRONG_TEXTS, wrongTexts.size())));
+        return trainTest;
+    }
+
+    /**
+     * 按类别分层拆分已经转换成ID的语料，每个类别的测试集条数与split(List, ...)相同，不复制ID
+     *
+     * @param corpus      语料
+     * @param testPercent 测试集的百分比
+     * @return 训练集和测试集两个视图
+     */
+    public static TokenizedCorpus[] split(TokenizedCorpus corpus, float testPercent, Random rng) {
+        IntArrayBuilder train = new IntArrayBuilder(corpus.size());
+        IntArrayBuilder test = new IntArrayBuilder(corpus.size() / 4 + 1);
+        for (int[] indexes : shuffledByLabel(corpus, rng)) {
+            if (indexes.length == 0) {
+                continue;
+            }
+            int numAll = (int) (testPercent * (indexes.length - 1)) + 1;
+            for (int i = 0; i < indexes.length; i++) {
+                (i < numAll ? test : train).accept(indexes[i]);
+            }
+        }
+        System.out.println("训练集和测试集的拆分情况：train size:" + train.size() + ", test size:" + test.size());
+        return new TokenizedCorpus[]{corpus.select(train.toArray()), corpus.select(test.toArray())};
+    }
+
+    /**
+     * 分层k折：每个类别的句子打乱后依次轮流分到k折里，各折的类别比例与整个语料一致，大小最多相差1
+     *
+     * @param corpus 语料
+     * @param k      折数
+     * @return 每个句子所在的折，下标与语料一致；只有一个int数组，不随折数增长
+     */
+    public static int[] stratifiedFolds(TokenizedCorpus corpus, int k, Random rng) {
+        if (k < 2 || k > corpus.size()) {
+            throw new IllegalArgumentException("折数应在2到句子数之间:" + k);
+        }
+        int[] folds = new int[corpus.size()];
+        int next = 0;
+        for (int[] indexes : shuffledByLabel(corpus, rng)) {
+            for (int index : indexes) {
+                folds[index] = next;
+                next = (next + 1) % k;
+            }
+        }
+        return folds;
+    }
+
+    /**
+     * @param corpus 语料
+     * @param folds  stratifiedFolds的结果
+     * @param fold   作为测试集的折
+     * @return 训练集和测试集两个视图，不复制ID
+     */
+    public static TokenizedCorpus[] fold(TokenizedCorpus corpus, int[] folds, int fold) {
+        IntArrayBuilder train = new IntArrayBuilder(corpus.size());
+        IntArrayBuilder test = new IntArrayBuilder(corpus.size() / 4 + 1);
+        for (int i = 0; i < folds.length; i++) {
+            (folds[i] == fold ? test : train).accept(i);
+        }
+        return new TokenizedCorpus[]{corpus.select(train.toArray()), corpus.select(test.toArray())};
+    }
+
+    /**
+     * @return 按类别分组并打乱的句子下标
+     */
+    private static int[][] shuffledByLabel(TokenizedCorpus corpus, Random rng) {
+        int[] counts = corpus.labelCounts();
+        int[][] byLabel = new int[counts.length][];
+        for (int label = 0; label < counts.length; label++) {
+            byLabel[label] = new int[counts[label]];
+        }
+        int[] filled = new int[counts.length];
+        for (int i = 0; i < corpus.size(); i++) {
+            int label = corpus.label(i);
+            byLabel[label][filled[label]++] = i;
+        }
+        for (int[] indexes : byLabel) {
+            for (int i = indexes.length - 1; i > 0; i--) {
+                int j = rng.nextInt(i + 1);
+                int tmp = indexes[i];
+                indexes[i] = indexes[j];
+                indexes[j] = tmp;
+            }
+        }
+        return byLabel;
+    }
+}
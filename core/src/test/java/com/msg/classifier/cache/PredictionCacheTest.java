@@ -0,0 +1,76 @@
+package com.msg.classifier.cache;
+
+import com.msg.classifier.Prediction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PredictionCacheTest {
+    private static Prediction prediction(String label) {
+        return new Prediction(label, 0, new double[]{1.0, 0.0});
+    }
+
+    @Test
+    public void sameKeyForTextsWithSameNormalization() {
+        PredictionCache cache = new PredictionCache(100, 0);
+        cache.put(cache.key("promo  hadiah "), prediction("yes"), 1);
+        Prediction cached = cache.get(cache.key("promo hadiah"), 1);
+        assertNotNull(cached);
+        assertEquals("yes", cached.getLabel());
+    }
+
+    @Test
+    public void hotKeySurvivesScan() {
+        PredictionCache cache = new PredictionCache(100, 0);
+        long hot = cache.key("hot");
+        cache.put(hot, prediction("hot"), 1);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get(hot, 1));
+        }
+
+        //一次性的文本，每个都先查一次再写入，数量是容量的十倍
+        for (int i = 0; i < 1000; i++) {
+            long key = cache.key("scan " + i);
+            assertNull(cache.get(key, 1));
+            cache.put(key, prediction("scan"), 1);
+        }
+
+        assertNotNull(cache.get(hot, 1));
+        assertTrue(cache.size() <= cache.getMaximumSize());
+        assertTrue(cache.stats().getEvictions() > 0);
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() throws InterruptedException {
+        PredictionCache cache = new PredictionCache(100, 20);
+        long key = cache.key("promo");
+        cache.put(key, prediction("yes"), 1);
+        assertNotNull(cache.get(key, 1));
+
+        Thread.sleep(50);
+        assertNull(cache.get(key, 1));
+        assertEquals(1, cache.stats().getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void newerModelVersionFlushesCache() {
+        PredictionCache cache = new PredictionCache(100, 0);
+        long first = cache.key("promo");
+        long second = cache.key("kantor");
+        cache.put(first, prediction("yes"), 1);
+        cache.put(second, prediction("no"), 1);
+        assertEquals(2, cache.size());
+
+        assertNull(cache.get(first, 2));
+        assertEquals(0, cache.size());
+
+        //旧模型晚到的结果不写入
+        cache.put(second, prediction("no"), 1);
+        assertNull(cache.get(second, 2));
+        assertNull(cache.get(second, 1));
+
+        cache.put(second, prediction("no"), 2);
+        assertNotNull(cache.get(second, 2));
+    }
+}
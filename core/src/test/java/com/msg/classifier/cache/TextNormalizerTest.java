@@ -0,0 +1,54 @@
+package com.msg.classifier.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TextNormalizerTest {
+    private static final String[] TEXTS = {
+            "",
+            "   ",
+            "promo hadiah",
+            "  promo \t hadiah\r\n",
+            "\fPromo  HADIAH 12345 klik\t",
+            "kode 0987 berlaku 5 menit",
+            "中文 文本\t测试 2019",
+    };
+
+    private static final TextNormalizer[] NORMALIZERS = {
+            new TextNormalizer(),
+            new TextNormalizer(false, false, false),
+            new TextNormalizer(true, true, false),
+            new TextNormalizer(true, false, true),
+            new TextNormalizer(true, true, true),
+    };
+
+    @Test
+    public void hashEqualsHashOfNormalizedText() {
+        for (TextNormalizer normalizer : NORMALIZERS) {
+            for (String text : TEXTS) {
+                String normalized = normalizer.normalize(text);
+                assertEquals("[" + text + "]", normalizer.hash(normalized), normalizer.hash(text));
+                assertEquals("[" + text + "]", normalized, normalizer.normalize(normalized));
+            }
+        }
+    }
+
+    @Test
+    public void collapsesWhitespaceByDefault() {
+        TextNormalizer normalizer = new TextNormalizer();
+        assertEquals("promo hadiah", normalizer.normalize("  promo \t hadiah\r\n"));
+        assertEquals(normalizer.hash("promo hadiah"), normalizer.hash("  promo \t hadiah\r\n"));
+        assertNotEquals(normalizer.hash("promo hadiah"), normalizer.hash("promohadiah"));
+    }
+
+    @Test
+    public void ignoresCaseAndMasksDigitsOnlyWhenEnabled() {
+        TextNormalizer plain = new TextNormalizer();
+        TextNormalizer relaxed = new TextNormalizer(true, true, true);
+        assertNotEquals(plain.hash("Kode 1234"), plain.hash("kode 9876"));
+        assertEquals(relaxed.hash("Kode 1234"), relaxed.hash("kode 9876"));
+        assertEquals("kode 0000", relaxed.normalize("Kode 1234"));
+    }
+}
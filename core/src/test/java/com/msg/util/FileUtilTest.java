@@ -0,0 +1,78 @@
+package com.msg.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileUtilTest {
+    //混合'\n'、"\r\n"和'\r'，有空行、注释行、多字节字符，最后一行没有换行符
+    private static final String TEXT = "promo hadiah\r\n"
+            + "\n"
+            + "# 注释\r"
+            + "中文 文本 测试\r\n"
+            + "\r\n"
+            + "kode 0987 berlaku\r"
+            + "\r"
+            + "line with # inside\n"
+            + "\r\n\r\n"
+            + "最后一行没有换行符";
+
+    private static File write(String text) throws IOException {
+        File file = File.createTempFile("file-util", ".txt");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static void assertSameAsSequential(File file) {
+        List<String> expected = FileUtil.readFileToArray(file.getPath());
+        for (int threads : new int[]{1, 4}) {
+            for (int chunkSize : new int[]{1, 2, 3, 7, 64, 4096}) {
+                List<String> lines = FileUtil.readFileToArrayParallel(file.getPath(),
+                        FileUtil.DEFAULT_ENCODE, FileUtil.DEFAULT_IGNORE, threads, chunkSize);
+                assertEquals("threads=" + threads + ", chunkSize=" + chunkSize, expected, lines);
+            }
+        }
+    }
+
+    @Test
+    public void parallelReadEqualsSequentialRead() throws IOException {
+        File file = write(TEXT);
+        assertEquals(5, FileUtil.readFileToArray(file.getPath()).size());
+        assertSameAsSequential(file);
+    }
+
+    @Test
+    public void parallelReadEqualsSequentialReadOnLongFile() throws IOException {
+        //行比64K的缓冲区长，"\r\n"可能正好被缓冲区截断
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append(i % 3 == 0 ? "中文 " : "word ").append(i);
+            text.append(i % 4 == 0 ? "\r\n" : i % 4 == 1 ? "\r" : "\n");
+        }
+        for (int i = 0; i < 70000; i++) {
+            text.append('x');
+        }
+        text.append("\r\n").append(TEXT);
+        File file = write(text.toString());
+        assertTrue(FileUtil.readFileToArray(file.getPath()).size() > 2000);
+        assertSameAsSequential(file);
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        File file = write("");
+        assertTrue(FileUtil.readFileToArrayParallel(file.getPath(), 4).isEmpty());
+        assertSameAsSequential(file);
+    }
+}